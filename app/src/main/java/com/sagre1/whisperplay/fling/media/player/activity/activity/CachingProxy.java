@@ -0,0 +1,729 @@
+package com.sagre1.whisperplay.fling.media.player.activity.activity;
+
+import android.util.Log;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.URL;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Loopback HTTP server that puts a {@link MediaCache} in front of remote media.
+ *
+ * {@link #proxyUrl} rewrites a remote URL to point here. Requests for cached media are
+ * served, ranges included, from disk. Otherwise a {@link ChunkedDownloader} fetches the
+ * media with several range requests and the player is fed from its file as the bytes
+ * land; later requests for the same URL, seeks included, share that download. It carries
+ * on to the end even if the player hangs up, so the next load is a hit.
+ *
+ * Origins that don't serve ranges are streamed with a single request and written to the
+ * cache at the same time, and range requests that don't start at 0 are passed through
+ * uncached.
+ *
+ * Copies older than a day are revalidated with a conditional request for their first
+ * byte, so a changed origin costs one download, not two.
+ */
+class CachingProxy {
+    private static final String TAG = "CachingProxy";
+
+    private static final String PATH = "/media";
+    private static final String PARAM = "u=";
+    private static final int BUFFER_SIZE = 32 * 1024;
+    private static final int CONNECT_TIMEOUT = 10000;
+    private static final int READ_TIMEOUT = 15000;
+    public static final long DEFAULT_REVALIDATE_AFTER = 24L * 60L * 60L * 1000L;
+
+    private final MediaCache mCache;
+    // Running downloads by URL, and hosts that answered a range probe with the whole file.
+    private final Map<String, ChunkedDownloader> mDownloads = new HashMap<String, ChunkedDownloader>();
+    private final Set<String> mNoRangeHosts = new HashSet<String>();
+    private int mConnections = ChunkedDownloader.DEFAULT_CONNECTIONS;
+    private volatile long mRevalidateAfter = DEFAULT_REVALIDATE_AFTER;
+    private ServerSocket mServer;
+    private Thread mAcceptor;
+    private ExecutorService mWorkers;
+
+    private final AtomicLong mHits = new AtomicLong();
+    private final AtomicLong mMisses = new AtomicLong();
+    private final AtomicLong mBytesFromCache = new AtomicLong();
+    private final AtomicLong mBytesFromNetwork = new AtomicLong();
+    private final AtomicLong mPrefetches = new AtomicLong();
+    private final AtomicLong mChunkedLoads = new AtomicLong();
+    private final AtomicLong mFirstBytesMs = new AtomicLong();
+    private final AtomicLong mRevalidations = new AtomicLong();
+    private final AtomicLong mRevalidationsChanged = new AtomicLong();
+
+    private final ChunkedDownloader.Listener mDownloadListener = new ChunkedDownloader.Listener() {
+        @Override
+        public void onDownloadFinished(ChunkedDownloader download, boolean complete) {
+            // Commit before forgetting the download, so the URL is never in neither.
+            if (complete) {
+                mBytesFromNetwork.addAndGet(download.getTotal());
+                mChunkedLoads.incrementAndGet();
+                mFirstBytesMs.addAndGet(download.getFirstBytesMs());
+                mCache.commit(download.getUrl(), download.getTarget(), download.getValidator(),
+                        download.getContentType());
+            } else {
+                download.getTarget().delete();
+            }
+            synchronized (mDownloads) {
+                if (mDownloads.get(download.getUrl()) == download) {
+                    mDownloads.remove(download.getUrl());
+                }
+            }
+        }
+    };
+
+    /**
+     * Constructor.
+     *
+     * @param cache
+     *            Cache to serve from and fill
+     */
+    public CachingProxy(MediaCache cache) {
+        mCache = cache;
+    }
+
+    /**
+     * Bind to an ephemeral loopback port and start accepting.
+     */
+    public synchronized void start() throws IOException {
+        if (mServer != null) {
+            return;
+        }
+        mServer = new ServerSocket(0, 8, InetAddress.getByName("127.0.0.1"));
+        mWorkers = Executors.newCachedThreadPool(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "CachingProxyWorker");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        final ServerSocket server = mServer;
+        mAcceptor = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while (!server.isClosed()) {
+                    try {
+                        final Socket client = server.accept();
+                        mWorkers.execute(new Runnable() {
+                            @Override
+                            public void run() {
+                                serve(client);
+                            }
+                        });
+                    } catch (IOException e) {
+                        if (!server.isClosed()) {
+                            Log.w(TAG, "Accept failed", e);
+                        }
+                    }
+                }
+            }
+        }, "CachingProxy");
+        mAcceptor.setDaemon(true);
+        mAcceptor.start();
+        Log.i(TAG, "Listening on port " + mServer.getLocalPort());
+    }
+
+    /**
+     * Stop accepting and abandon running transfers.
+     */
+    public synchronized void stop() {
+        if (mServer == null) {
+            return;
+        }
+        MediaCache.closeQuietly(mServer);
+        synchronized (mDownloads) {
+            for (ChunkedDownloader download : mDownloads.values()) {
+                download.cancel();
+            }
+        }
+        mWorkers.shutdownNow();
+        mServer = null;
+        Log.i(TAG, "Stopped. " + this);
+    }
+
+    /**
+     * Returns the loopback URL for the remote one, or the URL itself if it is not
+     * http(s) or the proxy isn't running.
+     */
+    public synchronized String proxyUrl(String url) {
+        if (mServer == null || url == null
+                || !(url.startsWith("http://") || url.startsWith("https://"))) {
+            return url;
+        }
+        try {
+            return "http://127.0.0.1:" + mServer.getLocalPort() + PATH + "?" + PARAM
+                    + URLEncoder.encode(url, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            return url;
+        }
+    }
+
+    /**
+     * Download media into the cache with no player waiting for it. Blocks until the copy
+     * is complete, or failed. A player asking for the same media meanwhile shares the
+     * download.
+     */
+    public void prefetch(String url) throws IOException {
+        if (mCache.get(url) != null) {
+            return;
+        }
+        mPrefetches.incrementAndGet();
+        OutputStream discard = new OutputStream() {
+            @Override
+            public void write(int b) {
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+            }
+        };
+        if (!serveDownload(url, false, 0L, -1L, discard)) {
+            HttpURLConnection conn = open(url, null, -1L, -1L);
+            try {
+                fill(url, conn, false, discard);
+            } finally {
+                conn.disconnect();
+            }
+        }
+    }
+
+    /**
+     * Set how many range requests each uncached load uses. Applies to the next load.
+     */
+    public synchronized void setConnections(int connections) {
+        if (connections < 1) {
+            throw new IllegalArgumentException("Need at least one connection");
+        }
+        mConnections = connections;
+    }
+
+    /**
+     * Set the age after which a cached copy is checked with the origin before use.
+     */
+    public void setRevalidateAfter(long ms) {
+        if (ms < 0L) {
+            throw new IllegalArgumentException("Negative revalidation age");
+        }
+        mRevalidateAfter = ms;
+    }
+
+    /**
+     * Returns the mean time for the leading bytes of a chunked load to land, or -1.
+     */
+    public long getMeanFirstBytesMs() {
+        long loads = mChunkedLoads.get();
+        return loads > 0L ? mFirstBytesMs.get() / loads : -1L;
+    }
+
+    public long getHitCount() {
+        return mHits.get();
+    }
+
+    public long getMissCount() {
+        return mMisses.get();
+    }
+
+    public long getBytesFromCache() {
+        return mBytesFromCache.get();
+    }
+
+    public long getBytesFromNetwork() {
+        return mBytesFromNetwork.get();
+    }
+
+    /**
+     * Returns the copies checked with the origin, and how many of those had changed.
+     */
+    public long getRevalidationCount() {
+        return mRevalidations.get();
+    }
+
+    public long getRevalidationChangedCount() {
+        return mRevalidationsChanged.get();
+    }
+
+    /**
+     * Returns the counters, for the "cache" query.
+     */
+    public JSONObject toJson() throws JSONException {
+        JSONObject json = new JSONObject();
+        json.put("hits", mHits.get());
+        json.put("misses", mMisses.get());
+        json.put("prefetches", mPrefetches.get());
+        json.put("revalidations", mRevalidations.get());
+        json.put("revalidationsChanged", mRevalidationsChanged.get());
+        json.put("cacheBytes", mBytesFromCache.get());
+        json.put("networkBytes", mBytesFromNetwork.get());
+        json.put("chunkedLoads", mChunkedLoads.get());
+        json.put("firstBytesMs", getMeanFirstBytesMs());
+        json.put("cachedBytes", mCache.getSize());
+        json.put("cachedEntries", mCache.getEntryCount());
+        json.put("maxBytes", mCache.getMaxSize());
+        return json;
+    }
+
+    @Override
+    public String toString() {
+        return "CachingProxy[hits=" + mHits.get() + " misses=" + mMisses.get() + " prefetches=" + mPrefetches.get()
+                + " revalidations=" + mRevalidations.get() + "/" + mRevalidationsChanged.get()
+                + " cacheBytes=" + mBytesFromCache.get() + " networkBytes=" + mBytesFromNetwork.get()
+                + " chunkedLoads=" + mChunkedLoads.get() + " firstBytesMs=" + getMeanFirstBytesMs()
+                + " cached=" + mCache.getSize() + "/" + mCache.getMaxSize() + "]";
+    }
+
+    /*
+     * Handle one request on a worker thread.
+     */
+    private void serve(Socket client) {
+        try {
+            client.setSoTimeout(READ_TIMEOUT);
+            InputStream in = new BufferedInputStream(client.getInputStream());
+            String requestLine = readLine(in);
+            long rangeStart = 0L;
+            long rangeEnd = -1L;
+            String line;
+            while ((line = readLine(in)) != null && line.length() > 0) {
+                int colon = line.indexOf(':');
+                if (colon > 0 && line.substring(0, colon).trim().equalsIgnoreCase("Range")) {
+                    long[] range = parseRange(line.substring(colon + 1).trim());
+                    if (range != null) {
+                        rangeStart = range[0];
+                        rangeEnd = range[1];
+                    }
+                }
+            }
+            OutputStream out = client.getOutputStream();
+            String url = parseTarget(requestLine);
+            if (url == null) {
+                writeHead(out, 400, "Bad Request", null, 0L, -1L, -1L, -1L);
+                return;
+            }
+            boolean head = requestLine.startsWith("HEAD ");
+            handle(url, head, rangeStart, rangeEnd, out);
+        } catch (SocketException e) {
+            // Player hung up, usually to seek.
+        } catch (IOException e) {
+            Log.w(TAG, "Request failed", e);
+        } finally {
+            MediaCache.closeQuietly(client);
+        }
+    }
+
+    private void handle(String url, boolean head, long rangeStart, long rangeEnd, OutputStream out)
+            throws IOException {
+        MediaCache.Entry entry = mCache.get(url);
+        if (entry != null && System.currentTimeMillis() - entry.getStoredAt() > mRevalidateAfter
+                && !revalidate(url, entry)) {
+            entry = null;
+        }
+        if (entry != null) {
+            mHits.incrementAndGet();
+            serveCached(entry, head, rangeStart, rangeEnd, out);
+            return;
+        }
+        mMisses.incrementAndGet();
+        HttpURLConnection conn = null;
+        try {
+            if (serveDownload(url, head, rangeStart, rangeEnd, out)) {
+                return;
+            }
+            if (rangeStart > 0L || rangeEnd >= 0L) {
+                conn = open(url, null, rangeStart, rangeEnd);
+                passThrough(conn, head, out);
+            } else {
+                conn = open(url, null, -1L, -1L);
+                fill(url, conn, head, out);
+            }
+        } finally {
+            if (conn != null) {
+                conn.disconnect();
+            }
+        }
+    }
+
+    /*
+     * Ask the origin whether the copy is current, for one byte so a changed copy is not sent
+     * twice: the download that replaces it fetches the body.
+     *
+     * @return false if the copy is out of date
+     */
+    private boolean revalidate(String url, MediaCache.Entry entry) {
+        mRevalidations.incrementAndGet();
+        HttpURLConnection conn = null;
+        try {
+            conn = open(url, entry, 0L, 0L);
+            int code = conn.getResponseCode();
+            if (code == HttpURLConnection.HTTP_OK || code == HttpURLConnection.HTTP_PARTIAL) {
+                mRevalidationsChanged.incrementAndGet();
+                return false;
+            }
+            if (code == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                mCache.touch(entry);
+            }
+            // Otherwise origin trouble; the copy we have is better than nothing.
+            return true;
+        } catch (IOException e) {
+            Log.w(TAG, "Cannot revalidate " + url + ": " + e.getMessage());
+            return true;
+        } finally {
+            if (conn != null) {
+                conn.disconnect();
+            }
+        }
+    }
+
+    private void serveCached(MediaCache.Entry entry, boolean head, long start, long end, OutputStream out)
+            throws IOException {
+        long last = writeEntityHead(out, entry.mContentType, start, end, entry.mLength);
+        if (head || last < 0L) {
+            return;
+        }
+        long count = last - start + 1;
+        RandomAccessFile file = new RandomAccessFile(entry.mFile, "r");
+        try {
+            file.seek(start);
+            byte[] buf = new byte[BUFFER_SIZE];
+            while (count > 0) {
+                int n = file.read(buf, 0, (int) Math.min(buf.length, count));
+                if (n < 0) {
+                    break;
+                }
+                out.write(buf, 0, n);
+                count -= n;
+                mBytesFromCache.addAndGet(n);
+            }
+            out.flush();
+        } finally {
+            file.close();
+        }
+    }
+
+    /*
+     * Serve from the running download of the URL, starting one if there is none. An error
+     * status from the origin is passed on to the player.
+     *
+     * @return false if the origin can't serve ranges and nothing was written
+     */
+    private boolean serveDownload(String url, boolean head, long start, long end, OutputStream out)
+            throws IOException {
+        String host = new URL(url).getHost();
+        ChunkedDownloader download;
+        boolean created = false;
+        synchronized (mDownloads) {
+            download = mDownloads.get(url);
+            if (download == null || !download.acquire()) {
+                if (mNoRangeHosts.contains(host)) {
+                    return false;
+                }
+                download = new ChunkedDownloader(url, mCache.createTempFile(url), mConnections,
+                        ChunkedDownloader.DEFAULT_CHUNK_SIZE, mWorkers, mDownloadListener);
+                mDownloads.put(url, download);
+                created = true;
+            }
+        }
+        try {
+            if (created) {
+                download.start();
+            }
+            boolean started;
+            try {
+                started = download.awaitStarted();
+            } catch (IOException e) {
+                int code = download.getResponseCode();
+                if (code < HttpURLConnection.HTTP_BAD_REQUEST) {
+                    throw e;
+                }
+                String message = download.getResponseMessage();
+                writeHead(out, code, message != null ? message : "Error", null, 0L, -1L, -1L, -1L);
+                return true;
+            }
+            if (!started) {
+                boolean refused = download.getResponseCode() == HttpURLConnection.HTTP_OK;
+                synchronized (mDownloads) {
+                    mDownloads.remove(url);
+                    if (refused) {
+                        // Only a host that sent the whole body for a range is given up on.
+                        mNoRangeHosts.add(host);
+                    }
+                }
+                Log.d(TAG, url + " cannot be fetched in ranges, status " + download.getResponseCode());
+                return false;
+            }
+            long last = writeEntityHead(out, download.getContentType(), start, end, download.getTotal());
+            if (head || last < 0L) {
+                return true;
+            }
+            byte[] buf = new byte[BUFFER_SIZE];
+            long position = start;
+            while (position <= last) {
+                long available = Math.min(download.waitFor(position), last + 1);
+                while (position < available) {
+                    int n = download.read(position, buf, 0, (int) Math.min(buf.length, available - position));
+                    if (n < 0) {
+                        throw new IOException("Short read from download");
+                    }
+                    out.write(buf, 0, n);
+                    position += n;
+                }
+            }
+            out.flush();
+            return true;
+        } finally {
+            download.release();
+        }
+    }
+
+    /*
+     * Stream a full response to the player while writing it to the cache. Keeps reading
+     * after the player goes away so the cache gets a complete copy.
+     */
+    private void fill(String url, HttpURLConnection conn, boolean head, OutputStream out) throws IOException {
+        int code = conn.getResponseCode();
+        if (code != HttpURLConnection.HTTP_OK) {
+            passThrough(conn, head, out);
+            return;
+        }
+        long length = conn.getContentLength();
+        String type = conn.getContentType();
+        writeHead(out, 200, "OK", type, length, -1L, -1L, -1L);
+        if (head) {
+            return;
+        }
+        String validator = conn.getHeaderField("ETag");
+        if (validator == null) {
+            validator = conn.getHeaderField("Last-Modified");
+        }
+        File temp = mCache.createTempFile(url);
+        OutputStream file = new FileOutputStream(temp);
+        InputStream in = conn.getInputStream();
+        boolean clientGone = false;
+        long total = 0L;
+        boolean complete = false;
+        try {
+            byte[] buf = new byte[BUFFER_SIZE];
+            int n;
+            while ((n = in.read(buf)) >= 0) {
+                file.write(buf, 0, n);
+                total += n;
+                mBytesFromNetwork.addAndGet(n);
+                if (!clientGone) {
+                    try {
+                        out.write(buf, 0, n);
+                    } catch (IOException e) {
+                        clientGone = true;
+                    }
+                }
+            }
+            complete = length < 0L || total == length;
+        } finally {
+            MediaCache.closeQuietly(in);
+            MediaCache.closeQuietly(file);
+            if (complete) {
+                mCache.commit(url, temp, validator, type);
+            } else {
+                temp.delete();
+            }
+        }
+        if (!clientGone) {
+            out.flush();
+        }
+    }
+
+    private void passThrough(HttpURLConnection conn, boolean head, OutputStream out) throws IOException {
+        int code = conn.getResponseCode();
+        long length = conn.getContentLength();
+        String contentRange = conn.getHeaderField("Content-Range");
+        StringBuilder sb = new StringBuilder();
+        sb.append("HTTP/1.1 ").append(code).append(' ')
+                .append(conn.getResponseMessage() != null ? conn.getResponseMessage() : "").append("\r\n");
+        if (conn.getContentType() != null) {
+            sb.append("Content-Type: ").append(conn.getContentType()).append("\r\n");
+        }
+        if (length >= 0L) {
+            sb.append("Content-Length: ").append(length).append("\r\n");
+        }
+        if (contentRange != null) {
+            sb.append("Content-Range: ").append(contentRange).append("\r\n");
+        }
+        sb.append("Accept-Ranges: bytes\r\nConnection: close\r\n\r\n");
+        out.write(sb.toString().getBytes("ISO-8859-1"));
+        if (head) {
+            out.flush();
+            return;
+        }
+        InputStream in = code >= 400 ? conn.getErrorStream() : conn.getInputStream();
+        if (in == null) {
+            out.flush();
+            return;
+        }
+        try {
+            byte[] buf = new byte[BUFFER_SIZE];
+            int n;
+            while ((n = in.read(buf)) >= 0) {
+                out.write(buf, 0, n);
+                mBytesFromNetwork.addAndGet(n);
+            }
+            out.flush();
+        } finally {
+            MediaCache.closeQuietly(in);
+        }
+    }
+
+    private static HttpURLConnection open(String url, MediaCache.Entry revalidate, long start, long end)
+            throws IOException {
+        HttpURLConnection conn = (HttpURLConnection) new URL(url).openConnection();
+        conn.setConnectTimeout(CONNECT_TIMEOUT);
+        conn.setReadTimeout(READ_TIMEOUT);
+        // Content-Length must match what we store.
+        conn.setRequestProperty("Accept-Encoding", "identity");
+        if (revalidate != null && revalidate.mValidator != null) {
+            if (revalidate.mValidator.startsWith("\"") || revalidate.mValidator.startsWith("W/")) {
+                conn.setRequestProperty("If-None-Match", revalidate.mValidator);
+            } else {
+                conn.setRequestProperty("If-Modified-Since", revalidate.mValidator);
+            }
+        }
+        if (start > 0L || end >= 0L) {
+            conn.setRequestProperty("Range", "bytes=" + start + "-" + (end >= 0L ? Long.toString(end) : ""));
+        }
+        return conn;
+    }
+
+    /*
+     * Write a 200, 206 or 416 head for a known length.
+     *
+     * @return last byte to send, or -1 if there is no body
+     */
+    private static long writeEntityHead(OutputStream out, String type, long start, long end, long length)
+            throws IOException {
+        if (start >= length && length > 0L) {
+            writeHead(out, 416, "Range Not Satisfiable", null, 0L, -1L, -1L, length);
+            return -1L;
+        }
+        long last = (end < 0L || end >= length) ? length - 1 : end;
+        if (start > 0L || end >= 0L) {
+            writeHead(out, 206, "Partial Content", type, last - start + 1, start, last, length);
+        } else {
+            writeHead(out, 200, "OK", type, length, -1L, -1L, -1L);
+        }
+        return last;
+    }
+
+    private static void writeHead(OutputStream out, int code, String message, String type, long length,
+                                  long first, long last, long total) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        sb.append("HTTP/1.1 ").append(code).append(' ').append(message).append("\r\n");
+        if (type != null) {
+            sb.append("Content-Type: ").append(type).append("\r\n");
+        }
+        if (length >= 0L) {
+            sb.append("Content-Length: ").append(length).append("\r\n");
+        }
+        if (first >= 0L) {
+            sb.append("Content-Range: bytes ").append(first).append('-').append(last)
+                    .append('/').append(total).append("\r\n");
+        } else if (total >= 0L) {
+            sb.append("Content-Range: bytes */").append(total).append("\r\n");
+        }
+        sb.append("Accept-Ranges: bytes\r\nConnection: close\r\n\r\n");
+        out.write(sb.toString().getBytes("ISO-8859-1"));
+        out.flush();
+    }
+
+    /*
+     * Returns the remote URL from "GET /media?u=... HTTP/1.1", or null.
+     */
+    static String parseTarget(String requestLine) {
+        if (requestLine == null) {
+            return null;
+        }
+        String[] parts = requestLine.split(" ");
+        if (parts.length < 2 || !(parts[0].equals("GET") || parts[0].equals("HEAD"))) {
+            return null;
+        }
+        String target = parts[1];
+        int q = target.indexOf('?');
+        if (q < 0 || !target.substring(0, q).equals(PATH)) {
+            return null;
+        }
+        for (String param : target.substring(q + 1).split("&")) {
+            if (param.startsWith(PARAM)) {
+                try {
+                    return URLDecoder.decode(param.substring(PARAM.length()), "UTF-8");
+                } catch (UnsupportedEncodingException e) {
+                    return null;
+                }
+            }
+        }
+        return null;
+    }
+
+    /*
+     * Parses "bytes=start-end" and "bytes=start-". Suffix and multi ranges are not used
+     * by MediaPlayer, and are treated as a full request.
+     */
+    static long[] parseRange(String value) {
+        if (!value.startsWith("bytes=") || value.indexOf(',') >= 0) {
+            return null;
+        }
+        String spec = value.substring("bytes=".length()).trim();
+        int dash = spec.indexOf('-');
+        if (dash <= 0) {
+            return null;
+        }
+        try {
+            long start = Long.parseLong(spec.substring(0, dash).trim());
+            String endPart = spec.substring(dash + 1).trim();
+            long end = endPart.length() > 0 ? Long.parseLong(endPart) : -1L;
+            if (end >= 0L && end < start) {
+                return null;
+            }
+            return new long[] {start, end};
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        int c;
+        while ((c = in.read()) >= 0) {
+            if (c == '\n') {
+                break;
+            }
+            if (c != '\r') {
+                sb.append((char) c);
+            }
+            if (sb.length() > 8192) {
+                throw new IOException("Header line too long");
+            }
+        }
+        return (c < 0 && sb.length() == 0) ? null : sb.toString();
+    }
+}
@@ -0,0 +1,556 @@
+package com.sagre1.whisperplay.fling.media.player.activity.activity;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.concurrent.Executor;
+
+/**
+ * Downloads one file with several concurrent HTTP range requests into a preallocated file.
+ *
+ * The leading chunk is fetched first, by the probe that also learns the total length. If
+ * it shows an MP4 whose 'moov' box sits behind 'mdat', the tail holding it is fetched
+ * next, so a player can start as soon as both ends have landed. The rest is pulled in
+ * fixed size chunks, preferring the region a reader is waiting on.
+ *
+ * Readers call {@link #waitFor} and {@link #read} while the download runs. A probe
+ * answered with 200 and the whole body, or a 206 without a total length, is reported as
+ * unsupported. Any other status fails the download; {@link #getResponseCode} keeps it.
+ */
+class ChunkedDownloader {
+    private static final String TAG = "ChunkedDownloader";
+
+    public static final int DEFAULT_CONNECTIONS = 4;
+    public static final int DEFAULT_CHUNK_SIZE = 256 * 1024;
+
+    private static final int MAX_ATTEMPTS = 3;
+    private static final int CONNECT_TIMEOUT = 10000;
+    private static final int READ_TIMEOUT = 15000;
+    private static final int BUFFER_SIZE = 32 * 1024;
+
+    private static final int STATE_NEW = 0;
+    private static final int STATE_RUNNING = 1;
+    private static final int STATE_COMPLETE = 2;
+    private static final int STATE_UNSUPPORTED = 3;
+    private static final int STATE_FAILED = 4;
+
+    /**
+     * Told once, from a download thread, when the download ends.
+     */
+    public interface Listener {
+        void onDownloadFinished(ChunkedDownloader downloader, boolean complete);
+    }
+
+    private final String mUrl;
+    private final File mTarget;
+    private final int mConnections;
+    private final int mChunkSize;
+    private final Executor mExecutor;
+    private final Listener mListener;
+
+    // Guarded by this.
+    private int mState = STATE_NEW;
+    private long mTotal = -1L;
+    private boolean[] mDone;
+    private boolean[] mClaimed;
+    private int[] mAttempts;
+    private int[] mOrder;
+    private int mDoneCount = 0;
+    private int mWanted = -1;
+    private int mReaders = 1;
+    private boolean mCancelled = false;
+    private boolean mFinished = false;
+    private RandomAccessFile mReadFile;
+
+    private int mResponseCode = -1;
+    private String mResponseMessage;
+    private String mValidator;
+    private String mContentType;
+    private long mStartedAt;
+    private long mFirstBytesMs = -1L;
+    private long mElapsedMs = -1L;
+
+    /**
+     * Constructor. The creating reader holds the first reference; see {@link #release}.
+     *
+     * @param url
+     *            Media to fetch
+     * @param target
+     *            File to fill, sized to the media
+     * @param connections
+     *            Concurrent range requests
+     * @param chunkSize
+     *            Bytes per range request
+     * @param executor
+     *            Runs the probe's follow up workers
+     * @param listener
+     *            Told when the download ends, may be null
+     */
+    public ChunkedDownloader(String url, File target, int connections, int chunkSize,
+                             Executor executor, Listener listener) {
+        mUrl = url;
+        mTarget = target;
+        mConnections = Math.max(1, connections);
+        mChunkSize = Math.max(BUFFER_SIZE, chunkSize);
+        mExecutor = executor;
+        mListener = listener;
+    }
+
+    /**
+     * Probe the origin, fetch the leading chunk and start the workers. Blocks for the probe.
+     *
+     * @return false if the origin can't serve ranges; nothing was written then
+     */
+    public boolean start() {
+        mStartedAt = System.currentTimeMillis();
+        HttpURLConnection conn = null;
+        try {
+            conn = open(0L, mChunkSize - 1);
+            int code = conn.getResponseCode();
+            synchronized (this) {
+                mResponseCode = code;
+                mResponseMessage = conn.getResponseMessage();
+            }
+            if (code != HttpURLConnection.HTTP_OK && code != HttpURLConnection.HTTP_PARTIAL) {
+                // Missing, forbidden, expired or failing: this media, not the host's ranges.
+                Log.w(TAG, "Probe answered " + code + " for " + mUrl);
+                conn.disconnect();
+                setState(STATE_FAILED);
+                finish(false);
+                return false;
+            }
+            long total = -1L;
+            if (code == HttpURLConnection.HTTP_PARTIAL) {
+                total = parseTotal(conn.getHeaderField("Content-Range"));
+            }
+            if (total <= 0L) {
+                conn.disconnect();
+                setState(STATE_UNSUPPORTED);
+                return false;
+            }
+            mValidator = conn.getHeaderField("ETag");
+            if (mValidator == null) {
+                mValidator = conn.getHeaderField("Last-Modified");
+            }
+            mContentType = conn.getContentType();
+
+            RandomAccessFile file = new RandomAccessFile(mTarget, "rw");
+            byte[] head;
+            try {
+                file.setLength(total);
+                head = copy(conn.getInputStream(), file, 0L, Math.min(total, mChunkSize), true);
+            } finally {
+                file.close();
+            }
+            int chunks = (int) ((total + mChunkSize - 1) / mChunkSize);
+            synchronized (this) {
+                mTotal = total;
+                mDone = new boolean[chunks];
+                mClaimed = new boolean[chunks];
+                mAttempts = new int[chunks];
+                mOrder = order(chunks, findTrailingMoov(head, total));
+                mReadFile = new RandomAccessFile(mTarget, "r");
+                mState = STATE_RUNNING;
+                mFirstBytesMs = System.currentTimeMillis() - mStartedAt;
+                mDone[0] = true;
+                mClaimed[0] = true;
+                mDoneCount = 1;
+                notifyAll();
+            }
+            Log.d(TAG, "Leading " + head.length + " of " + total + " bytes in " + mFirstBytesMs + "ms, " + mUrl);
+            if (chunks == 1) {
+                finish(true);
+                return true;
+            }
+            int workers = Math.min(mConnections, chunks - 1);
+            for (int i = 0; i < workers; i++) {
+                mExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        work();
+                    }
+                });
+            }
+            return true;
+        } catch (IOException e) {
+            Log.w(TAG, "Probe failed for " + mUrl, e);
+            setState(STATE_FAILED);
+            finish(false);
+            return false;
+        } finally {
+            if (conn != null) {
+                conn.disconnect();
+            }
+        }
+    }
+
+    /**
+     * Wait until the downloader knows whether it can serve.
+     *
+     * @return true once running or complete, false if the origin can't serve ranges
+     * @throws IOException
+     *             if the download failed; {@link #getResponseCode} tells what the origin said
+     */
+    public synchronized boolean awaitStarted() throws IOException {
+        while (mState == STATE_NEW && !mCancelled) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                throw new IOException("Interrupted");
+            }
+        }
+        if (mState == STATE_FAILED || mCancelled) {
+            throw new IOException("Download failed, probe answered " + mResponseCode);
+        }
+        return mState != STATE_UNSUPPORTED;
+    }
+
+    /**
+     * Block until the byte at position has landed.
+     *
+     * @return end (exclusive) of the run of downloaded bytes starting at position
+     */
+    public synchronized long waitFor(long position) throws IOException {
+        int index = (int) (position / mChunkSize);
+        while (!mDone[index]) {
+            if (mState == STATE_FAILED || mCancelled) {
+                throw new IOException("Download failed");
+            }
+            mWanted = index;
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                throw new IOException("Interrupted");
+            }
+        }
+        int end = index;
+        while (end < mDone.length && mDone[end]) {
+            end++;
+        }
+        return Math.min((long) end * mChunkSize, mTotal);
+    }
+
+    /**
+     * Read downloaded bytes; only ask for what {@link #waitFor} reported.
+     */
+    public synchronized int read(long position, byte[] buf, int offset, int length) throws IOException {
+        if (mReadFile == null) {
+            throw new IOException("Not readable");
+        }
+        mReadFile.seek(position);
+        return mReadFile.read(buf, offset, length);
+    }
+
+    /**
+     * Take a reference for another reader.
+     *
+     * @return false if the downloader already closed and can't be shared
+     */
+    public synchronized boolean acquire() {
+        if ((mFinished && mReadFile == null) || mState == STATE_FAILED || mState == STATE_UNSUPPORTED
+                || mCancelled) {
+            return false;
+        }
+        mReaders++;
+        return true;
+    }
+
+    /**
+     * Drop a reader reference. The read handle closes with the last one once the download
+     * has ended.
+     */
+    public synchronized void release() {
+        if (mReaders > 0) {
+            mReaders--;
+        }
+        closeIfIdle();
+    }
+
+    /**
+     * Stop the workers at their next chunk and wake waiting readers.
+     */
+    public synchronized void cancel() {
+        mCancelled = true;
+        notifyAll();
+    }
+
+    public String getUrl() {
+        return mUrl;
+    }
+
+    public File getTarget() {
+        return mTarget;
+    }
+
+    public synchronized long getTotal() {
+        return mTotal;
+    }
+
+    /**
+     * Returns the status of the probe, or -1 if it got no answer.
+     */
+    public synchronized int getResponseCode() {
+        return mResponseCode;
+    }
+
+    /**
+     * Returns the reason phrase of the probe's status, or null.
+     */
+    public synchronized String getResponseMessage() {
+        return mResponseMessage;
+    }
+
+    public String getValidator() {
+        return mValidator;
+    }
+
+    public String getContentType() {
+        return mContentType;
+    }
+
+    /**
+     * Returns how long the leading chunk took to become readable, or -1.
+     */
+    public synchronized long getFirstBytesMs() {
+        return mFirstBytesMs;
+    }
+
+    /**
+     * Returns how long the whole download took, or -1 while it runs.
+     */
+    public synchronized long getElapsedMs() {
+        return mElapsedMs;
+    }
+
+    /*
+     * Worker loop: claim chunks until none are left.
+     */
+    private void work() {
+        RandomAccessFile file = null;
+        try {
+            file = new RandomAccessFile(mTarget, "rw");
+            int chunk;
+            while ((chunk = claim()) >= 0) {
+                long start = (long) chunk * mChunkSize;
+                long end = Math.min(start + mChunkSize, mTotal) - 1;
+                HttpURLConnection conn = null;
+                boolean ok = false;
+                try {
+                    conn = open(start, end);
+                    if (conn.getResponseCode() == HttpURLConnection.HTTP_PARTIAL) {
+                        copy(conn.getInputStream(), file, start, end - start + 1, false);
+                        ok = true;
+                    }
+                } catch (IOException e) {
+                    Log.w(TAG, "Chunk " + chunk + " failed", e);
+                } finally {
+                    if (conn != null) {
+                        conn.disconnect();
+                    }
+                }
+                if (!complete(chunk, ok)) {
+                    break;
+                }
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Cannot write " + mTarget, e);
+            setState(STATE_FAILED);
+            finish(false);
+        } finally {
+            MediaCache.closeQuietly(file);
+        }
+    }
+
+    private synchronized int claim() {
+        if (mState != STATE_RUNNING || mCancelled) {
+            return -1;
+        }
+        if (mWanted >= 0) {
+            for (int i = mWanted; i < mDone.length; i++) {
+                if (!mClaimed[i]) {
+                    mClaimed[i] = true;
+                    return i;
+                }
+            }
+        }
+        for (int i : mOrder) {
+            if (!mClaimed[i]) {
+                mClaimed[i] = true;
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /*
+     * Record a chunk result.
+     *
+     * @return false if the worker should stop
+     */
+    private boolean complete(int chunk, boolean ok) {
+        boolean completed;
+        synchronized (this) {
+            if (ok) {
+                mDone[chunk] = true;
+                mDoneCount++;
+            } else if (++mAttempts[chunk] < MAX_ATTEMPTS && !mCancelled) {
+                mClaimed[chunk] = false;
+            } else {
+                mState = STATE_FAILED;
+            }
+            if (mDoneCount == mDone.length && mState == STATE_RUNNING) {
+                mState = STATE_COMPLETE;
+            }
+            notifyAll();
+            if (mState == STATE_RUNNING && !mCancelled) {
+                return true;
+            }
+            completed = mState == STATE_COMPLETE;
+        }
+        finish(completed);
+        return false;
+    }
+
+    private void finish(boolean complete) {
+        synchronized (this) {
+            if (mFinished) {
+                return;
+            }
+            mFinished = true;
+            mElapsedMs = System.currentTimeMillis() - mStartedAt;
+            closeIfIdle();
+        }
+        Log.d(TAG, (complete ? "Completed " : "Abandoned ") + mUrl + " in " + mElapsedMs
+                + "ms, first bytes after " + mFirstBytesMs + "ms");
+        if (mListener != null) {
+            mListener.onDownloadFinished(this, complete);
+        }
+    }
+
+    private void setState(int state) {
+        synchronized (this) {
+            mState = state;
+            notifyAll();
+        }
+    }
+
+    private void closeIfIdle() {
+        if (mReaders == 0 && mFinished && mReadFile != null) {
+            MediaCache.closeQuietly(mReadFile);
+            mReadFile = null;
+        }
+    }
+
+    private HttpURLConnection open(long start, long end) throws IOException {
+        HttpURLConnection conn = (HttpURLConnection) new URL(mUrl).openConnection();
+        conn.setConnectTimeout(CONNECT_TIMEOUT);
+        conn.setReadTimeout(READ_TIMEOUT);
+        conn.setRequestProperty("Accept-Encoding", "identity");
+        conn.setRequestProperty("Range", "bytes=" + start + "-" + end);
+        return conn;
+    }
+
+    /*
+     * Copy length bytes to the file at offset, keeping a copy when asked.
+     */
+    private byte[] copy(InputStream in, RandomAccessFile file, long offset, long length, boolean keep)
+            throws IOException {
+        byte[] kept = keep ? new byte[(int) length] : null;
+        byte[] buf = new byte[BUFFER_SIZE];
+        long done = 0L;
+        try {
+            file.seek(offset);
+            while (done < length) {
+                int n = in.read(buf, 0, (int) Math.min(buf.length, length - done));
+                if (n < 0) {
+                    throw new IOException("Short range response");
+                }
+                file.write(buf, 0, n);
+                if (keep) {
+                    System.arraycopy(buf, 0, kept, (int) done, n);
+                }
+                done += n;
+            }
+        } finally {
+            MediaCache.closeQuietly(in);
+        }
+        return kept;
+    }
+
+    /*
+     * Chunk order: leading chunk, then the chunks holding a trailing moov, then the rest.
+     */
+    private int[] order(int chunks, long moovStart) {
+        int[] order = new int[chunks];
+        int n = 0;
+        order[n++] = 0;
+        int firstTail = moovStart > 0L ? (int) (moovStart / mChunkSize) : chunks;
+        for (int i = Math.max(1, firstTail); i < chunks; i++) {
+            order[n++] = i;
+        }
+        for (int i = 1; i < Math.max(1, firstTail); i++) {
+            order[n++] = i;
+        }
+        return order;
+    }
+
+    /*
+     * Walk the top level MP4 boxes in the leading bytes. If 'mdat' comes before any 'moov',
+     * returns where the box after 'mdat' starts, else -1.
+     */
+    static long findTrailingMoov(byte[] head, long total) {
+        long offset = 0L;
+        while (offset + 8 <= head.length) {
+            int at = (int) offset;
+            long size = ((head[at] & 0xffL) << 24) | ((head[at + 1] & 0xffL) << 16)
+                    | ((head[at + 2] & 0xffL) << 8) | (head[at + 3] & 0xffL);
+            String type = new String(head, at + 4, 4);
+            if (size == 1L) {
+                if (offset + 16 > head.length) {
+                    return -1L;
+                }
+                size = 0L;
+                for (int i = 8; i < 16; i++) {
+                    size = (size << 8) | (head[at + i] & 0xffL);
+                }
+            } else if (size == 0L) {
+                size = total - offset;
+            }
+            if (size < 8L) {
+                return -1L;
+            }
+            if (type.equals("moov")) {
+                return -1L;
+            }
+            if (type.equals("mdat")) {
+                long next = offset + size;
+                return next < total ? next : -1L;
+            }
+            offset += size;
+        }
+        return -1L;
+    }
+
+    /*
+     * Total length from "bytes 0-262143/1048576", or -1.
+     */
+    static long parseTotal(String contentRange) {
+        if (contentRange == null) {
+            return -1L;
+        }
+        int slash = contentRange.lastIndexOf('/');
+        if (slash < 0) {
+            return -1L;
+        }
+        try {
+            return Long.parseLong(contentRange.substring(slash + 1).trim());
+        } catch (NumberFormatException e) {
+            return -1L;
+        }
+    }
+}
@@ -0,0 +1,276 @@
+package com.sagre1.whisperplay.fling.media.player.activity.activity;
+
+import android.annotation.SuppressLint;
+import android.media.MediaCodecInfo;
+import android.media.MediaCodecList;
+import android.os.Build;
+import android.util.Log;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * The device's decoders, by MIME type.
+ *
+ * Walking MediaCodecList takes a while, so the index is built on a background thread when
+ * the player starts, and saved to a file keyed by {@link Build#FINGERPRINT}. Later launches
+ * on the same system image read the file instead. A query made before the index is ready
+ * waits for it.
+ *
+ * The file has the fingerprint on its first line, then one line per type:
+ * <pre>
+ * mime TAB maxWidth TAB maxHeight TAB profile:level,profile:level...
+ * </pre>
+ */
+class CodecIndex {
+    private static final String TAG = "CodecIndex";
+
+    /**
+     * What the decoders of one type can do.
+     */
+    static final class Capability {
+        final String mMime;
+        /** Largest frame of any decoder, 0 if unknown or not video. */
+        final int mMaxWidth;
+        final int mMaxHeight;
+        /** Highest level per profile. */
+        final Map<Integer, Integer> mProfileLevels;
+
+        Capability(String mime, int maxWidth, int maxHeight, Map<Integer, Integer> profileLevels) {
+            mMime = mime;
+            mMaxWidth = maxWidth;
+            mMaxHeight = maxHeight;
+            mProfileLevels = Collections.unmodifiableMap(profileLevels);
+        }
+
+        /**
+         * Returns true if a frame of this size fits, or the limits are unknown.
+         */
+        boolean fits(int width, int height) {
+            return mMaxWidth == 0 || (width <= mMaxWidth && height <= mMaxHeight);
+        }
+
+        boolean supportsProfile(int profile, int level) {
+            Integer max = mProfileLevels.get(profile);
+            return max != null && level <= max;
+        }
+    }
+
+    private final File mFile;
+    private volatile Map<String, Capability> mTypes = null;
+    private boolean mFromFile = false;
+    private long mBuildMs = 0L;
+
+    /**
+     * Constructor.
+     *
+     * @param file
+     *            Where the index is kept between launches
+     */
+    public CodecIndex(File file) {
+        mFile = file;
+    }
+
+    /**
+     * Build or load the index on a background thread.
+     */
+    public void loadAsync() {
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                load();
+            }
+        }, "CodecIndex").start();
+    }
+
+    /**
+     * Returns true if some decoder takes this type.
+     */
+    public boolean isSupported(String mime) {
+        return get(mime) != null;
+    }
+
+    /**
+     * Returns true if some decoder takes this type at this frame size.
+     */
+    public boolean isSupported(String mime, int width, int height) {
+        Capability capability = get(mime);
+        return capability != null && capability.fits(width, height);
+    }
+
+    /**
+     * Returns what the decoders of a type can do, or null if there are none.
+     */
+    public Capability get(String mime) {
+        if (mime == null) {
+            return null;
+        }
+        Map<String, Capability> types = mTypes;
+        if (types == null) {
+            types = load();
+        }
+        return types.get(mime.toLowerCase(Locale.US));
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "CodecIndex[types=" + (mTypes != null ? mTypes.size() : 0)
+                + (mFromFile ? " file" : " scanned") + " ms=" + mBuildMs + "]";
+    }
+
+    private synchronized Map<String, Capability> load() {
+        if (mTypes != null) {
+            return mTypes;
+        }
+        long start = System.currentTimeMillis();
+        Map<String, Capability> types = read();
+        mFromFile = types != null;
+        if (types == null) {
+            types = scan();
+            write(types);
+        }
+        mBuildMs = System.currentTimeMillis() - start;
+        mTypes = types;
+        Log.i(TAG, "Ready. " + this);
+        return types;
+    }
+
+    /*
+     * Walk the codec list. Encoders are left out; they cannot play anything.
+     */
+    @SuppressLint("NewApi")
+    private static Map<String, Capability> scan() {
+        Map<String, int[]> sizes = new HashMap<String, int[]>();
+        Map<String, Map<Integer, Integer>> profiles = new HashMap<String, Map<Integer, Integer>>();
+        int numCodecs = MediaCodecList.getCodecCount();
+        for (int i = 0; i < numCodecs; i++) {
+            MediaCodecInfo codec = MediaCodecList.getCodecInfoAt(i);
+            if (codec.isEncoder()) {
+                continue;
+            }
+            for (String type : codec.getSupportedTypes()) {
+                String mime = type.toLowerCase(Locale.US);
+                int[] size = sizes.get(mime);
+                if (size == null) {
+                    size = new int[2];
+                    sizes.put(mime, size);
+                    profiles.put(mime, new HashMap<Integer, Integer>());
+                }
+                MediaCodecInfo.CodecCapabilities caps;
+                try {
+                    caps = codec.getCapabilitiesForType(type);
+                } catch (IllegalArgumentException e) {
+                    Log.w(TAG, "No capabilities for " + type + " in " + codec.getName());
+                    continue;
+                }
+                Map<Integer, Integer> levels = profiles.get(mime);
+                if (caps.profileLevels != null) {
+                    for (MediaCodecInfo.CodecProfileLevel pl : caps.profileLevels) {
+                        Integer max = levels.get(pl.profile);
+                        if (max == null || pl.level > max) {
+                            levels.put(pl.profile, pl.level);
+                        }
+                    }
+                }
+                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP
+                        && caps.getVideoCapabilities() != null) {
+                    MediaCodecInfo.VideoCapabilities video = caps.getVideoCapabilities();
+                    size[0] = Math.max(size[0], video.getSupportedWidths().getUpper());
+                    size[1] = Math.max(size[1], video.getSupportedHeights().getUpper());
+                }
+            }
+        }
+        Map<String, Capability> types = new HashMap<String, Capability>();
+        for (Map.Entry<String, int[]> entry : sizes.entrySet()) {
+            String mime = entry.getKey();
+            types.put(mime, new Capability(mime, entry.getValue()[0], entry.getValue()[1],
+                    profiles.get(mime)));
+        }
+        return types;
+    }
+
+    /*
+     * Returns the saved index, or null if there is none for this system image.
+     */
+    private Map<String, Capability> read() {
+        if (!mFile.exists()) {
+            return null;
+        }
+        BufferedReader in = null;
+        try {
+            in = new BufferedReader(new InputStreamReader(new FileInputStream(mFile), "UTF-8"));
+            if (!Build.FINGERPRINT.equals(in.readLine())) {
+                Log.i(TAG, "Saved index is for another build");
+                return null;
+            }
+            Map<String, Capability> types = new HashMap<String, Capability>();
+            String line;
+            while ((line = in.readLine()) != null) {
+                String[] fields = line.split("\t", -1);
+                if (fields.length != 4) {
+                    throw new IOException("Bad line: " + line);
+                }
+                Map<Integer, Integer> levels = new HashMap<Integer, Integer>();
+                if (fields[3].length() > 0) {
+                    for (String pair : fields[3].split(",")) {
+                        int colon = pair.indexOf(':');
+                        levels.put(Integer.parseInt(pair.substring(0, colon)),
+                                Integer.parseInt(pair.substring(colon + 1)));
+                    }
+                }
+                types.put(fields[0], new Capability(fields[0], Integer.parseInt(fields[1]),
+                        Integer.parseInt(fields[2]), levels));
+            }
+            return types;
+        } catch (IOException e) {
+            Log.w(TAG, "Cannot read saved index, scanning", e);
+            return null;
+        } catch (RuntimeException e) {
+            Log.w(TAG, "Bad saved index, scanning", e);
+            return null;
+        } finally {
+            MediaCache.closeQuietly(in);
+        }
+    }
+
+    private void write(Map<String, Capability> types) {
+        File tmp = new File(mFile.getPath() + ".tmp");
+        BufferedWriter out = null;
+        try {
+            out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(tmp), "UTF-8"));
+            out.write(Build.FINGERPRINT);
+            out.write('\n');
+            for (Capability capability : types.values()) {
+                StringBuilder line = new StringBuilder(capability.mMime).append('\t')
+                        .append(capability.mMaxWidth).append('\t').append(capability.mMaxHeight)
+                        .append('\t');
+                String separator = "";
+                for (Map.Entry<Integer, Integer> pl : capability.mProfileLevels.entrySet()) {
+                    line.append(separator).append(pl.getKey()).append(':').append(pl.getValue());
+                    separator = ",";
+                }
+                out.write(line.append('\n').toString());
+            }
+            out.close();
+            out = null;
+            if (!tmp.renameTo(mFile)) {
+                throw new IOException("Cannot rename " + tmp);
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Cannot save index", e);
+            tmp.delete();
+        } finally {
+            MediaCache.closeQuietly(out);
+        }
+    }
+}
@@ -13,12 +13,16 @@ package com.sagre1.whisperplay.fling.media.player.activity.activity;
 import android.annotation.SuppressLint;
 import android.content.Context;
 import android.content.Intent;
+import android.graphics.Bitmap;
 import android.media.AudioManager;
-import android.media.MediaCodecInfo;
-import android.media.MediaCodecList;
 import android.media.MediaPlayer;
 import android.os.Handler;
-import android.util.Log;
+import android.os.HandlerThread;
+import android.os.Message;
+import android.os.SystemClock;
+import android.os.Trace;
+import android.util.DisplayMetrics;
+import android.view.Surface;
 import android.view.SurfaceHolder;
 
 import com.amazon.whisperplay.fling.media.service.MediaPlayerInfo;
@@ -29,16 +33,14 @@ import com.amazon.whisperplay.fling.media.service.MediaPlayerStatus.MediaState;
 
 import org.json.JSONException;
 import org.json.JSONObject;
-import org.json.JSONTokener;
 
+import java.io.File;
 import java.io.IOException;
 import java.net.URI;
 import java.net.URISyntaxException;
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.LinkedList;
-import java.util.List;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.ArrayDeque;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * Simple Android 'MediaPlayer' implementation of a the CustomMediaPlayer
@@ -48,16 +50,14 @@ public class CustomMediaPlayerImplementation implements CustomMediaPlayer {
 
     private static final long DEFAULT_UPDATE_INTERVAL = 3000L;
     private static final int ERROR_PLAYER_RESET = -38;
+    private static final long MEDIA_CACHE_SIZE = 256L * 1024L * 1024L;
 
     private MediaPlayer mPlayer;
-    private AudioManager mAudio;
+    private volatile VolumeCache mVolume;
     private CommandQueue mQueue;
     private volatile MediaState mState = MediaState.NoSource;
     private volatile MediaCondition mError = MediaCondition.Good;
-    private SurfaceHolder mSurfaceHolder;
-    private double mMaxVolume = 0.0;
-    private boolean mMute;
-    private List<String> mMimeTypes;
+    private final ViewerSurfaceManager mSurfaces;
     private String mCurrentTitle;
     private String mCurrentDescription;
     private int mRestInterval;
@@ -66,24 +66,39 @@ public class CustomMediaPlayerImplementation implements CustomMediaPlayer {
     private String mMediaType;
     private MediaPlayerInfo mPendingMediaInfo = null;
     private MediaPlayerInfo mCurrentMediaInfo = null;
+    private WorkoutMetadata mPendingMetadata = null;
+    private volatile WorkoutMetadata mCurrentMetadata = null;
+    // Written under the player lock by publishSnapshot, read without it.
+    private final AtomicReference<PlayerSnapshot> mSnapshot =
+            new AtomicReference<PlayerSnapshot>(PlayerSnapshot.EMPTY);
 
     private Context mContext;
-    private List<StatusListener> mListeners = new ArrayList<StatusListener>();
+    private final StatusDispatcher mDispatcher = new StatusDispatcher();
+    private final PositionUpdatePolicy mPositionUpdates = new PositionUpdatePolicy();
+    private final PositionClock mClock = new PositionClock();
+    private final CodecIndex mCodecs;
+    private final ImageEngine mImages;
+    private final MediaTypeResolver mMediaTypes = new MediaTypeResolver(MediaTypeResolver.HTTP_FETCHER);
     private long mUpdateInterval = DEFAULT_UPDATE_INTERVAL;
+    private long mPrepareDeadline = PlayerWatchdog.DEFAULT_PREPARE_DEADLINE;
+    private long mSeekDeadline = PlayerWatchdog.DEFAULT_SEEK_DEADLINE;
     private Handler mHandler;
+    private final MediaPlayerListener mPlayerListener = new MediaPlayerListener();
+    private final PlayerPool mPlayerPool;
+    private final PlaylistEngine mPlaylist;
+    private final MetadataParser mMetadataParser = new MetadataParser();
+    private final LoadLatency mLatency = new LoadLatency();
+    private final PlaybackQuality mQuality;
+    private volatile CachingProxy mCacheProxy;
 
     private boolean mImageMarker = false;
     private boolean mServiceBind = false;
     private final Object mBinderLock = new Object();
 
-    private static final int MEDIA_TYPE_VIDEO = 0;
-    private static final int MEDIA_TYPE_AUDIO = 1;
-    private static final int MEDIA_TYPE_IMAGE = 2;
-    private static final int MEDIA_TYPE_UNKNOWN = 3;
+    static final String ACTION_LOAD_IMAGE = "fling.custom.media.player.loadImage";
+    // Answers to sendCommand queries, in the "json" extra.
+    static final String ACTION_REPORT = "fling.custom.media.player.report";
 
-    private static final String[] VIDEO_EXTENSIONS = {"mp4", "3gp", "m4v"};
-    private static final String[] AUDIO_EXTENSIONS = {"m4a", "mp3", "ogg", "wav", "aac", "wma", "flac"};
-    private static final String[] IMAGE_EXTENSIONS = {"jpeg", "jpg", "png", "bmp"};
 
     /**
      * Constructor.
@@ -92,59 +107,118 @@ public class CustomMediaPlayerImplementation implements CustomMediaPlayer {
      *            Context
      */
     public CustomMediaPlayerImplementation(Context ctx) {
+        this(ctx, null);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param ctx
+     *            Context
+     * @param pool
+     *            Players to take and give back, or null to build and release them here
+     */
+    public CustomMediaPlayerImplementation(Context ctx, PlayerPool pool) {
         mContext = ctx;
         mHandler = new Handler(ctx.getMainLooper());
+        mPlayerPool = pool;
+        mPlaylist = new PlaylistEngine(this);
+        mCodecs = new CodecIndex(new File(ctx.getFilesDir(), "codec-index"));
+        mQuality = new PlaybackQuality(new File(ctx.getFilesDir(), "quality.log"));
+        DisplayMetrics display = ctx.getResources().getDisplayMetrics();
+        mImages = new ImageEngine(new File(ctx.getCacheDir(), "images"), display.widthPixels,
+                display.heightPixels);
+        mSurfaces = new ViewerSurfaceManager(ctx, new ViewerSurfaceManager.Listener() {
+            @Override
+            public void onSurfaceChanged(Surface surface) {
+                synchronized (CustomMediaPlayerImplementation.this) {
+                    if (mPlayer != null) {
+                        mPlayer.setSurface(surface);
+                    }
+                }
+            }
+        });
     }
 
     /**
      * {@inheritDoc}
      */
     public void startUp() {
-        mAudio = (AudioManager) mContext.getSystemService(Context.AUDIO_SERVICE);
+        mVolume = new VolumeCache(mContext,
+                (AudioManager) mContext.getSystemService(Context.AUDIO_SERVICE),
+                new VolumeCache.Listener() {
+                    @Override
+                    public void onVolumeChanged() {
+                        // Changed with the remote; let the clients know.
+                        sendStatus();
+                    }
+                });
+        mVolume.start();
+        // Ready before the first capability query, which a client waits on.
+        mCodecs.loadAsync();
+        // Start the command thread now rather than on the first fling.
+        synchronized (this) {
+            if (mQueue == null) {
+                mQueue = new CommandQueue(CustomMediaPlayerImplementation.this);
+            }
+        }
+        // Loading the cache index touches the disk, keep it off the main thread.
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    CachingProxy proxy = new CachingProxy(
+                            new MediaCache(new File(mContext.getCacheDir(), "media"), MEDIA_CACHE_SIZE));
+                    proxy.start();
+                    mCacheProxy = proxy;
+                } catch (IOException e) {
+                    PlayerLog.e(TAG, "Cannot start media cache, streaming directly", e);
+                }
+            }
+        }, "MediaCacheStartUp").start();
     }
 
     /**
      * {@inheritDoc}
      */
     public void tearDown() {
+        mPlaylist.shutdown();
+        if (mQueue != null) {
+            mQueue.flush();
+            mQueue.destroy();
+            mQueue = null;
+        }
         if (mPlayer != null) {
-            if (mQueue != null) {
-                mQueue.flush();
-                mQueue.destroy();
-            }
             mPlayer.stop();
-            mPlayer.release();
+            releasePlayer(mPlayer);
             mPlayer = null;
         }
+        if (mCacheProxy != null) {
+            mCacheProxy.stop();
+            mCacheProxy = null;
+        }
+        if (mVolume != null) {
+            mVolume.stop();
+        }
+        mImages.release();
+        mQuality.shutdown();
+        publishSnapshot();
+        mSurfaces.release();
+        mDispatcher.shutdown();
+        // An event holds three arguments, so loading and position reporting get a line each.
+        PlayerLog.i(TAG, "Torn down. {} {} {}", mMetadataParser, mMediaTypes, mLatency);
+        PlayerLog.i(TAG, "Torn down. {} {}", mPositionUpdates, mClock);
     }
 
     public void setSurfaceHolder(SurfaceHolder shold) {
-        mSurfaceHolder = shold;
-        if (mSurfaceHolder != null) {
-            mSurfaceHolder.addCallback(new SurfaceHolder.Callback() {
-
-                @SuppressLint("NewApi")
-                @Override
-                public void surfaceDestroyed(SurfaceHolder sh) {
-                    if (mPlayer != null) {
-                        mPlayer.setSurface(null);
-                    }
-                }
-
-                @SuppressLint("NewApi")
-                @Override
-                public void surfaceCreated(SurfaceHolder sh) {
-                    if (mPlayer != null) {
-                        mPlayer.setSurface(sh.getSurface());
-                    }
-                }
+        mSurfaces.setSurfaceHolder(shold);
+    }
 
-                @SuppressLint("NewApi")
-                @Override
-                public void surfaceChanged(SurfaceHolder arg0, int arg1, int arg2, int arg3) {
-                }
-            });
-        }
+    /**
+     * The viewer activity bound to the service, or is going away.
+     */
+    public void setViewerAlive(boolean alive) {
+        mSurfaces.setViewerAlive(alive);
     }
 
     public String getTitle() {
@@ -182,6 +256,7 @@ public class CustomMediaPlayerImplementation implements CustomMediaPlayer {
                     mPendingMediaInfo.getSource(),
                     mPendingMediaInfo.getMetadata(),
                     Long.toString(0));
+            mCurrentMetadata = mPendingMetadata;
             setState(MediaState.Playing, false, false);
             sendStatus();
         } else {
@@ -190,16 +265,6 @@ public class CustomMediaPlayerImplementation implements CustomMediaPlayer {
         }
     }
 
-    /*
-     * Determine maximum volume for scaling
-     */
-    private synchronized void initMaxVolume() {
-        if (mMaxVolume == 0.0) {
-            mMaxVolume = (double) mAudio.getStreamMaxVolume(AudioManager.STREAM_MUSIC);
-            Log.d(TAG, "Max Volume set to:" + mMaxVolume);
-        }
-    }
-
     /*
      * Get the volume from Device's System Stream Music.
      *
@@ -208,8 +273,7 @@ public class CustomMediaPlayerImplementation implements CustomMediaPlayer {
      */
     @Override
     public double getVolume() throws IOException {
-        initMaxVolume();
-        return ((double) mAudio.getStreamVolume(AudioManager.STREAM_MUSIC)) / mMaxVolume;
+        return mVolume.getVolume();
     }
 
     /*
@@ -224,11 +288,9 @@ public class CustomMediaPlayerImplementation implements CustomMediaPlayer {
             throw new IllegalArgumentException("Bad value for Volume");
         }
 
-        initMaxVolume();
-        mAudio.setStreamVolume(AudioManager.STREAM_MUSIC, (int) (volume * mMaxVolume),
-                AudioManager.FLAG_SHOW_UI);
+        int index = mVolume.setVolume(volume);
         sendStatus();
-        Log.d(TAG, "Set Volume to:" + (int) (volume * mMaxVolume));
+        PlayerLog.d(TAG, "Set Volume to: {}", index);
     }
 
     /*
@@ -239,82 +301,107 @@ public class CustomMediaPlayerImplementation implements CustomMediaPlayer {
      */
     @Override
     public synchronized void setMute(boolean mute) throws IOException {
-        mAudio.setStreamMute(AudioManager.STREAM_MUSIC, mute);
-        mMute = mute;
+        mVolume.setMute(mute);
         sendStatus();
     }
 
     @Override
-    public synchronized boolean isMute() throws IOException {
-        return mMute;
+    public boolean isMute() throws IOException {
+        return mSnapshot.get().mMute;
     }
 
     @Override
-    public synchronized long getPosition() throws IOException {
-        if (mPlayer == null || mQueue == null || mState == MediaState.Error) {
+    public long getPosition() throws IOException {
+        PlayerSnapshot snapshot = mSnapshot.get();
+        if (!snapshot.mHasSource || snapshot.mState == MediaState.Error) {
             throw new IllegalStateException("No Media Stream Set");
         }
-        return !mImageMarker? mPlayer.getCurrentPosition() : 0 ;
+        return snapshot.getPosition();
     }
 
     @Override
-    public synchronized long getDuration() throws IOException {
-        if (mPlayer == null || mQueue == null || mState == MediaState.Error
-                || mState == MediaState.PreparingMedia) {
-            Log.e(TAG, "No Media Stream Set");
+    public long getDuration() throws IOException {
+        PlayerSnapshot snapshot = mSnapshot.get();
+        if (!snapshot.mHasSource || snapshot.mState == MediaState.Error
+                || snapshot.mState == MediaState.PreparingMedia) {
+            PlayerLog.e(TAG, "No Media Stream Set");
             return 0; // return initial value instead.
         }
-        return !mImageMarker? mPlayer.getDuration() : 0 ;
+        return snapshot.mDuration;
     }
 
     @Override
-    public synchronized MediaPlayerStatus getStatus() {
-        MediaPlayerStatus mediaPlayerStatus =  new MediaPlayerStatus(mState, mError);
-        mediaPlayerStatus.setMute(mMute);
-        try {
-            mediaPlayerStatus.setVolume(getVolume());
-        } catch (IOException e) {
-            Log.e(TAG, "Cannot get volume: ", e);
-        }
-        return mediaPlayerStatus;
+    public MediaPlayerStatus getStatus() {
+        return mSnapshot.get().toStatus();
+    }
+
+    /**
+     * Returns the parsed metadata of the loaded lift, published together with
+     * {@link #getMediaInfo}, or null.
+     */
+    public WorkoutMetadata getWorkoutMetadata() {
+        return mSnapshot.get().mMetadata;
     }
 
     @Override
     public MediaPlayerInfo getMediaInfo() throws IOException {
-        Log.i(TAG, "getMediaInfo called. mCurrentMediaInfo = " + mCurrentMediaInfo);
-        return mCurrentMediaInfo != null ? mCurrentMediaInfo : new MediaPlayerInfo("", "", "");
+        MediaPlayerInfo info = mSnapshot.get().mMediaInfo;
+        PlayerLog.d(TAG, "getMediaInfo called. mCurrentMediaInfo = {}", info);
+        return info != null ? info : new MediaPlayerInfo("", "", "");
     }
 
-    @SuppressLint("NewApi")
-    private synchronized void initMimeTypes() {
-        if (mMimeTypes == null) {
-            mMimeTypes = new LinkedList<String>();
-
-            int numCodecs = MediaCodecList.getCodecCount();
-
-            Log.d(TAG, "Generating mime-type list");
-            for (int i = 0; i < numCodecs; i++) {
-                MediaCodecInfo codec = MediaCodecList.getCodecInfoAt(i);
-                Log.d(TAG, "  Codec:" + codec.getName());
+    /**
+     * Returns the state last published, without taking the player lock.
+     */
+    PlayerSnapshot getSnapshot() {
+        return mSnapshot.get();
+    }
 
-                String[] types = codec.getSupportedTypes();
-                for (String type : types) {
-                    Log.d(TAG, "  Mime:" + type);
-                    mMimeTypes.add(type);
+    /*
+     * Publish the current state for the lock-free getters. Called after every change to
+     * what they return, and by sendStatus. The player is only asked for its position when
+     * the clock needs a new reading.
+     */
+    private synchronized void publishSnapshot() {
+        boolean hasSource = mPlayer != null && mQueue != null;
+        long now = SystemClock.elapsedRealtime();
+        long position = 0L;
+        long duration = 0L;
+        boolean running = false;
+        if (hasSource && !mImageMarker && mState != MediaState.Error
+                && mState != MediaState.NoSource && mState != MediaState.PreparingMedia) {
+            if (mClock.needsSync(mState, mError, now)) {
+                try {
+                    mClock.sync(mPlayer.getCurrentPosition(), mPlayer.getDuration(), mState, mError,
+                            mState == MediaState.Playing && mError != MediaCondition.WarningBandwidth,
+                            now);
+                } catch (IllegalStateException e) {
+                    PlayerLog.w(TAG, "Cannot sample position in {}", mState);
+                    mClock.invalidate();
                 }
             }
+            position = mClock.getPosition(now);
+            duration = mClock.getDuration();
+            running = mClock.isRunning();
+        } else {
+            mClock.invalidate();
         }
+        // From memory; the volume cache follows the system's changes.
+        VolumeCache cache = mVolume;
+        double volume = cache != null ? cache.getVolume() : 0.0;
+        boolean mute = cache != null && cache.isMute();
+        mSnapshot.set(new PlayerSnapshot(mState, mError, hasSource, mImageMarker, running, mute,
+                volume, position, duration, now, mCurrentMediaInfo, mCurrentMetadata));
     }
 
     @Override
     public boolean isMimeTypeSupported(String mimeType) throws IOException {
-        initMimeTypes();
-        return mMimeTypes.contains(mimeType);
+        return mCodecs.isSupported(mimeType);
     }
 
     @Override
     public synchronized void pause() throws IOException {
-        Log.d(TAG, "Pause Called");
+        PlayerLog.d(TAG, "Pause Called");
         if (mPlayer == null || mQueue == null || mState != MediaState.Playing) {
             if (mState == MediaState.Seeking || mState == MediaState.Finished) {
                 throw new IllegalStateException("Stream Cannot be Paused");
@@ -328,7 +415,7 @@ public class CustomMediaPlayerImplementation implements CustomMediaPlayer {
 
     @Override
     public synchronized void play() throws IOException {
-        Log.d(TAG, "Play Called");
+        PlayerLog.d(TAG, "Play Called");
         if (!isPlayerActive()) {
             throw new IllegalStateException("No Media Stream Set");
         }
@@ -337,7 +424,7 @@ public class CustomMediaPlayerImplementation implements CustomMediaPlayer {
 
     @Override
     public synchronized void stop() {
-        Log.d(TAG, "Stop Called");
+        PlayerLog.d(TAG, "Stop Called");
         if (!isPlayerActive()) {
             throw new IllegalStateException("No Media Stream Set");
         }
@@ -346,7 +433,7 @@ public class CustomMediaPlayerImplementation implements CustomMediaPlayer {
 
     @Override
     public synchronized void seek(PlayerSeekMode mode, long positionMilliseconds) throws IOException {
-        Log.d(TAG, "Seek Called");
+        PlayerLog.d(TAG, "Seek Called");
         if (mState == MediaState.Finished) {
             throw new IllegalStateException("Stream cannot be sought");
         }
@@ -360,91 +447,174 @@ public class CustomMediaPlayerImplementation implements CustomMediaPlayer {
 
     @SuppressLint("NewApi")
     @Override
-    public synchronized void setMediaSource(String mediaLoc, String metadataJson,
+    public void setMediaSource(String mediaLoc, String metadataJson,
                                             boolean autoPlay, boolean playInBg) throws IOException {
-        Log.d(TAG, "setMediaUrl Called. URI=" + mediaLoc);
+        PlayerLog.d(TAG, "setMediaUrl Called. URI={}", mediaLoc);
 
         if (mediaLoc == null || mediaLoc.length() == 0) {
             throw new IllegalArgumentException("missing location Url");
         }
+        Trace.beginSection("setMediaSource");
+        try {
+            setMediaSourceTraced(mediaLoc, metadataJson, autoPlay, playInBg);
+        } finally {
+            Trace.endSection();
+        }
+    }
+
+    /*
+     * The body of setMediaSource, inside its trace section. Parsing and resolving the type
+     * happen before the player lock is taken: media named by neither its type nor its
+     * extension is sniffed over the network, and nothing else should wait for that.
+     */
+    private void setMediaSourceTraced(String mediaLoc, String metadataJson,
+                                      boolean autoPlay, boolean playInBg) {
         // quick validation of URL
         try {
             new URI(mediaLoc);
         } catch (URISyntaxException e) {
             throw new IllegalArgumentException("Cannot parse URL");
         }
+        // Parsed once here; the viewer gets the typed value, not the JSON.
+        WorkoutMetadata metadata = null;
         try {
-            JSONObject jobj = (JSONObject) new JSONTokener(metadataJson).nextValue();
-            mCurrentTitle = jobj.getString("title");
-            mMediaType = jobj.optString("type");
-            mCurrentDescription = jobj.optString("description");
-            mRestInterval = jobj.optInt("restPeriodAfter");
-            mReps = jobj.optInt("reps");
-            mWeight = jobj.optInt("weight");
+            metadata = mMetadataParser.parse(metadataJson);
         } catch (JSONException e) {
-            Log.e(TAG, "Cannot parse Metadata", e);
+            PlayerLog.e(TAG, "Cannot parse Metadata", e);
+        }
+        int definedType = mMediaTypes.resolve(metadata != null ? metadata.mCurrent.mType : null, mediaLoc);
+        if (definedType == MediaTypeResolver.MEDIA_TYPE_UNKNOWN) {
+            throw new IllegalArgumentException("Wrong media type. received"
+                    +" expected=video/,audio/,image/");
+        }
+        loadSource(mediaLoc, metadataJson, metadata, definedType, autoPlay, playInBg);
+    }
+
+    /*
+     * Switch to a source whose type is known, under the player lock.
+     */
+    private synchronized void loadSource(String mediaLoc, String metadataJson, WorkoutMetadata metadata,
+                                         int definedType, boolean autoPlay, boolean playInBg) {
+        if (metadata != null) {
+            Workout.Lift lift = metadata.mCurrent;
+            mCurrentTitle = lift.mTitle;
+            mMediaType = lift.mType;
+            mCurrentDescription = lift.mDescription;
+            mRestInterval = lift.mRestSeconds;
+            mReps = lift.mReps;
+            mWeight = lift.mWeight;
+        } else {
             mCurrentTitle = null;
             mMediaType = null;
             mCurrentDescription = null;
         }
+        // When the next lift names its media, the standby player can load it while this
+        // one plays.
+        String nextLoc = (metadata != null && metadata.mNext != null) ? metadata.mNext.mUrl : null;
 
         mPendingMediaInfo = new MediaPlayerInfo(mediaLoc, metadataJson, null);
+        mPendingMetadata = metadata;
+        if (mQueue == null) {
+            mQueue = new CommandQueue(CustomMediaPlayerImplementation.this);
+        }
         if (mPlayer == null) {
-            mPlayer = new MediaPlayer();
-            mPlayer.setLooping(true);
-            if (mSurfaceHolder != null) {
-                if (mSurfaceHolder.getSurface().isValid()) {
-                    mPlayer.setSurface(mSurfaceHolder.getSurface());
-                }
+            mPlayer = createPlayer();
+            Surface surface = mSurfaces.getSurface();
+            if (surface != null) {
+                mPlayer.setSurface(surface);
             }
-            MediaPlayerListener l = new MediaPlayerListener();
-            mQueue = new CommandQueue(CustomMediaPlayerImplementation.this);
-            mPlayer.setAudioStreamType(AudioManager.STREAM_MUSIC);
-            mPlayer.setOnPreparedListener(l);
-            mPlayer.setOnErrorListener(l);
-            mPlayer.setOnInfoListener(l);
-            mPlayer.setOnCompletionListener(l);
-            mPlayer.setOnSeekCompleteListener(l);
+            mQueue.setPlayer(mPlayer);
         }
 
-        int definedType = checkMediaType(mMediaType, mediaLoc);
         switch (definedType) {
-            case MEDIA_TYPE_VIDEO:
-            case MEDIA_TYPE_AUDIO:
+            case MediaTypeResolver.MEDIA_TYPE_VIDEO:
+            case MediaTypeResolver.MEDIA_TYPE_AUDIO:
                 mImageMarker = false;
                 if (mPlayer != null && mQueue != null) {
-                    mQueue.setUrl(mediaLoc, playInBg);
+                    mLatency.begin();
+                    mQuality.beginLoad(mediaLoc);
+                    mQueue.setUrl(cachedUrl(mediaLoc), playInBg);
                     if (autoPlay) {
                         mQueue.play();
                     }
+                    if (nextLoc != null && nextLoc.length() > 0) {
+                        mQueue.preload(cachedUrl(nextLoc));
+                    }
                 }
                 break;
-            case MEDIA_TYPE_UNKNOWN:
-            default:
-                throw new IllegalArgumentException("Wrong media type. received"
-                        +" expected=video/,audio/,image/");
+            case MediaTypeResolver.MEDIA_TYPE_IMAGE:
+                loadImage(mediaLoc, playInBg);
+                break;
         }
     }
 
-    private int checkMediaType(String mediaType, String url) {
-        if (mediaType.contains("/")) {
-            if (mediaType.indexOf("video/") == 0) {
-                return MEDIA_TYPE_VIDEO;
-            } else if (mediaType.indexOf("audio/") == 0) {
-                return MEDIA_TYPE_AUDIO;
+    /*
+     * Decode a picture in the background, then have the viewer show it. The viewer calls
+     * setImageComplete once it is on screen.
+     */
+    private void loadImage(String mediaLoc, boolean inBg) {
+        mImageMarker = false;
+        if (mState == MediaState.Playing) {
+            // Not under the picture. The state says Paused until the picture is up.
+            mQueue.pause();
+        }
+        if (!inBg) {
+            mSurfaces.requestViewer(mContext.getClass().getName());
+        }
+        mImages.load(mediaLoc, new ImageEngine.Callback() {
+            @Override
+            public void onImageLoaded(String url, boolean success) {
+                if (success) {
+                    // A viewer that is still starting picks the picture up when it binds.
+                    mContext.sendBroadcast(new Intent(ACTION_LOAD_IMAGE).putExtra("uri", url));
+                } else {
+                    setState(MediaCondition.ErrorContent);
+                }
             }
+        });
+    }
 
-        } else if (url.contains(".")) {
-            String fileExtension = url.substring(url.lastIndexOf('.') +1).toLowerCase();
-            if (Arrays.asList(VIDEO_EXTENSIONS).contains(fileExtension)) {
-                return MEDIA_TYPE_VIDEO;
-            } else if (Arrays.asList(AUDIO_EXTENSIONS).contains(fileExtension)) {
-                return MEDIA_TYPE_AUDIO;
-            } else if ((Arrays.asList(IMAGE_EXTENSIONS).contains(fileExtension))) {
-                return MEDIA_TYPE_IMAGE;
-            }
+    /**
+     * Returns the picture loaded by the last setMediaSource once, for the viewer to show, or
+     * null if none is waiting.
+     */
+    public Bitmap takeLoadedImage() {
+        return mImages.takeLoaded();
+    }
+
+    /*
+     * Route remote media through the local cache, once it is running.
+     */
+    private String cachedUrl(String url) {
+        CachingProxy proxy = mCacheProxy;
+        return proxy != null ? proxy.proxyUrl(url) : url;
+    }
+
+    /*
+     * Take a player from the pool, or create one, and make it a looping player reporting
+     * to our listener. reset() clears looping and the stream type, so always set them.
+     */
+    private MediaPlayer createPlayer() {
+        MediaPlayer player = mPlayerPool != null ? mPlayerPool.obtain() : new MediaPlayer();
+        player.setLooping(true);
+        player.setAudioStreamType(AudioManager.STREAM_MUSIC);
+        player.setOnPreparedListener(mPlayerListener);
+        player.setOnErrorListener(mPlayerListener);
+        player.setOnInfoListener(mPlayerListener);
+        player.setOnCompletionListener(mPlayerListener);
+        player.setOnSeekCompleteListener(mPlayerListener);
+        return player;
+    }
+
+    /*
+     * Give a player we are done with back to the pool, or release it.
+     */
+    private void releasePlayer(MediaPlayer player) {
+        if (mPlayerPool != null) {
+            mPlayerPool.recycle(player);
+        } else {
+            player.release();
         }
-        return MEDIA_TYPE_UNKNOWN;
     }
 
     /**
@@ -455,12 +625,12 @@ public class CustomMediaPlayerImplementation implements CustomMediaPlayer {
 
     @Override
     public void addStatusListener(StatusListener l) {
-        mListeners.add(l);
+        mDispatcher.addListener(l);
     }
 
     @Override
     public void removeStatusListener(StatusListener l) {
-        mListeners.remove(l);
+        mDispatcher.removeListener(l);
     }
 
     @Override
@@ -472,17 +642,119 @@ public class CustomMediaPlayerImplementation implements CustomMediaPlayer {
     }
 
     /**
-     * {@inheritDoc}
+     * Send periodic position updates only when listeners could not extrapolate them, or
+     * every interval as before.
+     */
+    public void setAdaptivePositionUpdates(boolean adaptive) {
+        mPositionUpdates.setAdaptive(adaptive);
+    }
+
+    /**
+     * Set how long prepare and seek may take before the player is reset and put in
+     * the ErrorChannel condition.
+     *
+     * @param prepareMs
+     *            Prepare deadline in milliseconds, 0 disables
+     * @param seekMs
+     *            Seek deadline in milliseconds, 0 disables
+     */
+    public synchronized void setWatchdogDeadlines(long prepareMs, long seekMs) {
+        if (prepareMs < 0L || seekMs < 0L) {
+            throw new IllegalArgumentException("Negative watchdog deadline");
+        }
+        mPrepareDeadline = prepareMs;
+        mSeekDeadline = seekMs;
+        if (mQueue != null) {
+            mQueue.setDeadlines(prepareMs, seekMs);
+        }
+    }
+
+    /**
+     * Handle a JSON command from the client, named by its "command" value:
+     * <ul>
+     * <li>loadWorkout: {"workout": {"lifts": [...]}, "prefetchAhead": 2, "autoPlay": true}
+     * replaces the playlist, see {@link Workout}, and loads its first set</li>
+     * <li>next, previous: move one set along the playlist</li>
+     * <li>goTo: {"lift": n} jumps to the first set of a lift</li>
+     * <li>clearWorkout: forgets the playlist</li>
+     * <li>positionUpdates: {"adaptive": false} sends position updates at every interval</li>
+     * <li>latency: reports p50/p95/p99 of each stage of a media load, see {@link LoadLatency}</li>
+     * <li>quality: reports stalls, rebuffer ratio and errors of the current load and session,
+     * see {@link PlaybackQuality}</li>
+     * <li>cache: reports the media cache's hits, misses, revalidations and bytes, see
+     * {@link CachingProxy}</li>
+     * </ul>
+     * Queries answer in the log and in an {@link #ACTION_REPORT} broadcast.
      */
     @Override
     public void sendCommand(String command) throws IOException {
-        // not implemented here since none of the sample clients
-        // call the sendCommand API.  If your client calls the sendCommand
-        // API, this is where the service could handle it.  For example
-        // you could send a JSON string with any amount of information
-        // that you would like to pass from client to service.  This can
-        // be used to implement features that the SDK does not, such as
-        // playlists.
+        PlayerLog.d(TAG, "sendCommand Called. {}", command);
+        String name;
+        JSONObject json;
+        try {
+            json = new JSONObject(command);
+            name = json.getString("command");
+        } catch (JSONException e) {
+            throw new IllegalArgumentException("Cannot parse command");
+        }
+        try {
+            if (name.equals("loadWorkout")) {
+                mQuality.beginSession();
+                mPlaylist.load(Workout.fromJson(json.getJSONObject("workout")),
+                        json.optInt("prefetchAhead", PlaylistEngine.DEFAULT_PREFETCH_AHEAD),
+                        json.optBoolean("autoPlay", true));
+            } else if (name.equals("next")) {
+                mPlaylist.next();
+            } else if (name.equals("previous")) {
+                mPlaylist.previous();
+            } else if (name.equals("goTo")) {
+                mPlaylist.goTo(json.getInt("lift"));
+            } else if (name.equals("clearWorkout")) {
+                mPlaylist.clear();
+                mQuality.beginSession();
+            } else if (name.equals("positionUpdates")) {
+                setAdaptivePositionUpdates(json.getBoolean("adaptive"));
+            } else if (name.equals("latency")) {
+                report(name, mLatency.toJson());
+            } else if (name.equals("quality")) {
+                report(name, mQuality.toJson());
+            } else if (name.equals("cache")) {
+                CachingProxy proxy = mCacheProxy;
+                report(name, proxy != null ? proxy.toJson() : new JSONObject().put("running", false));
+            } else {
+                throw new IllegalArgumentException("Unknown command " + name);
+            }
+        } catch (JSONException e) {
+            throw new IllegalArgumentException("Bad " + name + " command: " + e.getMessage());
+        }
+    }
+
+    /*
+     * The Fling API has no way back for a command, so answer a query in the log and in a
+     * broadcast.
+     */
+    private void report(String name, JSONObject json) throws JSONException {
+        json.put("command", name);
+        String text = json.toString();
+        PlayerLog.i(TAG, "Report {}", text);
+        mContext.sendBroadcast(new Intent(ACTION_REPORT).putExtra("json", text));
+    }
+
+    /**
+     * Returns the decoders of the device by MIME type.
+     */
+    CodecIndex getCodecIndex() {
+        return mCodecs;
+    }
+
+    /*
+     * Download media into the cache ahead of its SetUri. Blocks; call off the main thread.
+     */
+    void prefetch(String url) throws IOException {
+        CachingProxy proxy = mCacheProxy;
+        if (proxy != null) {
+            proxy.prefetch(url);
+        }
     }
 
     /*
@@ -500,7 +772,7 @@ public class CustomMediaPlayerImplementation implements CustomMediaPlayer {
      *
      * @return current state
      */
-    protected synchronized MediaState getState() {
+    protected MediaState getState() {
         return mState;
     }
 
@@ -509,7 +781,7 @@ public class CustomMediaPlayerImplementation implements CustomMediaPlayer {
      *
      * @return current condition.
      */
-    protected synchronized MediaCondition getError() {
+    protected MediaCondition getError() {
         return mError;
     }
 
@@ -539,6 +811,8 @@ public class CustomMediaPlayerImplementation implements CustomMediaPlayer {
                 }
             }
             mState = state;
+            mQuality.onPlaying(state == MediaState.Playing);
+            publishSnapshot();
             if( sendEvent ) {
                 // When we start playing, make sure we start updating position as well.
                 if (state == MediaState.Playing) {
@@ -571,7 +845,9 @@ public class CustomMediaPlayerImplementation implements CustomMediaPlayer {
             if (err != MediaCondition.WarningContent && err != MediaCondition.WarningBandwidth
                     && err != MediaCondition.Good) {
                 mState = MediaState.Error;
+                mQuality.onPlaying(false);
             }
+            publishSnapshot();
             if( sendEvent ) {
                 sendStatus();
             }
@@ -591,12 +867,15 @@ public class CustomMediaPlayerImplementation implements CustomMediaPlayer {
             mCurrentTitle = null;
             mMediaType = null;
             mCurrentMediaInfo = null;
+            mCurrentMetadata = null;
             mCurrentDescription = null;
+            publishSnapshot();
             return;
         }
         mCurrentTitle = null;
         mMediaType = null;
         mCurrentMediaInfo = null;
+        mCurrentMetadata = null;
         mCurrentDescription = null;
         boolean isReseting = (curState == MediaState.NoSource || curState == MediaState.PreparingMedia);
         setState(MediaState.Finished, !isReseting, false);
@@ -609,25 +888,24 @@ public class CustomMediaPlayerImplementation implements CustomMediaPlayer {
      * Update the status listener to the current status
      */
     protected void sendStatus() {
-        Log.d(TAG, "statusChange.  State=" + mState.name() + " Condition=" + mError.name());
+        PlayerLog.d(TAG, "statusChange.  State={} Condition={}", mState, mError);
 
-        if (!mListeners.isEmpty()) {
-            long pos = -1L;
-            MediaPlayerStatus status = getStatus();
-            try {
-                if (status.getState() != MediaState.Error) {
-                    pos = getPosition();
-                }
-            } catch (Exception e) {
-                // send -1 as pos.
-            }
-            for (StatusListener listener : mListeners) {
-                try {
-                    listener.onStatusChange(status, pos);
-                } catch (Exception e) {
-                    Log.w(TAG, "Exception in status change event", e);
-                }
-            }
+        publishSnapshot();
+        dispatchStatus();
+    }
+
+    /*
+     * Send the published snapshot to the listeners.
+     */
+    private void dispatchStatus() {
+        if (mDispatcher.hasListeners()) {
+            PlayerSnapshot snapshot = mSnapshot.get();
+            // send -1 as pos without a stream.
+            long pos = snapshot.mHasSource && snapshot.mState != MediaState.Error
+                    ? snapshot.getPosition() : -1L;
+            // Listeners run on the dispatcher's threads, never under the player lock.
+            mDispatcher.dispatch(snapshot.toStatus(), pos);
+            mPositionUpdates.onSent(snapshot, pos, mDispatcher.getListenerCount());
         }
     }
 
@@ -635,7 +913,7 @@ public class CustomMediaPlayerImplementation implements CustomMediaPlayer {
         @Override
         public void run() {
             if (getState() == MediaState.Playing) {
-                Log.d(TAG, "updateStatus - Sending postDelayed updating status");
+                PlayerLog.d(TAG, "updateStatus - Sending postDelayed updating status");
                 mQueue.update();
             }
         }
@@ -643,10 +921,15 @@ public class CustomMediaPlayerImplementation implements CustomMediaPlayer {
 
     protected void updateStatus() {
         if (getState() == MediaState.Playing) {
-            sendStatus();
+            publishSnapshot();
+            if (mPositionUpdates.shouldSend(mSnapshot.get(), mDispatcher.getListenerCount())) {
+                dispatchStatus();
+            }
             mHandler.removeCallbacks(updateRunnable);
             if( mUpdateInterval > 0L ) {
-                mHandler.postDelayed(updateRunnable, mUpdateInterval);
+                boolean hidden = mSurfaces.getState() != ViewerSurfaceManager.ViewerState.Attached;
+                mHandler.postDelayed(updateRunnable,
+                        mPositionUpdates.nextInterval(mUpdateInterval, hidden));
             }
         }
     }
@@ -656,24 +939,93 @@ public class CustomMediaPlayerImplementation implements CustomMediaPlayer {
     }
 
     /**
-     * PC Queue used to serialize all the MediaPlayer accesses
+     * Event driven queue used to serialize all the MediaPlayer accesses.
+     *
+     * Commands run on a dedicated HandlerThread, drained from three lanes in priority order:
+     * lifecycle (SetUri, Stop), transport (Play, Pause, Seek) and housekeeping (Update).
+     * Transport commands that need a prepared player, or the end of a running seek, are
+     * parked in order and resumed from the MediaPlayer callbacks, so the thread itself never
+     * blocks. A SetUri starts a new source generation and drops the transport and
+     * housekeeping work still queued for the old one.
+     *
+     * Commands are recycled slots from a preallocated {@link CommandRing}, so steady state
+     * enqueueing (the periodic Update in particular) does not allocate. A full ring drops
+     * transport and housekeeping commands, never lifecycle ones.
+     *
+     * A standby player prepares the next lift in the background (Preload). When the SetUri
+     * for that media arrives the two players swap, and the new one is moved onto the surface
+     * already prepared.
      */
-    private static class CommandQueue {
-
-        private LinkedBlockingQueue<Command> mCmdQueue = new LinkedBlockingQueue<Command>();
-
-        private MediaPlayer mPlayer;
+    private static class CommandQueue implements Handler.Callback, PlayerWatchdog.Listener {
+
+        private static final int MSG_WAKE = 1;
+        private static final int MSG_PREPARED = 3;
+        private static final int MSG_SEEK_COMPLETE = 4;
+        private static final int MSG_FLUSH = 5;
+        private static final int MSG_STANDBY_ERROR = 6;
+
+        private static final int RING_CAPACITY = 64;
+        // Ring slots only lifecycle commands may take.
+        private static final int LIFECYCLE_RESERVE = 8;
+
+        // Stamped on a prepared message from the standby player, which has no source of its own.
+        private static final int STANDBY_LOAD = -1;
+
+        private final CommandRing mRing = new CommandRing(RING_CAPACITY, LIFECYCLE_RESERVE);
+
+        // Only touched from the queue thread.
+        private final ArrayDeque<Command> mLifecycleLane = new ArrayDeque<Command>();
+        private final ArrayDeque<Command> mTransportLane = new ArrayDeque<Command>();
+        private final ArrayDeque<Command> mHousekeepingLane = new ArrayDeque<Command>();
+
+        // Bumped by every setUrl; commands stamped with an older value belong to a replaced source.
+        private final AtomicInteger mGeneration = new AtomicInteger();
+        // Written on the queue thread; the player callbacks stamp their messages with it.
+        private volatile int mSourceGeneration = 0;
+
+        private volatile MediaPlayer mPlayer;
+        private volatile MediaPlayer mStandby;
+        private String mStandbyUri;
+        private boolean mStandbyPrepared = false;
+        private String mDeferredPreload;
         private CustomMediaPlayerImplementation mPlayerService;
-        private Thread mExec;
-        private Object mSeekLock = new Object();
-        private Object mPrepLock = new Object();
+        private HandlerThread mExec;
+        private Handler mExecHandler;
+        private PlayerWatchdog mWatchdog;
         private boolean mPrepped = false;
-        private boolean mSeekDone = false;
+        private boolean mPreparing = false;
+        // The standby player was swapped in before it had prepared.
+        private boolean mAdopting = false;
+        private boolean mSeeking = false;
+        private MediaState mSeekOriginalState;
+        private volatile int mCoalesced = 0;
+        private volatile int mCancelled = 0;
+
+        private enum Lane {
+            Lifecycle, Transport, Housekeeping
+        };
 
         private enum PlayerCommand {
-            SetUri, Play, Pause, Stop, Seek, Update, SetImage, PlayImage
+            SetUri(Lane.Lifecycle),
+            Play(Lane.Transport),
+            Pause(Lane.Transport),
+            Stop(Lane.Lifecycle),
+            Seek(Lane.Transport),
+            Update(Lane.Housekeeping),
+            SetImage(Lane.Lifecycle),
+            PlayImage(Lane.Transport),
+            Preload(Lane.Housekeeping);
+
+            final Lane mLane;
+
+            PlayerCommand(Lane lane) {
+                mLane = lane;
+            }
         };
 
+        /**
+         * Reusable command slot, owned by the {@link CommandRing}.
+         */
         private static class Command {
 
             public PlayerCommand mCmd;
@@ -681,21 +1033,162 @@ public class CustomMediaPlayerImplementation implements CustomMediaPlayer {
             public PlayerSeekMode mSeekMode;
             public String mUri;
             public boolean mInBg;
+            public int mGeneration;
 
-            public Command(PlayerCommand cmd) {
+            public void set(PlayerCommand cmd, PlayerSeekMode mode, int seekMs, String uri, boolean inBg) {
                 mCmd = cmd;
+                mSeekMode = mode;
+                mSeekTimeMs = seekMs;
+                mUri = uri;
+                mInBg = inBg;
             }
 
-            public Command(PlayerCommand cmd, PlayerSeekMode mode, int seekMs) {
-                this(cmd);
-                mSeekTimeMs = seekMs;
-                mSeekMode = mode;
+            public void clear() {
+                set(null, null, 0, null, false);
+                mGeneration = 0;
             }
 
-            public Command(PlayerCommand cmd, String uri, boolean inBg) {
-                mCmd = cmd;
-                mUri = uri;
-                mInBg = inBg;
+            @Override
+            public String toString() {
+                return "Command[" + mCmd.name() + "]";
+            }
+        }
+
+        /**
+         * Bounded FIFO of published commands, fed by any number of callers and drained by the
+         * queue thread, together with the free list of command slots it hands out. Slots are
+         * preallocated; one is only created when every slot is in use, and counted.
+         *
+         * The last slots of the ring are kept for lifecycle commands. Once even those are
+         * taken, lifecycle commands queue in an overflow list behind the ring, also counted,
+         * and everything else is refused until it has drained. A SetUri clears the transport
+         * and housekeeping commands ahead of it, which would be dropped as stale anyway, so
+         * the commands for the new source find room.
+         */
+        private static class CommandRing {
+
+            private final Command[] mRing;
+            private final Command[] mFree;
+            private final ArrayDeque<Command> mOverflow = new ArrayDeque<Command>();
+            private final int mMask;
+            private final int mReserve;
+            private int mHead = 0;
+            private int mCount = 0;
+            private int mFreeCount = 0;
+            private volatile long mAllocations = 0L;
+            private volatile long mOverflows = 0L;
+
+            /**
+             * @param capacity
+             *            Number of published commands held, rounded up to a power of two
+             * @param reserve
+             *            Slots of those only lifecycle commands may take
+             */
+            public CommandRing(int capacity, int reserve) {
+                int size = Integer.highestOneBit(Math.max(capacity, 2) - 1) << 1;
+                if (reserve < 0 || reserve >= size) {
+                    throw new IllegalArgumentException("Bad reserve " + reserve + " of " + size);
+                }
+                mRing = new Command[size];
+                mMask = size - 1;
+                mReserve = reserve;
+                // Slots also sit in the lanes while waiting to run, so keep twice the ring.
+                mFree = new Command[size * 2];
+                while (mFreeCount < mFree.length) {
+                    mFree[mFreeCount++] = new Command();
+                }
+            }
+
+            public synchronized Command obtain() {
+                if (mFreeCount == 0) {
+                    mAllocations++;
+                    return new Command();
+                }
+                Command cmd = mFree[--mFreeCount];
+                mFree[mFreeCount] = null;
+                return cmd;
+            }
+
+            public synchronized void recycle(Command cmd) {
+                cmd.clear();
+                if (mFreeCount < mFree.length) {
+                    mFree[mFreeCount++] = cmd;
+                }
+            }
+
+            /**
+             * Publish a command. A lifecycle command is always taken.
+             *
+             * @return false if the command was refused
+             */
+            public synchronized boolean offer(Command cmd) {
+                boolean lifecycle = cmd.mCmd.mLane == Lane.Lifecycle;
+                if (cmd.mCmd == PlayerCommand.SetUri) {
+                    dropSuperseded();
+                }
+                int limit = lifecycle ? mRing.length : mRing.length - mReserve;
+                if (mOverflow.isEmpty() && mCount < limit) {
+                    mRing[(mHead + mCount) & mMask] = cmd;
+                    mCount++;
+                    return true;
+                }
+                if (!lifecycle) {
+                    return false;
+                }
+                mOverflows++;
+                mOverflow.addLast(cmd);
+                return true;
+            }
+
+            /*
+             * Recycle the ring's transport and housekeeping commands, keeping the order of
+             * the rest.
+             */
+            private void dropSuperseded() {
+                int kept = 0;
+                for (int i = 0; i < mCount; i++) {
+                    Command queued = mRing[(mHead + i) & mMask];
+                    mRing[(mHead + i) & mMask] = null;
+                    if (queued.mCmd.mLane == Lane.Lifecycle) {
+                        mRing[(mHead + kept++) & mMask] = queued;
+                    } else {
+                        recycle(queued);
+                    }
+                }
+                mCount = kept;
+            }
+
+            public synchronized Command poll() {
+                if (mCount == 0) {
+                    // The overflow only fills once the ring is full, so it is younger.
+                    return mOverflow.pollFirst();
+                }
+                Command cmd = mRing[mHead];
+                mRing[mHead] = null;
+                mHead = (mHead + 1) & mMask;
+                mCount--;
+                return cmd;
+            }
+
+            public synchronized void clear() {
+                Command cmd;
+                while ((cmd = poll()) != null) {
+                    recycle(cmd);
+                }
+            }
+
+            /**
+             * Returns the number of slots created after construction.
+             */
+            public long getAllocationCount() {
+                return mAllocations;
+            }
+
+            /**
+             * Returns the number of lifecycle commands queued beyond the ring.
+             */
+            public long getOverflowCount() {
+                return mOverflows;
             }
         }
 
@@ -707,35 +1200,33 @@ public class CustomMediaPlayerImplementation implements CustomMediaPlayer {
         public CommandQueue(CustomMediaPlayerImplementation impl) {
             mPlayer = impl.mPlayer;
             mPlayerService = impl;
-            mExec = new Thread(new Runnable() {
-
-                public void run() {
-                    try {
-                        while (mPlayer != null) {
-                            Command cmd = mCmdQueue.take();
-                            try {
-                                exec(cmd);
-                            } catch (Exception e) {
-                                Log.e(TAG, "Error during command execution:", e);
-                            }
-                        }
-                    } catch (InterruptedException e) {
-                        Log.i(TAG, "Shutting down media command queue");
-                    }
-                }
-            });
+            mExec = new HandlerThread("MediaCommandQueue");
             mExec.start();
+            mExecHandler = new Handler(mExec.getLooper(), this);
+            mWatchdog = new PlayerWatchdog(mExecHandler, this);
+            setDeadlines(impl.mPrepareDeadline, impl.mSeekDeadline);
+        }
+
+        /**
+         * Hand the queue the player to drive; it is created on the first fling.
+         */
+        public void setPlayer(MediaPlayer player) {
+            mPlayer = player;
+        }
+
+        /**
+         * Set the prepare and seek watchdog deadlines, 0 disables.
+         */
+        public void setDeadlines(long prepareMs, long seekMs) {
+            mWatchdog.setDeadline(PlayerWatchdog.Kind.Prepare, prepareMs);
+            mWatchdog.setDeadline(PlayerWatchdog.Kind.Seek, seekMs);
         }
 
         /**
          * Send position updates
          */
         public void update() {
-            try {
-                mCmdQueue.put(new Command(PlayerCommand.Update));
-            } catch (InterruptedException e) {
-                Log.w(TAG, "Put interrupted, command ignored");
-            }
+            enqueue(PlayerCommand.Update, null, 0, null, false);
         }
 
          /**
@@ -745,11 +1236,7 @@ public class CustomMediaPlayerImplementation implements CustomMediaPlayer {
          *            URI of media to load from
          */
         public void setUrl(String uri, boolean playInBg) {
-            try {
-                mCmdQueue.put(new Command(PlayerCommand.SetUri, uri, playInBg));
-            } catch (InterruptedException e) {
-                Log.w(TAG, "Put interrupted, command ignored");
-            }
+            enqueue(PlayerCommand.SetUri, null, 0, uri, playInBg);
         }
 
 
@@ -757,33 +1244,21 @@ public class CustomMediaPlayerImplementation implements CustomMediaPlayer {
          * Add play command to queue
          */
         public void play() {
-            try {
-                mCmdQueue.put(new Command(PlayerCommand.Play));
-            } catch (InterruptedException e) {
-                Log.w(TAG, "Put interrupted, command ignored");
-            }
+            enqueue(PlayerCommand.Play, null, 0, null, false);
         }
 
         /**
          * Add pause command to queue
          */
         public void pause() {
-            try {
-                mCmdQueue.put(new Command(PlayerCommand.Pause));
-            } catch (InterruptedException e) {
-                Log.w(TAG, "Put interrupted, command ignored");
-            }
+            enqueue(PlayerCommand.Pause, null, 0, null, false);
         }
 
         /**
          * Add stop command to queue
          */
         public void stop() {
-            try {
-                mCmdQueue.put(new Command(PlayerCommand.Stop));
-            } catch (InterruptedException e) {
-                Log.w(TAG, "Put interrupted, command ignored");
-            }
+            enqueue(PlayerCommand.Stop, null, 0, null, false);
         }
 
         /**
@@ -793,10 +1268,52 @@ public class CustomMediaPlayerImplementation implements CustomMediaPlayer {
          *            Time, reletive to stream start, of location to seek to
          */
         public void seek(PlayerSeekMode mode, int timeMs) {
-            try {
-                mCmdQueue.put(new Command(PlayerCommand.Seek, mode, timeMs));
-            } catch (InterruptedException e) {
-                Log.w(TAG, "Put interrupted, command ignored");
+            enqueue(PlayerCommand.Seek, mode, timeMs, null, false);
+        }
+
+        /**
+         * Add preload command to queue
+         *
+         * @param uri
+         *            URI of the media expected next
+         */
+        public void preload(String uri) {
+            enqueue(PlayerCommand.Preload, null, 0, uri, true);
+        }
+
+        /**
+         * Fill a ring slot and wake the queue thread.
+         *
+         * @param what
+         *            Command to run
+         * @param mode
+         *            Seek mode, Seek only
+         * @param seekMs
+         *            Seek time, Seek only
+         * @param uri
+         *            Media location, SetUri only
+         * @param inBg
+         *            Play in background, SetUri only
+         */
+        public void enqueue(PlayerCommand what, PlayerSeekMode mode, int seekMs, String uri, boolean inBg) {
+            Command cmd = mRing.obtain();
+            cmd.set(what, mode, seekMs, uri, inBg);
+            // Stamped and published under the ring's lock, so commands reach it in generation
+            // order, and a source only counts as replaced once its SetUri is in.
+            synchronized (mRing) {
+                int generation = mGeneration.get();
+                cmd.mGeneration = (what == PlayerCommand.SetUri) ? generation + 1 : generation;
+                if (!mRing.offer(cmd)) {
+                    PlayerLog.w(TAG, "Command ring full, {} ignored", what);
+                    mRing.recycle(cmd);
+                    return;
+                }
+                mGeneration.set(cmd.mGeneration);
+            }
+            if (what.mLane == Lane.Lifecycle) {
+                mExecHandler.sendMessageAtFrontOfQueue(mExecHandler.obtainMessage(MSG_WAKE));
+            } else if (!mExecHandler.hasMessages(MSG_WAKE)) {
+                mExecHandler.sendEmptyMessage(MSG_WAKE);
             }
         }
 
@@ -804,111 +1321,495 @@ public class CustomMediaPlayerImplementation implements CustomMediaPlayer {
          * Flush out queue
          */
         public void flush() {
-            mCmdQueue.clear();
+            mExecHandler.removeMessages(MSG_WAKE);
+            mRing.clear();
+            mExecHandler.sendMessageAtFrontOfQueue(mExecHandler.obtainMessage(MSG_FLUSH));
         }
 
         /**
          * Queue clean-up
          */
         public void destroy() {
-            flush();
+            mExecHandler.removeCallbacksAndMessages(null);
+            mExecHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    if (mStandby != null) {
+                        mPlayerService.releasePlayer(mStandby);
+                        mStandby = null;
+                    }
+                }
+            });
             mPlayer = null;
-            mExec.interrupt();
+            PlayerLog.i(TAG, "Shutting down media command queue, coalesced={} cancelled={} {}",
+                    mCoalesced, mCancelled, mWatchdog);
+            PlayerLog.i(TAG, "Command allocations={} overflows={}", mRing.getAllocationCount(),
+                    mRing.getOverflowCount());
+            mExec.quitSafely();
         }
 
         /**
          * Called when MediaPlayer sends 'prepared' message.
-         * Is used when waiting for player to finish loading.
+         * Resumes any command parked while the player was loading.
          */
-        public void onPrepped(boolean successful) {
-            synchronized (mPrepLock) {
-                Log.d(TAG, "MediaPlayer Prepped");
-                mPrepped = successful;
-                if (successful) {
-                    mPlayerService.setState(MediaState.ReadyToPlay);
-                    // Media is ready to play, so set its media information as current.
-                    Log.d(TAG, "onPrepped. Set mCurrentMediaInfo");
-                    mPlayerService.mCurrentMediaInfo = new MediaPlayerInfo(
-                            mPlayerService.mPendingMediaInfo.getSource(),
-                            mPlayerService.mPendingMediaInfo.getMetadata(),
-                            Long.toString(mPlayerService.mPlayer.getDuration()));
-                }
+        public void onPrepped(MediaPlayer player, boolean successful) {
+            int generation = isStandby(player) ? STANDBY_LOAD : mSourceGeneration;
+            mExecHandler.sendMessage(mExecHandler.obtainMessage(MSG_PREPARED, successful ? 1 : 0,
+                    generation, player));
+        }
 
-                mPrepLock.notify();
-            }
+        /**
+         * Returns true if the player is the one preparing the next lift.
+         */
+        public boolean isStandby(MediaPlayer player) {
+            return player != null && player == mStandby && player != mPlayer;
+        }
+
+        /**
+         * Called when the standby player fails. The next lift will load cold.
+         */
+        public void onStandbyError() {
+            mExecHandler.sendMessage(mExecHandler.obtainMessage(MSG_STANDBY_ERROR));
         }
 
         /**
          * Called when the MediaPlayer completes seeking.
-         * Is used when waiting for the seek to complete.
+         * Resumes any command parked behind the seek.
          */
         public void onSeekComplete() {
-            synchronized (mSeekLock) {
-                mSeekDone = true;
-                mSeekLock.notify();
+            mExecHandler.sendMessage(mExecHandler.obtainMessage(MSG_SEEK_COMPLETE, 0, mSourceGeneration));
+        }
+
+        /**
+         * Dispatch queue events. Runs on the queue thread.
+         */
+        @Override
+        public boolean handleMessage(Message msg) {
+            if (mPlayer == null) {
+                return true;
             }
+            try {
+                switch (msg.what) {
+                    case MSG_WAKE:
+                        // Picked up by drain().
+                        break;
+                    case MSG_PREPARED:
+                        if (msg.obj != null && msg.obj == mStandby) {
+                            mStandbyPrepared = msg.arg1 != 0 && mStandbyUri != null;
+                            PlayerLog.d(TAG, "Standby player prepped: {}", mStandbyPrepared);
+                        } else if (isCurrentLoad(msg.arg2)) {
+                            handlePrepped(msg.arg1 != 0);
+                        } else {
+                            // Lifecycle wakes jump the queue, so this can be for a load already replaced.
+                            PlayerLog.d(TAG, "Ignoring prepared message of load {}", msg.arg2);
+                        }
+                        break;
+                    case MSG_STANDBY_ERROR:
+                        resetStandby();
+                        break;
+                    case MSG_SEEK_COMPLETE:
+                        if (msg.arg2 == mSourceGeneration) {
+                            handleSeekComplete();
+                        } else {
+                            PlayerLog.d(TAG, "Ignoring seek complete message of load {}", msg.arg2);
+                        }
+                        break;
+                    case MSG_FLUSH:
+                        clearLane(mLifecycleLane);
+                        clearLane(mTransportLane);
+                        clearLane(mHousekeepingLane);
+                        break;
+                    default:
+                        return false;
+                }
+                drain();
+            } catch (Exception e) {
+                PlayerLog.e(TAG, "Error during command execution:", e);
+            }
+            return true;
         }
 
         /**
-         * Execute the top command in the queue
+         * Add a command behind the pending ones of its lane, folding it into what is already
+         * waiting when the result is the same. A burst of remote key presses then costs one
+         * seek, not N.
+         */
+        private void append(Command cmd) {
+            if (cmd.mGeneration < mSourceGeneration) {
+                // Queued before the current source was set.
+                mCancelled++;
+                mRing.recycle(cmd);
+                return;
+            }
+            switch (cmd.mCmd.mLane) {
+                case Lifecycle:
+                    mLifecycleLane.addLast(cmd);
+                    return;
+                case Housekeeping:
+                    // One of each waiting is enough: Update reads the live state when it runs,
+                    // and only the newest Preload target matters.
+                    Command same = findInLane(mHousekeepingLane, cmd.mCmd);
+                    if (same != null) {
+                        same.mUri = cmd.mUri;
+                        // Now for the newer source, so a SetUri between them keeps it.
+                        same.mGeneration = Math.max(same.mGeneration, cmd.mGeneration);
+                        mCoalesced++;
+                        mRing.recycle(cmd);
+                        return;
+                    }
+                    mHousekeepingLane.addLast(cmd);
+                    return;
+                default:
+                    break;
+            }
+            Command last = mTransportLane.peekLast();
+            if (last != null && last.mGeneration != cmd.mGeneration) {
+                // Work for the source being replaced is dropped by its SetUri, and must not
+                // take this command with it.
+                last = null;
+            }
+            switch (cmd.mCmd) {
+                case Seek:
+                    if (last != null && last.mCmd == PlayerCommand.Seek) {
+                        if (cmd.mSeekMode == PlayerSeekMode.Absolute) {
+                            last.mSeekMode = PlayerSeekMode.Absolute;
+                            last.mSeekTimeMs = cmd.mSeekTimeMs;
+                        } else {
+                            // Relative onto relative sums, relative onto absolute moves the target.
+                            last.mSeekTimeMs += cmd.mSeekTimeMs;
+                        }
+                        mCoalesced++;
+                        mRing.recycle(cmd);
+                        return;
+                    }
+                    break;
+                case Play:
+                case Pause:
+                    // Back to back toggles end up wherever the last one says.
+                    if (last != null && (last.mCmd == PlayerCommand.Play || last.mCmd == PlayerCommand.Pause)) {
+                        last.mCmd = cmd.mCmd;
+                        mCoalesced++;
+                        mRing.recycle(cmd);
+                        return;
+                    }
+                    break;
+                default:
+                    break;
+            }
+            mTransportLane.addLast(cmd);
+        }
+
+        /*
+         * Find a command in a lane without allocating an iterator.
+         */
+        private Command findInLane(ArrayDeque<Command> lane, PlayerCommand what) {
+            Command found = null;
+            for (int i = lane.size(); i > 0; i--) {
+                Command cmd = lane.pollFirst();
+                if (cmd.mCmd == what) {
+                    found = cmd;
+                }
+                lane.addLast(cmd);
+            }
+            return found;
+        }
+
+        private void clearLane(ArrayDeque<Command> lane) {
+            Command cmd;
+            while ((cmd = lane.pollFirst()) != null) {
+                mRing.recycle(cmd);
+            }
+        }
+
+        /*
+         * Drop commands stamped before the current source generation.
+         */
+        private void dropStale(ArrayDeque<Command> lane) {
+            for (int i = lane.size(); i > 0; i--) {
+                Command cmd = lane.pollFirst();
+                if (cmd.mGeneration < mSourceGeneration) {
+                    mCancelled++;
+                    mRing.recycle(cmd);
+                } else {
+                    lane.addLast(cmd);
+                }
+            }
+        }
+
+        /**
+         * Returns the number of commands folded into an already pending one.
+         */
+        public int getCoalescedCount() {
+            return mCoalesced;
+        }
+
+        /**
+         * Returns the number of commands dropped because their source was replaced.
+         */
+        public int getCancelledCount() {
+            return mCancelled;
+        }
+
+        /**
+         * Returns the number of command slots allocated beyond the preallocated ring.
+         */
+        public long getAllocationCount() {
+            return mRing.getAllocationCount();
+        }
+
+        /**
+         * Move published commands into their lanes, then execute them: lifecycle lane first,
+         * then transport until one has to wait for the player, then housekeeping.
+         */
+        private void drain() {
+            Command cmd;
+            while ((cmd = mRing.poll()) != null) {
+                append(cmd);
+            }
+            while ((cmd = mLifecycleLane.pollFirst()) != null) {
+                try {
+                    execLifecycle(cmd);
+                } catch (Exception e) {
+                    PlayerLog.e(TAG, "Error during command execution:", e);
+                }
+            }
+            while ((cmd = mTransportLane.peekFirst()) != null) {
+                if (mustWait(cmd)) {
+                    PlayerLog.d(TAG, "Parking {}, waiting for player...", cmd.mCmd);
+                    break;
+                }
+                mTransportLane.pollFirst();
+                try {
+                    exec(cmd);
+                } catch (Exception e) {
+                    PlayerLog.e(TAG, "Error during command execution:", e);
+                }
+                mRing.recycle(cmd);
+            }
+            while ((cmd = mHousekeepingLane.pollFirst()) != null) {
+                try {
+                    exec(cmd);
+                } catch (Exception e) {
+                    PlayerLog.e(TAG, "Error during command execution:", e);
+                }
+                mRing.recycle(cmd);
+            }
+        }
+
+        /*
+         * Transport commands wait for a running prepare, and for a running seek, to finish.
+         */
+        private boolean mustWait(Command cmd) {
+            switch (cmd.mCmd) {
+                case Play:
+                case Pause:
+                case Seek:
+                case Stop:
+                    return mSeeking || (!mPrepped && mPreparing);
+                default:
+                    return false;
+            }
+        }
+
+        /*
+         * SetUri and Stop are not queued behind parked commands.
+         */
+        private void execLifecycle(Command cmd) {
+            if (cmd.mCmd == PlayerCommand.SetUri) {
+                // Everything queued before it targeted the source being replaced.
+                mSourceGeneration = cmd.mGeneration;
+                dropStale(mTransportLane);
+                dropStale(mHousekeepingLane);
+                try {
+                    exec(cmd);
+                } finally {
+                    mRing.recycle(cmd);
+                }
+            } else if (mPlayerService.mImageMarker || !mustWait(cmd)) {
+                try {
+                    exec(cmd);
+                } finally {
+                    mRing.recycle(cmd);
+                }
+            } else {
+                // Stop restarts the lift, so it supersedes transport work still waiting on
+                // the prepare or seek, and plays as soon as that is done.
+                mCancelled += mTransportLane.size();
+                clearLane(mTransportLane);
+                mTransportLane.addFirst(cmd);
+            }
+        }
+
+        /*
+         * True for a prepared message of the load the active player is preparing now.
+         */
+        private boolean isCurrentLoad(int generation) {
+            return mPreparing && (generation == mSourceGeneration || (generation == STANDBY_LOAD && mAdopting));
+        }
+
+        private void handlePrepped(boolean successful) {
+            long preparedMs = mWatchdog.disarm(PlayerWatchdog.Kind.Prepare);
+            PlayerLog.d(TAG, "MediaPlayer Prepped in {}ms", preparedMs);
+            mPreparing = false;
+            mAdopting = false;
+            mPrepped = successful;
+            if (successful) {
+                mPlayerService.mLatency.mark(LoadLatency.Mark.Prepared);
+                mPlayerService.setState(MediaState.ReadyToPlay);
+                // Media is ready to play, so set its media information as current.
+                PlayerLog.d(TAG, "onPrepped. Set mCurrentMediaInfo");
+                mPlayerService.mCurrentMediaInfo = new MediaPlayerInfo(
+                        mPlayerService.mPendingMediaInfo.getSource(),
+                        mPlayerService.mPendingMediaInfo.getMetadata(),
+                        Long.toString(mPlayerService.mPlayer.getDuration()));
+                mPlayerService.mCurrentMetadata = mPlayerService.mPendingMetadata;
+                mPlayerService.publishSnapshot();
+            }
+            if (mDeferredPreload != null) {
+                startPreload(mDeferredPreload);
+            }
+        }
+
+        /*
+         * Load the next lift on the standby player. Waits for the active player to finish
+         * preparing so the two loads don't compete for bandwidth.
+         */
+        private void startPreload(String uri) {
+            if (mPreparing) {
+                mDeferredPreload = uri;
+                return;
+            }
+            mDeferredPreload = null;
+            if (uri.equals(mStandbyUri)) {
+                return;
+            }
+            if (mStandby == null) {
+                mStandby = mPlayerService.createPlayer();
+            }
+            resetStandby();
+            try {
+                mStandby.setDataSource(uri);
+                mStandby.prepareAsync();
+                mStandbyUri = uri;
+                PlayerLog.d(TAG, "Preloading {}", uri);
+            } catch (Exception e) {
+                PlayerLog.w(TAG, "Cannot preload {}", uri, e);
+                resetStandby();
+            }
+        }
+
+        private void resetStandby() {
+            mStandbyUri = null;
+            mStandbyPrepared = false;
+            if (mStandby != null) {
+                mStandby.reset();
+            }
+        }
+
+        /*
+         * Make the standby player active and put it on the surface. The previous player
+         * becomes the standby.
+         *
+         * @return true if the new active player is already prepared
+         */
+        private boolean swapToStandby() {
+            boolean prepared = mStandbyPrepared;
+            MediaPlayer old = mPlayer;
+            mPlayer = mStandby;
+            mStandby = old;
+            // Under the lock surface changes are applied with, so they can't land in between.
+            synchronized (mPlayerService) {
+                mPlayerService.mPlayer = mPlayer;
+                // A surface takes one producer; free it before the new player connects.
+                old.setSurface(null);
+                Surface surface = mPlayerService.mSurfaces.getSurface();
+                if (surface != null) {
+                    mPlayer.setSurface(surface);
+                }
+            }
+            resetStandby();
+            return prepared;
+        }
+
+        private void handleSeekComplete() {
+            if (mSeeking) {
+                mSeeking = false;
+                mPlayerService.mClock.invalidate();
+                long seekMs = mWatchdog.disarm(PlayerWatchdog.Kind.Seek);
+                PlayerLog.d(TAG, "Player Seek Complete in {}ms", seekMs);
+                mPlayerService.setState(mSeekOriginalState);
+            }
+        }
+
+        /**
+         * Prepare or seek never called back. Reset the player and report the stall, instead of
+         * leaving commands parked for good. Runs on the queue thread.
+         */
+        @Override
+        public void onWatchdogFired(PlayerWatchdog.Kind kind, long elapsedMs) {
+            PlayerLog.e(TAG, "{} stalled for {}ms, resetting player", kind, elapsedMs);
+            PlayerLog.dump(kind + " stall");
+            mPrepped = false;
+            mPreparing = false;
+            mAdopting = false;
+            mSeeking = false;
+            mCancelled += mTransportLane.size();
+            clearLane(mTransportLane);
+            try {
+                mPlayer.reset();
+            } catch (Exception e) {
+                PlayerLog.e(TAG, "Reset after stall failed:", e);
+            }
+            mPlayerService.setState(MediaCondition.ErrorChannel);
+        }
+
+        /**
+         * Execute the top command in the queue. Never blocks; callers park commands that
+         * need the player first.
          *
          * @param cmd
          *            Command to execute
          */
         public void exec(Command cmd) {
-            Log.d(TAG, "Executing command " + cmd.toString());
+            PlayerLog.d(TAG, "Executing command {}", cmd.mCmd);
             switch (cmd.mCmd) {
                 case Play:
-                    // Always wait until prepared
-                    synchronized (mPrepLock) {
-                        try {
-                            Log.d(TAG, "Before Play, Waiting for player...");
-                            if (!mPrepped) {
-                                mPrepLock.wait();
-                            }
-                        } catch (InterruptedException e) {
-                        }
-                    }
-                    Log.d(TAG, "Before Play, are we prepped? " + (mPrepped ? "Yes" : "No"));
+                    PlayerLog.d(TAG, "Before Play, are we prepped? {}", mPrepped ? "Yes" : "No");
                     if (mPrepped) {
-                        Log.d(TAG, "Player Prepped, state = " + mPlayerService.getState());
+                        PlayerLog.d(TAG, "Player Prepped, state = {}", mPlayerService.getState());
                         MediaState originalState = mPlayerService.getState();
                         if (originalState == MediaState.Paused || originalState == MediaState.ReadyToPlay) {
                             try {
-                                mPlayer.start();
+                                Trace.beginSection("MediaPlayer.start");
+                                try {
+                                    mPlayer.start();
+                                } finally {
+                                    Trace.endSection();
+                                }
+                                mPlayerService.mLatency.mark(LoadLatency.Mark.Started);
                                 mPlayerService.setState(MediaState.Playing);
-                                Log.d(TAG, "Player Started...");
+                                PlayerLog.d(TAG, "Player Started...");
                             } catch (Exception e) {
-                                Log.e(TAG, "Play Failed:", e);
+                                PlayerLog.e(TAG, "Play Failed:", e);
                             }
                         } else {
-                            Log.w(TAG, "Cannot Play, bad state:" + mPlayerService.getState().name());
+                            PlayerLog.w(TAG, "Cannot Play, bad state: {}", mPlayerService.getState());
                         }
                     }
                     break;
                 case Pause:
-                    // Always wait until prepared
-                    synchronized (mPrepLock) {
-                        try {
-                            Log.d(TAG, "Before Pause, Waiting for player...");
-                            if (!mPrepped) {
-                                mPrepLock.wait();
-                            }
-                        } catch (InterruptedException e) {
-                        }
-                    }
                     if (mPrepped) {
                         if (mPlayerService.getState() == MediaState.Playing
                                 || mPlayerService.getState() == MediaState.ReadyToPlay) {
                             try {
                                 mPlayer.pause();
                                 mPlayerService.setState(MediaState.Paused);
-                                Log.d(TAG, "Player Paused...");
+                                PlayerLog.d(TAG, "Player Paused...");
                             } catch (Exception e) {
-                                Log.e(TAG, "Pause Failed:", e);
+                                PlayerLog.e(TAG, "Pause Failed:", e);
                             }
                         } else {
-                            Log.w(TAG, "Cannot Pause, bad state:" + mPlayerService.getState().name());
+                            PlayerLog.w(TAG, "Cannot Pause, bad state: {}", mPlayerService.getState());
                         }
                     }
                     break;
@@ -916,156 +1817,144 @@ public class CustomMediaPlayerImplementation implements CustomMediaPlayer {
                     if (mPlayerService.mImageMarker) {
                         mPlayerService.setState(MediaState.Finished);
                         mPlayerService.mCurrentMediaInfo = null;
-                        Log.d(TAG, "Displaying image stopped...");
+                        mPlayerService.mCurrentMetadata = null;
+                        mPlayerService.publishSnapshot();
+                        PlayerLog.d(TAG, "Displaying image stopped...");
                         break;
                     }
-                    /*
-                    // Always wait until prepared
-                    synchronized (mPrepLock) {
-                        try {
-                            Log.d(TAG, "Before Stop, Waiting for player...");
-                            if (!mPrepped) {
-                                mPrepLock.wait();
-                            }
-                        } catch (InterruptedException e) {
-                        }
-                    }
+                    // The phone sends Stop to restart the lift, so a prepared player plays on.
+                    PlayerLog.d(TAG, "Before Stop, are we prepped? {}", mPrepped ? "Yes" : "No");
                     if (mPrepped) {
+                        PlayerLog.d(TAG, "Player Prepped, state = {}", mPlayerService.getState());
                         try {
-                            mPlayer.stop();
-                            mPlayerService.setState(MediaState.Finished);
-                            mPlayerService.mCurrentMediaInfo = null;
-                            Log.d(TAG, "Player Stopped...");
-                        } catch (Exception e) {
-                            Log.e(TAG, "Stop Failed:", e);
-                        }
-                    } else {
-                        Log.w(TAG, "Cannot Stop, bad state:" + mPlayerService.getState().name());
-                    }*/
-                    ////////////////////
-                    synchronized (mPrepLock) {
-                        try {
-                            Log.d(TAG, "Before Play, Waiting for player...");
-                            if (!mPrepped) {
-                                mPrepLock.wait();
-                            }
-                        } catch (InterruptedException e) {
-                        }
-                    }
-                    Log.d(TAG, "Before Play, are we prepped? " + (mPrepped ? "Yes" : "No"));
-                    if (mPrepped) {
-                        Log.d(TAG, "Player Prepped, state = " + mPlayerService.getState());
-                        MediaState originalState = mPlayerService.getState();
-                        //if (originalState == MediaState.Paused || originalState == MediaState.ReadyToPlay) {
+                            Trace.beginSection("MediaPlayer.start");
                             try {
                                 mPlayer.start();
-                                mPlayerService.setState(MediaState.Playing);
-                                Log.d(TAG, "Player Started...");
-                            } catch (Exception e) {
-                                Log.e(TAG, "Play Failed:", e);
+                            } finally {
+                                Trace.endSection();
                             }
-                        //} else {
-                          //  Log.w(TAG, "Cannot Play, bad state:" + mPlayerService.getState().name());
-                        //}
+                            mPlayerService.mLatency.mark(LoadLatency.Mark.Started);
+                            mPlayerService.setState(MediaState.Playing);
+                            PlayerLog.d(TAG, "Player Started...");
+                        } catch (Exception e) {
+                            PlayerLog.e(TAG, "Play Failed:", e);
+                        }
                     }
-
-
-                    /////////////////////
                     break;
                 case Seek:
-                    // Always wait until prepared
-                    synchronized (mPrepLock) {
-                        try {
-                            Log.d(TAG, "Before Seek, Waiting for player...");
-                            if (!mPrepped) {
-                                mPrepLock.wait();
-                            }
-                        } catch (InterruptedException e) {
-                        }
-                    }
                     if (mPrepped) {
                         MediaState original = mPlayerService.getState();
 
                         try {
-                            mSeekDone = false;
                             int seekTo = cmd.mSeekTimeMs;
-                            Log.d(TAG, "Seek TimeMs - " + convertTime(seekTo));
+                            if (PlayerLog.DEBUG) {
+                                PlayerLog.d(TAG, "Seek TimeMs - {}", convertTime(seekTo));
+                            }
                             if( cmd.mSeekMode == PlayerSeekMode.Relative ) {
                                 seekTo += mPlayer.getCurrentPosition();
                             }
-                            Log.d(TAG, "Seek to - " + convertTime(seekTo));
+                            if (PlayerLog.DEBUG) {
+                                PlayerLog.d(TAG, "Seek to - {}", convertTime(seekTo));
+                            }
+                            mSeekOriginalState = original;
+                            mSeeking = true;
+                            mWatchdog.arm(PlayerWatchdog.Kind.Seek);
                             mPlayer.seekTo(seekTo);
                             mPlayerService.setState(MediaState.Seeking);
-                            Log.d(TAG, "Player Seeking...");
+                            PlayerLog.d(TAG, "Player Seeking...");
                         } catch (Exception e) {
-                            Log.e(TAG, "Seek Failed:", e);
+                            mSeeking = false;
+                            mWatchdog.disarm(PlayerWatchdog.Kind.Seek);
+                            PlayerLog.e(TAG, "Seek Failed:", e);
                             break;
                         }
-
-                        // Wait for seek to complete, before going to next command.
-                        synchronized (mSeekLock) {
-                            try {
-                                while (!mSeekDone) {
-                                    mSeekLock.wait();
-                                }
-                            } catch (InterruptedException e) {
-                            }
-
-                            if (mSeekDone) {
-                                Log.d(TAG, "Player Seek Complete...");
-                                mPlayerService.setState(original);
-                            }
-                        }
+                        // The next transport command is parked until onSeekComplete.
                     } else {
-                        Log.w(TAG, "Cannot Seek, not prepped");
+                        PlayerLog.w(TAG, "Cannot Seek, not prepped");
                     }
                     break;
                 case Update:
                     mPlayerService.updateStatus();
                     break;
+                case Preload:
+                    startPreload(cmd.mUri);
+                    break;
                 case SetUri:
-                    Log.d(TAG, "Before Set Data Source, reset player...");
-
+                    PlayerLog.d(TAG, "Before Set Data Source, reset player...");
+                    mPlayerService.mLatency.mark(LoadLatency.Mark.Dequeued);
+
+                    mPrepped = false;
+                    mPreparing = false;
+                    mAdopting = false;
+                    mSeeking = false;
+                    mWatchdog.cancel();
                     mPlayerService.setState(MediaState.NoSource, false, false);
                     mPlayerService.setState(MediaCondition.Good, false);
-                    mPlayer.reset();
-                    // First, launch the viewer for media surface
+                    boolean warm = mStandby != null && cmd.mUri.equals(mStandbyUri);
+                    boolean warmPrepared = false;
+                    if (warm) {
+                        PlayerLog.d(TAG, "Switching to standby player");
+                        warmPrepared = swapToStandby();
+                    } else {
+                        mPlayer.reset();
+                    }
+                    // First, make sure there is a viewer for the media surface. One that is
+                    // already up, even paused, is reused; until its surface is valid the
+                    // player renders to the retained one.
                     try {
-                        if (!cmd.mInBg && mPlayerService.mSurfaceHolder == null) {
-                            Intent intent = new Intent(mPlayerService.mContext, MediaViewer.class);
-                            intent.setFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
-                            intent.putExtra("actualServiceClassname", mPlayerService.mContext.getClass().getName());
-                            mPlayerService.mContext.startActivity(intent);
+                        if (!cmd.mInBg) {
+                            mPlayerService.mSurfaces.requestViewer(mPlayerService.mContext.getClass().getName());
                         }
                     } catch (Exception e) {
-                        Log.e(TAG, "Error launching viewer", e);
+                        PlayerLog.e(TAG, "Error launching viewer", e);
                         mPlayerService.setState(MediaCondition.ErrorUnknown);
                         break;
                     }
-                    Log.d(TAG, "Setting data source to " + cmd.mUri);
+                    if (warm) {
+                        mPlayerService.mLatency.mark(LoadLatency.Mark.DataSource);
+                        mPlayerService.setState(MediaState.PreparingMedia);
+                        if (warmPrepared) {
+                            handlePrepped(true);
+                        } else {
+                            // Still loading, its onPrepared now lands as the active player's.
+                            mPreparing = true;
+                            mAdopting = true;
+                            mWatchdog.arm(PlayerWatchdog.Kind.Prepare);
+                        }
+                        break;
+                    }
+                    PlayerLog.d(TAG, "Setting data source to {}", cmd.mUri);
+                    Trace.beginSection("MediaPlayer.setDataSource");
                     try {
                         mPlayer.setDataSource(cmd.mUri);
+                        mPlayerService.mLatency.mark(LoadLatency.Mark.DataSource);
                         mPlayerService.setState(MediaState.PreparingMedia);
                     } catch (IllegalStateException e) {
-                        Log.e(TAG, "Error setting data source", e);
+                        PlayerLog.e(TAG, "Error setting data source", e);
                         mPlayerService.setState(MediaCondition.ErrorUnknown);
                         break;
                     } catch (IllegalArgumentException e) {
-                        Log.e(TAG, "Error setting data source", e);
+                        PlayerLog.e(TAG, "Error setting data source", e);
                         mPlayerService.setState(MediaCondition.ErrorContent);
                         break;
                     } catch (IOException e) {
-                        Log.e(TAG, "Error setting data source", e);
+                        PlayerLog.e(TAG, "Error setting data source", e);
                         mPlayerService.setState(MediaCondition.ErrorChannel);
                         break;
                     } catch (Exception e) {
-                        Log.e(TAG, "Error setting data source", e);
+                        PlayerLog.e(TAG, "Error setting data source", e);
                         mPlayerService.setState(MediaCondition.ErrorUnknown);
                         break;
+                    } finally {
+                        Trace.endSection();
                     }
-                    synchronized (mPrepLock) {
-                        mPrepped = false;
+                    mPreparing = true;
+                    mWatchdog.arm(PlayerWatchdog.Kind.Prepare);
+                    Trace.beginSection("MediaPlayer.prepareAsync");
+                    try {
                         mPlayer.prepareAsync();
+                    } finally {
+                        Trace.endSection();
                     }
                     break;
             }
@@ -1081,7 +1970,7 @@ public class CustomMediaPlayerImplementation implements CustomMediaPlayer {
 
         @Override
         public void onSeekComplete(MediaPlayer player) {
-            if (mQueue != null) {
+            if (mQueue != null && !mQueue.isStandby(player)) {
                 mQueue.onSeekComplete();
             }
         }
@@ -1089,13 +1978,22 @@ public class CustomMediaPlayerImplementation implements CustomMediaPlayer {
         @Override
         public void onPrepared(MediaPlayer player) {
             if (mQueue != null) {
-                mQueue.onPrepped(true);
+                mQueue.onPrepped(player, true);
             }
         }
 
         @Override
         public boolean onError(MediaPlayer player, int what, int extra) {
-            Log.e(TAG, "MediaPlayer error:" + what + " extra:" + extra);
+            PlayerLog.e(TAG, "MediaPlayer error: {} extra: {}", what, extra);
+            if (mQueue != null && mQueue.isStandby(player)) {
+                // Only the preload failed; the lift on screen is unaffected.
+                mQueue.onStandbyError();
+                return true;
+            }
+            if (what != ERROR_PLAYER_RESET) {
+                mQuality.onError(what, extra);
+                PlayerLog.dump("MediaPlayer error " + what);
+            }
 
             switch (what) {
                 case MediaPlayer.MEDIA_ERROR_IO:
@@ -1113,11 +2011,11 @@ public class CustomMediaPlayerImplementation implements CustomMediaPlayer {
                 case MediaPlayer.MEDIA_ERROR_UNSUPPORTED:
                 case MediaPlayer.MEDIA_ERROR_UNKNOWN:
                 default:
-                    // If the media preparation has started, chances are the queue is waiting
-                    // on the mPrepLock. If an error occurs in this state, the queue needs to
-                    // stop waiting.
+                    // If the media preparation has started, chances are the queue has commands
+                    // parked until the player is prepared. If an error occurs in this state, the
+                    // queue needs to stop waiting.
                     if ((mState == MediaState.PreparingMedia) && (mQueue != null)) {
-                        mQueue.onPrepped(false);
+                        mQueue.onPrepped(player, false);
                     }
                     setState(MediaCondition.ErrorUnknown);
                     break;
@@ -1127,20 +2025,28 @@ public class CustomMediaPlayerImplementation implements CustomMediaPlayer {
 
         @Override
         public boolean onInfo(MediaPlayer player, int what, int extra) {
-            Log.e(TAG, "MediaPlayer InfoErr:" + what + " extra:" + extra);
+            PlayerLog.d(TAG, "MediaPlayer info: {} extra: {}", what, extra);
+            if (mQueue != null && mQueue.isStandby(player)) {
+                return true;
+            }
             switch (what) {
                 case MediaPlayer.MEDIA_INFO_BUFFERING_START:
+                    mQuality.onStallStart();
                     setState(MediaCondition.WarningBandwidth);
                     break;
                 case MediaPlayer.MEDIA_INFO_BAD_INTERLEAVING:
                     setState(MediaCondition.WarningContent);
                     break;
                 case MediaPlayer.MEDIA_INFO_VIDEO_TRACK_LAGGING:
+                    mQuality.onLagging();
                     setState(MediaCondition.WarningBandwidth);
                     break;
 
-                case MediaPlayer.MEDIA_INFO_BUFFERING_END:
                 case MediaPlayer.MEDIA_INFO_VIDEO_RENDERING_START:
+                    mLatency.mark(LoadLatency.Mark.FirstFrame);
+                    // Fall through.
+                case MediaPlayer.MEDIA_INFO_BUFFERING_END:
+                    mQuality.onStallEnd();
                     if (getError() == MediaCondition.WarningBandwidth) {
                         setState(MediaCondition.Good);
                     }
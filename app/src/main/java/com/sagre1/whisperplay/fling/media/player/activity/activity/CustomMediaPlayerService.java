@@ -11,6 +11,7 @@
 package com.sagre1.whisperplay.fling.media.player.activity.activity;
 
 import android.content.Intent;
+import android.graphics.Bitmap;
 import android.os.IBinder;
 import android.view.SurfaceHolder;
 
@@ -35,9 +36,17 @@ public class CustomMediaPlayerService extends MediaPlayerHostService {
      *
      */
     private static final String CUSTOM_PLAYER_SAMPLE_SERVICE_ID = "sagre.HomeGymTV.player";
+
+    /**
+     * Players kept warm for the implementation; the active one and the standby.
+     */
+    private static final int PLAYER_POOL_SIZE = PlayerPool.DEFAULT_SIZE;
+
     private Binder mBinder;
+    private PlayerPool mPlayerPool;
     private CustomMediaPlayerImplementation mImpl;
     private SurfaceHolder mSurfaceHolder;
+    private boolean mViewerAlive;
     private StatusListener mStatusListener;
 
     /**
@@ -45,10 +54,11 @@ public class CustomMediaPlayerService extends MediaPlayerHostService {
      */
     @Override
     public final CustomMediaPlayer createServiceImplementation() {
-        mImpl = new CustomMediaPlayerImplementation(this);
+        mImpl = new CustomMediaPlayerImplementation(this, mPlayerPool);
 
         mImpl.startUp();
 
+        mImpl.setViewerAlive(mViewerAlive);
         if (mSurfaceHolder != null) {
             mImpl.setSurfaceHolder(mSurfaceHolder);
         }
@@ -73,6 +83,9 @@ public class CustomMediaPlayerService extends MediaPlayerHostService {
     @Override
     public void onCreate() {
         mBinder = new Binder();
+        // Pay for native player construction now, not on the first fling.
+        mPlayerPool = new PlayerPool(PLAYER_POOL_SIZE);
+        mPlayerPool.warm();
 
         super.onCreate();
     }
@@ -83,8 +96,10 @@ public class CustomMediaPlayerService extends MediaPlayerHostService {
     @Override
     public void onDestroy() {
         mImpl.tearDown();
+        mPlayerPool.release();
         mBinder = null;
         mImpl = null;
+        mPlayerPool = null;
 
         super.onDestroy();
     }
@@ -114,6 +129,25 @@ public class CustomMediaPlayerService extends MediaPlayerHostService {
             }
         }
 
+        @Override
+        public Bitmap takeLoadedImage() {
+            if (mImpl != null) {
+                return mImpl.takeLoadedImage();
+            }
+            return null;
+        }
+
+        @Override
+        public synchronized void setViewerAlive(boolean alive) {
+            mViewerAlive = alive;
+            if (!alive) {
+                mSurfaceHolder = null;
+            }
+            if (mImpl != null) {
+                mImpl.setViewerAlive(alive);
+            }
+        }
+
         @Override
         public void setBinderStatus(boolean status) {
             if (mImpl != null) {
@@ -181,6 +215,14 @@ public class CustomMediaPlayerService extends MediaPlayerHostService {
             return 0;
         }
 
+        @Override
+        public WorkoutMetadata getWorkoutMetadata() {
+            if (mImpl != null) {
+                return mImpl.getWorkoutMetadata();
+            }
+            return null;
+        }
+
         /**
          * {@inheritDoc}
          */
@@ -229,7 +271,7 @@ public class CustomMediaPlayerService extends MediaPlayerHostService {
         @Override
         public long getPosition() throws IOException {
             if (mImpl != null) {
-                mImpl.getPosition();
+                return mImpl.getPosition();
             }
             return -1L;
         }
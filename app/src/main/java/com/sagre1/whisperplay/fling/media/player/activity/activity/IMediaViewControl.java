@@ -10,6 +10,7 @@
 
 package com.sagre1.whisperplay.fling.media.player.activity.activity;
 
+import android.graphics.Bitmap;
 import android.view.SurfaceHolder;
 
 import com.amazon.whisperplay.fling.media.service.CustomMediaPlayer;
@@ -43,6 +44,13 @@ public interface IMediaViewControl extends CustomMediaPlayer {
     public int getReps();
     public int getWeight();
 
+    /**
+     * Returns the parsed metadata of the media being shown, if any
+     *
+     * @return metadata or null
+     */
+    public WorkoutMetadata getWorkoutMetadata();
+
 
     /**
      * Set the surface holder to display media on
@@ -60,6 +68,13 @@ public interface IMediaViewControl extends CustomMediaPlayer {
      */
     public void setImageComplete(boolean result);
 
+    /**
+     * Returns the picture waiting to be shown, once
+     *
+     * @return picture or null
+     */
+    public Bitmap takeLoadedImage();
+
     public void setState(MediaPlayerStatus.MediaState media, boolean sendEvent, boolean forceSend);
 
     /**
@@ -69,4 +84,13 @@ public interface IMediaViewControl extends CustomMediaPlayer {
      *            true if if completed or false
      */
     public void setBinderStatus(boolean status);
+
+    /**
+     * Tell the service whether a viewer exists, paused or not, so it is reused rather than
+     * launched again
+     *
+     * @param alive
+     *            true once bound, false when being destroyed
+     */
+    public void setViewerAlive(boolean alive);
 }
@@ -0,0 +1,338 @@
+package com.sagre1.whisperplay.fling.media.player.activity.activity;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.util.Log;
+import android.util.LruCache;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Loads flung pictures for the viewer.
+ *
+ * Pictures are downloaded into a {@link MediaCache} of their own and decoded on a worker
+ * thread, sampled down by powers of two to the smallest size still covering the screen, so
+ * a phone photo costs a screen's worth of memory rather than its own. Decoded bitmaps stay
+ * in a memory cache bounded in bytes. Bitmaps it evicts go to a small pool and are decoded
+ * into again ({@code inBitmap}), except the one on screen.
+ *
+ * Only the latest load reports back; an older one still running is dropped.
+ */
+class ImageEngine {
+    private static final String TAG = "ImageEngine";
+
+    private static final long DISK_CACHE_SIZE = 32L * 1024L * 1024L;
+    private static final int MAX_MEMORY_CACHE = 32 * 1024 * 1024;
+    private static final int MAX_POOL = 16 * 1024 * 1024;
+    private static final int CONNECT_TIMEOUT = 10000;
+    private static final int READ_TIMEOUT = 20000;
+
+    /**
+     * Told when a load is done, on the worker thread.
+     */
+    public interface Callback {
+        void onImageLoaded(String url, boolean success);
+    }
+
+    private final File mDiskDir;
+    private final int mTargetWidth;
+    private final int mTargetHeight;
+    private final LruCache<String, Bitmap> mMemory;
+    // Evicted bitmaps to decode into, guarded by itself.
+    private final List<Bitmap> mPool = new ArrayList<Bitmap>();
+    private final ExecutorService mWorker;
+    private final AtomicInteger mGeneration = new AtomicInteger();
+    private MediaCache mDisk;
+    private int mPoolBytes = 0;
+    private volatile Bitmap mShown;
+    private volatile String mReadyUrl;
+
+    private int mMemoryHits = 0;
+    private int mDiskHits = 0;
+    private int mDownloads = 0;
+    private int mReused = 0;
+    private int mFailures = 0;
+    private long mDecodeMs = 0L;
+
+    /**
+     * Constructor.
+     *
+     * @param diskDir
+     *            Directory of the on-disk cache
+     * @param targetWidth
+     *            Width of the screen
+     * @param targetHeight
+     *            Height of the screen
+     */
+    public ImageEngine(File diskDir, int targetWidth, int targetHeight) {
+        mDiskDir = diskDir;
+        mTargetWidth = targetWidth;
+        mTargetHeight = targetHeight;
+        int memory = (int) Math.min(Runtime.getRuntime().maxMemory() / 8L, MAX_MEMORY_CACHE);
+        mMemory = new LruCache<String, Bitmap>(memory) {
+            @Override
+            protected int sizeOf(String key, Bitmap value) {
+                return value.getByteCount();
+            }
+
+            @Override
+            protected void entryRemoved(boolean evicted, String key, Bitmap oldValue, Bitmap newValue) {
+                if (evicted) {
+                    recycle(oldValue);
+                }
+            }
+        };
+        mWorker = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "ImageDecode");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+
+    /**
+     * Load a picture, replacing any load in progress.
+     */
+    public void load(final String url, final Callback callback) {
+        final int generation = mGeneration.incrementAndGet();
+        mReadyUrl = null;
+        mWorker.execute(new Runnable() {
+            @Override
+            public void run() {
+                boolean success = false;
+                try {
+                    success = loadNow(url, generation) != null;
+                } catch (IOException e) {
+                    Log.e(TAG, "Cannot load image " + url, e);
+                } catch (OutOfMemoryError e) {
+                    // Drop what can be dropped; the next picture may still fit.
+                    Log.e(TAG, "Out of memory decoding " + url);
+                    mMemory.evictAll();
+                    clearPool();
+                }
+                if (generation != mGeneration.get()) {
+                    return;
+                }
+                if (success) {
+                    mReadyUrl = url;
+                } else {
+                    synchronized (ImageEngine.this) {
+                        mFailures++;
+                    }
+                }
+                callback.onImageLoaded(url, success);
+            }
+        });
+    }
+
+    /**
+     * Returns the loaded picture once, for the viewer to show, or null if there is none
+     * waiting.
+     */
+    public Bitmap takeLoaded() {
+        String url = mReadyUrl;
+        mReadyUrl = null;
+        if (url == null) {
+            return null;
+        }
+        Bitmap bitmap = mMemory.get(url);
+        if (bitmap != null) {
+            // On screen from now on; never decode into it.
+            mShown = bitmap;
+        }
+        return bitmap;
+    }
+
+    /**
+     * Drop the pending load and the caches.
+     */
+    public void release() {
+        mGeneration.incrementAndGet();
+        mWorker.shutdownNow();
+        mReadyUrl = null;
+        Log.i(TAG, "Released. " + this);
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "ImageEngine[memory=" + mMemory.size() + "/" + mMemory.maxSize() + " pool=" + mPoolBytes
+                + " memoryHits=" + mMemoryHits + " diskHits=" + mDiskHits + " downloads=" + mDownloads
+                + " reused=" + mReused + " failures=" + mFailures + " decodeMs=" + mDecodeMs + "]";
+    }
+
+    /*
+     * Runs on the worker.
+     */
+    private Bitmap loadNow(String url, int generation) throws IOException {
+        Bitmap bitmap = mMemory.get(url);
+        if (bitmap != null) {
+            synchronized (this) {
+                mMemoryHits++;
+            }
+            return bitmap;
+        }
+        File file = fetch(url);
+        if (generation != mGeneration.get()) {
+            return null;
+        }
+        long start = System.currentTimeMillis();
+        bitmap = decode(file);
+        if (bitmap == null) {
+            throw new IOException("Cannot decode " + url);
+        }
+        synchronized (this) {
+            mDecodeMs += System.currentTimeMillis() - start;
+        }
+        mMemory.put(url, bitmap);
+        return bitmap;
+    }
+
+    /*
+     * Returns the cached download of the picture, downloading it first if needed.
+     */
+    private File fetch(String url) throws IOException {
+        if (mDisk == null) {
+            // Reads its index, so made here rather than on the caller's thread.
+            mDisk = new MediaCache(mDiskDir, DISK_CACHE_SIZE);
+        }
+        MediaCache.Entry entry = mDisk.get(url);
+        if (entry != null) {
+            synchronized (this) {
+                mDiskHits++;
+            }
+            return entry.mFile;
+        }
+        File temp = mDisk.createTempFile(url);
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        InputStream in = null;
+        OutputStream out = null;
+        try {
+            connection.setConnectTimeout(CONNECT_TIMEOUT);
+            connection.setReadTimeout(READ_TIMEOUT);
+            int code = connection.getResponseCode();
+            if (code != HttpURLConnection.HTTP_OK) {
+                throw new IOException("HTTP " + code + " for " + url);
+            }
+            in = connection.getInputStream();
+            out = new FileOutputStream(temp);
+            byte[] buffer = new byte[16 * 1024];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            out.close();
+            out = null;
+            entry = mDisk.commit(url, temp, connection.getHeaderField("ETag"),
+                    connection.getContentType());
+            if (entry == null) {
+                throw new IOException("Cannot store " + url);
+            }
+            synchronized (this) {
+                mDownloads++;
+            }
+            return entry.mFile;
+        } finally {
+            MediaCache.closeQuietly(in);
+            MediaCache.closeQuietly(out);
+            connection.disconnect();
+            temp.delete();
+        }
+    }
+
+    private Bitmap decode(File file) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(file.getPath(), options);
+        if (options.outWidth <= 0 || options.outHeight <= 0) {
+            return null;
+        }
+        int sample = sampleSize(options.outWidth, options.outHeight, mTargetWidth, mTargetHeight);
+        // Photos have no alpha; half the memory.
+        Bitmap.Config config = "image/jpeg".equals(options.outMimeType)
+                ? Bitmap.Config.RGB_565 : Bitmap.Config.ARGB_8888;
+        int bytes = ((options.outWidth + sample - 1) / sample) * ((options.outHeight + sample - 1) / sample)
+                * (config == Bitmap.Config.RGB_565 ? 2 : 4);
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = sample;
+        options.inPreferredConfig = config;
+        options.inMutable = true;
+        options.inBitmap = takeFromPool(bytes);
+        try {
+            Bitmap bitmap = BitmapFactory.decodeFile(file.getPath(), options);
+            if (options.inBitmap != null && bitmap == options.inBitmap) {
+                synchronized (this) {
+                    mReused++;
+                }
+            }
+            return bitmap;
+        } catch (IllegalArgumentException e) {
+            // The pooled bitmap did not fit after all.
+            options.inBitmap = null;
+            return BitmapFactory.decodeFile(file.getPath(), options);
+        }
+    }
+
+    /*
+     * Largest power of two that keeps both sides at least the target's.
+     */
+    static int sampleSize(int width, int height, int targetWidth, int targetHeight) {
+        int sample = 1;
+        if (targetWidth <= 0 || targetHeight <= 0) {
+            return sample;
+        }
+        while (width / (sample * 2) >= targetWidth && height / (sample * 2) >= targetHeight) {
+            sample *= 2;
+        }
+        return sample;
+    }
+
+    private void recycle(Bitmap bitmap) {
+        if (bitmap == mShown || !bitmap.isMutable() || bitmap.isRecycled()) {
+            return;
+        }
+        synchronized (mPool) {
+            if (bitmap.getAllocationByteCount() + mPoolBytes > MAX_POOL) {
+                return;
+            }
+            mPool.add(bitmap);
+            mPoolBytes += bitmap.getAllocationByteCount();
+        }
+    }
+
+    private Bitmap takeFromPool(int bytes) {
+        synchronized (mPool) {
+            Iterator<Bitmap> it = mPool.iterator();
+            while (it.hasNext()) {
+                Bitmap bitmap = it.next();
+                if (bitmap.getAllocationByteCount() >= bytes && bitmap != mShown) {
+                    it.remove();
+                    mPoolBytes -= bitmap.getAllocationByteCount();
+                    return bitmap;
+                }
+            }
+        }
+        return null;
+    }
+
+    private void clearPool() {
+        synchronized (mPool) {
+            mPool.clear();
+            mPoolBytes = 0;
+        }
+    }
+}
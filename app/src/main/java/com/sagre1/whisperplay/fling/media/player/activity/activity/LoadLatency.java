@@ -0,0 +1,188 @@
+package com.sagre1.whisperplay.fling.media.player.activity.activity;
+
+import android.os.SystemClock;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Times each media load from setMediaSource to its first video frame.
+ *
+ * A load is stamped as it reaches each {@link Mark}, on whichever thread gets there; a
+ * mark out of order or repeated is ignored, so a resume does not count as a start. The
+ * time between consecutive marks, and the whole, go into one fixed-size histogram per
+ * {@link Span}. Audio never renders a frame, so its loads stop at Start.
+ */
+class LoadLatency {
+
+    /**
+     * Points a load passes, in order.
+     */
+    enum Mark {
+        /** setMediaSource called. */
+        Request,
+        /** The queue picked up its SetUri. */
+        Dequeued,
+        /** setDataSource returned, or the standby player was swapped in. */
+        DataSource,
+        /** onPrepared handled. */
+        Prepared,
+        /** Playing. */
+        Started,
+        /** MEDIA_INFO_VIDEO_RENDERING_START. */
+        FirstFrame
+    }
+
+    /**
+     * Timed stretches of a load.
+     */
+    enum Span {
+        Queue(Mark.Request, Mark.Dequeued),
+        DataSource(Mark.Dequeued, Mark.DataSource),
+        Prepare(Mark.DataSource, Mark.Prepared),
+        Play(Mark.Prepared, Mark.Started),
+        FirstFrame(Mark.Started, Mark.FirstFrame),
+        Total(Mark.Request, Mark.FirstFrame);
+
+        final Mark mFrom;
+        final Mark mTo;
+
+        Span(Mark from, Mark to) {
+            mFrom = from;
+            mTo = to;
+        }
+    }
+
+    /**
+     * Counts of durations in buckets growing by a quarter, from 1 ms to about two minutes.
+     */
+    static final class Histogram {
+        private static final long[] BOUNDS;
+
+        static {
+            long[] bounds = new long[64];
+            int n = 0;
+            double bound = 1.0;
+            while (bound < 120000.0) {
+                long b = Math.round(bound);
+                if (n == 0 || b > bounds[n - 1]) {
+                    bounds[n++] = b;
+                }
+                bound *= 1.25;
+            }
+            bounds[n++] = Long.MAX_VALUE;
+            BOUNDS = new long[n];
+            System.arraycopy(bounds, 0, BOUNDS, 0, n);
+        }
+
+        private final long[] mCounts = new long[BOUNDS.length];
+        private long mCount = 0L;
+        private long mTotal = 0L;
+        private long mMax = 0L;
+
+        synchronized void record(long ms) {
+            int i = 0;
+            while (ms > BOUNDS[i]) {
+                i++;
+            }
+            mCounts[i]++;
+            mCount++;
+            mTotal += ms;
+            mMax = Math.max(mMax, ms);
+        }
+
+        synchronized long getCount() {
+            return mCount;
+        }
+
+        /**
+         * Returns the upper bound of the bucket holding the given fraction of the samples,
+         * capped at the largest seen, or 0 without samples.
+         */
+        synchronized long percentile(double fraction) {
+            if (mCount == 0L) {
+                return 0L;
+            }
+            long rank = (long) Math.ceil(fraction * mCount);
+            long seen = 0L;
+            for (int i = 0; i < mCounts.length; i++) {
+                seen += mCounts[i];
+                if (seen >= rank) {
+                    return Math.min(BOUNDS[i], mMax);
+                }
+            }
+            return mMax;
+        }
+
+        synchronized JSONObject toJson() throws JSONException {
+            JSONObject json = new JSONObject();
+            json.put("count", mCount);
+            json.put("mean", mCount > 0L ? mTotal / mCount : 0L);
+            json.put("p50", percentile(0.50));
+            json.put("p95", percentile(0.95));
+            json.put("p99", percentile(0.99));
+            json.put("max", mMax);
+            return json;
+        }
+    }
+
+    private final Histogram[] mHistograms = new Histogram[Span.values().length];
+    private final long[] mStamps = new long[Mark.values().length];
+    private int mLoads = 0;
+
+    public LoadLatency() {
+        for (int i = 0; i < mHistograms.length; i++) {
+            mHistograms[i] = new Histogram();
+        }
+    }
+
+    /**
+     * Start timing a new load, dropping the one before if it never finished.
+     */
+    public synchronized void begin() {
+        for (int i = 0; i < mStamps.length; i++) {
+            mStamps[i] = 0L;
+        }
+        mStamps[Mark.Request.ordinal()] = SystemClock.elapsedRealtime();
+        mLoads++;
+    }
+
+    /**
+     * The current load reached a mark. Ignored unless it has the mark before and not this one.
+     */
+    public synchronized void mark(Mark mark) {
+        int i = mark.ordinal();
+        if (i == 0 || mStamps[i - 1] == 0L || mStamps[i] != 0L) {
+            return;
+        }
+        mStamps[i] = SystemClock.elapsedRealtime();
+        for (Span span : Span.values()) {
+            if (span.mTo == mark) {
+                mHistograms[span.ordinal()].record(mStamps[i] - mStamps[span.mFrom.ordinal()]);
+            }
+        }
+    }
+
+    public Histogram getHistogram(Span span) {
+        return mHistograms[span.ordinal()];
+    }
+
+    /**
+     * Returns the percentiles of every span, in ms.
+     */
+    public synchronized JSONObject toJson() throws JSONException {
+        JSONObject json = new JSONObject();
+        json.put("loads", mLoads);
+        for (Span span : Span.values()) {
+            json.put(span.name(), mHistograms[span.ordinal()].toJson());
+        }
+        return json;
+    }
+
+    @Override
+    public String toString() {
+        Histogram total = getHistogram(Span.Total);
+        return "LoadLatency[loads=" + mLoads + " firstFrame p50=" + total.percentile(0.50)
+                + " p95=" + total.percentile(0.95) + " p99=" + total.percentile(0.99) + "]";
+    }
+}
@@ -0,0 +1,286 @@
+package com.sagre1.whisperplay.fling.media.player.activity.activity;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * Size bounded, least recently used, on-disk cache of whole media files.
+ *
+ * Entries are keyed by URL and remember the validator (ETag or Last-Modified) they were
+ * fetched with, so a stale copy can be revalidated. Each entry is a data file and a small
+ * properties file next to it; the index is rebuilt from them on start, so the cache
+ * survives restarts.
+ */
+class MediaCache {
+    private static final String TAG = "MediaCache";
+
+    private static final String DATA_SUFFIX = ".data";
+    private static final String META_SUFFIX = ".meta";
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    /**
+     * A complete cached copy of one URL.
+     */
+    public static class Entry {
+        public final String mUrl;
+        public final String mValidator;
+        public final String mContentType;
+        public final long mLength;
+        public final File mFile;
+        private long mStoredAt;
+
+        Entry(String url, String validator, String contentType, long length, File file, long storedAt) {
+            mUrl = url;
+            mValidator = validator;
+            mContentType = contentType;
+            mLength = length;
+            mFile = file;
+            mStoredAt = storedAt;
+        }
+
+        /**
+         * Returns when the copy was stored or last revalidated.
+         */
+        public long getStoredAt() {
+            return mStoredAt;
+        }
+    }
+
+    private final File mDir;
+    private final long mMaxBytes;
+    // Access ordered: iteration starts at the least recently used entry.
+    private final LinkedHashMap<String, Entry> mEntries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+    private long mSize = 0L;
+    private int mTempCounter = 0;
+
+    /**
+     * Constructor. Loads whatever a previous run left in the directory.
+     *
+     * @param dir
+     *            Directory owned by the cache
+     * @param maxBytes
+     *            Total size of cached data the cache trims back to
+     */
+    public MediaCache(File dir, long maxBytes) {
+        mDir = dir;
+        mMaxBytes = maxBytes;
+        if (!mDir.isDirectory() && !mDir.mkdirs()) {
+            Log.e(TAG, "Cannot create cache directory " + mDir);
+        }
+        load();
+    }
+
+    /**
+     * Returns the complete entry for the URL, or null, and marks it recently used.
+     */
+    public synchronized Entry get(String url) {
+        Entry entry = mEntries.get(key(url));
+        if (entry != null && !entry.mFile.isFile()) {
+            // Removed behind our back.
+            remove(url);
+            return null;
+        }
+        if (entry != null) {
+            // Keeps the LRU order across restarts.
+            entry.mFile.setLastModified(System.currentTimeMillis());
+        }
+        return entry;
+    }
+
+    /**
+     * Returns a fresh file to download into. Hand it to {@link #commit} when complete, or
+     * delete it.
+     */
+    public synchronized File createTempFile(String url) {
+        return new File(mDir, key(url) + "-" + (mTempCounter++) + TEMP_SUFFIX);
+    }
+
+    /**
+     * Make a completed download the entry for its URL, replacing any older copy, and trim
+     * the cache back under its limit.
+     *
+     * @return the new entry, or null if it could not be stored
+     */
+    public synchronized Entry commit(String url, File temp, String validator, String contentType) {
+        String key = key(url);
+        remove(url);
+        File data = new File(mDir, key + DATA_SUFFIX);
+        if (!temp.renameTo(data)) {
+            Log.w(TAG, "Cannot store " + url);
+            temp.delete();
+            return null;
+        }
+        Entry entry = new Entry(url, validator, contentType, data.length(), data, System.currentTimeMillis());
+        if (!writeMeta(key, entry)) {
+            data.delete();
+            return null;
+        }
+        mEntries.put(key, entry);
+        mSize += entry.mLength;
+        trim();
+        return entry;
+    }
+
+    /**
+     * The server confirmed the cached copy is still current.
+     */
+    public synchronized void touch(Entry entry) {
+        entry.mStoredAt = System.currentTimeMillis();
+        writeMeta(key(entry.mUrl), entry);
+    }
+
+    public synchronized void remove(String url) {
+        String key = key(url);
+        Entry old = mEntries.remove(key);
+        if (old != null) {
+            mSize -= old.mLength;
+        }
+        new File(mDir, key + DATA_SUFFIX).delete();
+        new File(mDir, key + META_SUFFIX).delete();
+    }
+
+    /**
+     * Returns the bytes currently held.
+     */
+    public synchronized long getSize() {
+        return mSize;
+    }
+
+    public synchronized int getEntryCount() {
+        return mEntries.size();
+    }
+
+    public long getMaxSize() {
+        return mMaxBytes;
+    }
+
+    private void trim() {
+        Iterator<Map.Entry<String, Entry>> it = mEntries.entrySet().iterator();
+        while (mSize > mMaxBytes && it.hasNext()) {
+            Map.Entry<String, Entry> eldest = it.next();
+            it.remove();
+            mSize -= eldest.getValue().mLength;
+            eldest.getValue().mFile.delete();
+            new File(mDir, eldest.getKey() + META_SUFFIX).delete();
+            Log.d(TAG, "Evicted " + eldest.getValue().mUrl);
+        }
+    }
+
+    private boolean writeMeta(String key, Entry entry) {
+        Properties p = new Properties();
+        p.setProperty("url", entry.mUrl);
+        p.setProperty("validator", entry.mValidator != null ? entry.mValidator : "");
+        p.setProperty("contentType", entry.mContentType != null ? entry.mContentType : "");
+        p.setProperty("storedAt", Long.toString(entry.mStoredAt));
+        OutputStream out = null;
+        try {
+            out = new FileOutputStream(new File(mDir, key + META_SUFFIX));
+            p.store(out, null);
+            return true;
+        } catch (IOException e) {
+            Log.w(TAG, "Cannot write cache index for " + entry.mUrl, e);
+            return false;
+        } finally {
+            closeQuietly(out);
+        }
+    }
+
+    /*
+     * Rebuild the index from disk, oldest access first, and drop leftovers.
+     */
+    private void load() {
+        File[] files = mDir.listFiles();
+        if (files == null) {
+            return;
+        }
+        List<File> data = new ArrayList<File>();
+        for (File f : files) {
+            String name = f.getName();
+            if (name.endsWith(TEMP_SUFFIX)) {
+                f.delete();
+            } else if (name.endsWith(DATA_SUFFIX)) {
+                data.add(f);
+            }
+        }
+        Collections.sort(data, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                long d = a.lastModified() - b.lastModified();
+                return d < 0 ? -1 : (d > 0 ? 1 : 0);
+            }
+        });
+        for (File f : data) {
+            String key = f.getName().substring(0, f.getName().length() - DATA_SUFFIX.length());
+            File meta = new File(mDir, key + META_SUFFIX);
+            Properties p = new Properties();
+            InputStream in = null;
+            try {
+                in = new FileInputStream(meta);
+                p.load(in);
+                String url = p.getProperty("url");
+                if (url == null || !key.equals(key(url))) {
+                    throw new IOException("Bad cache index");
+                }
+                Entry entry = new Entry(url, emptyToNull(p.getProperty("validator")),
+                        emptyToNull(p.getProperty("contentType")), f.length(), f,
+                        Long.parseLong(p.getProperty("storedAt", "0")));
+                mEntries.put(key, entry);
+                mSize += entry.mLength;
+            } catch (Exception e) {
+                f.delete();
+                meta.delete();
+            } finally {
+                closeQuietly(in);
+            }
+        }
+        trim();
+        Log.d(TAG, "Loaded " + mEntries.size() + " entries, " + mSize + " bytes");
+    }
+
+    private static String emptyToNull(String s) {
+        return (s == null || s.length() == 0) ? null : s;
+    }
+
+    static String key(String url) {
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-1");
+            byte[] digest = md.digest(url.getBytes("UTF-8"));
+            StringBuilder sb = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                sb.append(Character.forDigit((b >> 4) & 0xf, 16));
+                sb.append(Character.forDigit(b & 0xf, 16));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static void closeQuietly(java.io.Closeable c) {
+        if (c != null) {
+            try {
+                c.close();
+            } catch (IOException e) {
+                // ignore
+            }
+        }
+    }
+}
@@ -0,0 +1,279 @@
+package com.sagre1.whisperplay.fling.media.player.activity.activity;
+
+import android.util.Log;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Decides whether flung media is video, audio or a picture.
+ *
+ * The MIME type from the metadata wins when it names one of the three. Otherwise the
+ * extension of the URL's path is looked up, so query strings and signed CDN parameters do
+ * not get in the way. Failing both, the first bytes of the media are fetched with a
+ * {@link Fetcher} and matched against known signatures; those answers are kept per URL.
+ * The resolver's lock guards the counters and the answers only, never a fetch, so callers
+ * that sniff do not hold each other up.
+ */
+class MediaTypeResolver {
+    private static final String TAG = "MediaTypeResolver";
+
+    public static final int MEDIA_TYPE_VIDEO = 0;
+    public static final int MEDIA_TYPE_AUDIO = 1;
+    public static final int MEDIA_TYPE_IMAGE = 2;
+    public static final int MEDIA_TYPE_UNKNOWN = 3;
+
+    private static final String[] VIDEO_EXTENSIONS = {"mp4", "3gp", "m4v", "mkv", "webm"};
+    private static final String[] AUDIO_EXTENSIONS = {"m4a", "mp3", "ogg", "wav", "aac", "wma", "flac"};
+    private static final String[] IMAGE_EXTENSIONS = {"jpeg", "jpg", "png", "bmp", "gif", "webp"};
+    private static final Map<String, Integer> EXTENSIONS = new HashMap<String, Integer>();
+
+    static {
+        for (String extension : VIDEO_EXTENSIONS) {
+            EXTENSIONS.put(extension, MEDIA_TYPE_VIDEO);
+        }
+        for (String extension : AUDIO_EXTENSIONS) {
+            EXTENSIONS.put(extension, MEDIA_TYPE_AUDIO);
+        }
+        for (String extension : IMAGE_EXTENSIONS) {
+            EXTENSIONS.put(extension, MEDIA_TYPE_IMAGE);
+        }
+    }
+
+    /** Bytes fetched to sniff. */
+    public static final int SNIFF_BYTES = 64;
+    private static final int SNIFF_CACHE_SIZE = 64;
+    private static final int SNIFF_TIMEOUT = 2000;
+
+    /**
+     * Fetches the first bytes of media.
+     */
+    public interface Fetcher {
+        /**
+         * Returns up to count bytes from the start of the media, fewer if it is shorter.
+         */
+        byte[] head(String url, int count) throws IOException;
+    }
+
+    /**
+     * Fetches with an HTTP range request, straight from the origin.
+     */
+    static final Fetcher HTTP_FETCHER = new Fetcher() {
+        @Override
+        public byte[] head(String url, int count) throws IOException {
+            HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+            InputStream in = null;
+            try {
+                connection.setConnectTimeout(SNIFF_TIMEOUT);
+                connection.setReadTimeout(SNIFF_TIMEOUT);
+                connection.setRequestProperty("Range", "bytes=0-" + (count - 1));
+                int code = connection.getResponseCode();
+                if (code != HttpURLConnection.HTTP_OK && code != HttpURLConnection.HTTP_PARTIAL) {
+                    throw new IOException("HTTP " + code + " for " + url);
+                }
+                in = connection.getInputStream();
+                byte[] head = new byte[count];
+                int length = 0;
+                int read;
+                while (length < count && (read = in.read(head, length, count - length)) != -1) {
+                    length += read;
+                }
+                if (length < count) {
+                    byte[] shorter = new byte[length];
+                    System.arraycopy(head, 0, shorter, 0, length);
+                    return shorter;
+                }
+                return head;
+            } finally {
+                MediaCache.closeQuietly(in);
+                connection.disconnect();
+            }
+        }
+    };
+
+    private final Fetcher mFetcher;
+    private final Map<String, Integer> mSniffed =
+            new LinkedHashMap<String, Integer>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Integer> eldest) {
+                    return size() > SNIFF_CACHE_SIZE;
+                }
+            };
+    private int mByType = 0;
+    private int mByExtension = 0;
+    private int mSniffs = 0;
+    private int mSniffHits = 0;
+    private int mUnknown = 0;
+
+    /**
+     * Constructor.
+     *
+     * @param fetcher
+     *            Fetches media to sniff, or null to never sniff
+     */
+    public MediaTypeResolver(Fetcher fetcher) {
+        mFetcher = fetcher;
+    }
+
+    /**
+     * Returns one of the MEDIA_TYPE constants. May fetch from the network when neither the
+     * type nor the URL tells, so never call it holding a lock others wait on, or on the
+     * main thread.
+     *
+     * @param mediaType
+     *            MIME type from the metadata, or null
+     */
+    public int resolve(String mediaType, String url) {
+        int type = byMimeType(mediaType);
+        if (type != MEDIA_TYPE_UNKNOWN) {
+            synchronized (this) {
+                mByType++;
+            }
+            return type;
+        }
+        type = byExtension(url);
+        if (type != MEDIA_TYPE_UNKNOWN) {
+            synchronized (this) {
+                mByExtension++;
+            }
+            return type;
+        }
+        synchronized (this) {
+            Integer sniffed = mSniffed.get(url);
+            if (sniffed != null) {
+                mSniffHits++;
+                return sniffed;
+            }
+        }
+        type = sniff(url);
+        if (type == MEDIA_TYPE_UNKNOWN) {
+            synchronized (this) {
+                mUnknown++;
+            }
+        }
+        return type;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "MediaTypeResolver[type=" + mByType + " extension=" + mByExtension + " sniffs=" + mSniffs
+                + " sniffHits=" + mSniffHits + " unknown=" + mUnknown + "]";
+    }
+
+    static int byMimeType(String mediaType) {
+        if (mediaType == null) {
+            return MEDIA_TYPE_UNKNOWN;
+        }
+        String type = mediaType.trim().toLowerCase(Locale.US);
+        if (type.startsWith("video/")) {
+            return MEDIA_TYPE_VIDEO;
+        } else if (type.startsWith("audio/")) {
+            return MEDIA_TYPE_AUDIO;
+        } else if (type.startsWith("image/")) {
+            return MEDIA_TYPE_IMAGE;
+        }
+        return MEDIA_TYPE_UNKNOWN;
+    }
+
+    /*
+     * Extension of the last path segment, ignoring query and fragment.
+     */
+    static int byExtension(String url) {
+        String path;
+        try {
+            path = new URI(url).getPath();
+        } catch (URISyntaxException e) {
+            return MEDIA_TYPE_UNKNOWN;
+        }
+        if (path == null) {
+            return MEDIA_TYPE_UNKNOWN;
+        }
+        int dot = path.lastIndexOf('.');
+        if (dot < 0 || dot < path.lastIndexOf('/')) {
+            return MEDIA_TYPE_UNKNOWN;
+        }
+        Integer type = EXTENSIONS.get(path.substring(dot + 1).toLowerCase(Locale.US));
+        return type != null ? type : MEDIA_TYPE_UNKNOWN;
+    }
+
+    /*
+     * Match the first bytes against the signatures of the formats we play.
+     */
+    static int bySignature(byte[] head) {
+        if (matches(head, 4, "ftyp")) {
+            // ISO media: the major brand tells audio-only files apart.
+            return matches(head, 8, "M4A ") || matches(head, 8, "M4B ")
+                    ? MEDIA_TYPE_AUDIO : MEDIA_TYPE_VIDEO;
+        }
+        if (head.length >= 4 && (head[0] & 0xff) == 0x1a && (head[1] & 0xff) == 0x45
+                && (head[2] & 0xff) == 0xdf && (head[3] & 0xff) == 0xa3) {
+            // Matroska and WebM.
+            return MEDIA_TYPE_VIDEO;
+        }
+        if (matches(head, 0, "ID3") || matches(head, 0, "OggS")
+                || matches(head, 0, "fLaC")
+                || (matches(head, 0, "RIFF") && matches(head, 8, "WAVE"))) {
+            return MEDIA_TYPE_AUDIO;
+        }
+        if (head.length >= 2 && (head[0] & 0xff) == 0xff && (head[1] & 0xe0) == 0xe0) {
+            // MPEG audio or ADTS frame sync.
+            return MEDIA_TYPE_AUDIO;
+        }
+        if ((head.length >= 3 && (head[0] & 0xff) == 0xff && (head[1] & 0xff) == 0xd8
+                && (head[2] & 0xff) == 0xff)
+                || (head.length >= 4 && (head[0] & 0xff) == 0x89 && matches(head, 1, "PNG"))
+                || matches(head, 0, "GIF8") || matches(head, 0, "BM")
+                || (matches(head, 0, "RIFF") && matches(head, 8, "WEBP"))) {
+            return MEDIA_TYPE_IMAGE;
+        }
+        return MEDIA_TYPE_UNKNOWN;
+    }
+
+    /*
+     * Fetch and match the head of the media, without the lock. Two callers sniffing the same
+     * URL at once both fetch; the answers agree.
+     */
+    private int sniff(String url) {
+        if (mFetcher == null || !(url.startsWith("http:") || url.startsWith("https:"))) {
+            return MEDIA_TYPE_UNKNOWN;
+        }
+        synchronized (this) {
+            mSniffs++;
+        }
+        int type;
+        try {
+            type = bySignature(mFetcher.head(url, SNIFF_BYTES));
+        } catch (IOException e) {
+            // Not cached; the origin may answer next time.
+            Log.w(TAG, "Cannot sniff " + url + ": " + e.getMessage());
+            return MEDIA_TYPE_UNKNOWN;
+        }
+        synchronized (this) {
+            mSniffed.put(url, type);
+        }
+        return type;
+    }
+
+    /*
+     * Returns true if the ASCII string is found at the offset.
+     */
+    private static boolean matches(byte[] data, int offset, String ascii) {
+        if (data.length < offset + ascii.length()) {
+            return false;
+        }
+        for (int i = 0; i < ascii.length(); i++) {
+            if (data[offset + i] != (byte) ascii.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
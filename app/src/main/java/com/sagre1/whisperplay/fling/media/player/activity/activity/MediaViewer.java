@@ -20,6 +20,7 @@ import android.content.IntentFilter;
 import android.content.ServiceConnection;
 import android.content.pm.ActivityInfo;
 import android.content.pm.PackageManager;
+import android.graphics.Bitmap;
 import android.graphics.Color;
 import android.os.Build;
 import android.os.Bundle;
@@ -32,25 +33,23 @@ import android.view.SurfaceView;
 import android.view.View;
 import android.view.WindowManager;
 import android.widget.Chronometer;
+import android.widget.ImageView;
 import android.widget.ProgressBar;
 import android.widget.RelativeLayout;
 import android.widget.SeekBar;
 import android.widget.TextView;
 
 import com.sagre1.whisperplay.fling.media.player.R;
-import com.amazon.whisperplay.fling.media.service.MediaPlayerInfo;
 import com.amazon.whisperplay.fling.media.service.MediaPlayerStatus;
 import com.amazon.whisperplay.fling.media.service.MediaPlayerStatus.MediaState;
 import com.amazon.whisperplay.fling.media.service.CustomMediaPlayer.PlayerSeekMode;
 import com.amazon.whisperplay.fling.media.service.CustomMediaPlayer.StatusListener;
 import com.androidquery.AQuery;
 
-import org.json.JSONException;
-import org.json.JSONObject;
-import org.json.JSONTokener;
-
 import java.io.IOException;
 import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 public class MediaViewer extends Activity {
     private static final String TAG = "MediaViewer";
@@ -58,8 +57,12 @@ public class MediaViewer extends Activity {
     private IMediaViewControl mViewControl;
     private boolean mActive;
     private Handler mHandler = new Handler();
+    // Playlist moves load media, which may touch the network; never on the main thread.
+    private final ExecutorService mPlaylistExecutor = Executors.newSingleThreadExecutor();
     // SurfaceView for MediaPlayer
     private View mPlayerSurfaceView;
+    // ImageView for flung pictures
+    private ImageView mPictureImageView;
     private View mFakeBackground;
 
     // Media progress bar during preparation
@@ -121,12 +124,17 @@ public class MediaViewer extends Activity {
         public void onServiceConnected(ComponentName name, IBinder bindTo) {
             Log.d(TAG, "Connected to MediaPlayerService : " + name.flattenToString());
             mViewControl = (IMediaViewControl) bindTo;
+            mViewControl.setViewerAlive(true);
             if (mActive) {
                 SurfaceView v = (SurfaceView) findViewById(R.id.surfaceViewPlayer);
                 mViewControl.setSurfaceHolder(v.getHolder());
                 mViewControl.setBinderStatus(true);
             }
             mViewControl.addStatusListener(mStatusListener);
+            if (mActive) {
+                // A picture loaded while this viewer was starting.
+                showLoadedImage();
+            }
             try {
                 MediaPlayerStatus status = mViewControl.getStatus();
 
@@ -165,6 +173,15 @@ public class MediaViewer extends Activity {
                     mViewControl.seek(PlayerSeekMode.Relative, -10000);
                 }
                     break;
+                // Move along an uploaded workout; ignored if there is none.
+                case KeyEvent.KEYCODE_MEDIA_NEXT: {
+                    sendPlaylistCommand("next");
+                }
+                    break;
+                case KeyEvent.KEYCODE_MEDIA_PREVIOUS: {
+                    sendPlaylistCommand("previous");
+                }
+                    break;
                 case KeyEvent.KEYCODE_MEDIA_PLAY_PAUSE: {
                     MediaPlayerStatus status = mViewControl.getStatus();
                     if (status.getState() == MediaState.Playing) {
@@ -184,6 +201,24 @@ public class MediaViewer extends Activity {
         return false;
     }
 
+    private void sendPlaylistCommand(final String command) {
+        final IMediaViewControl control = mViewControl;
+        mPlaylistExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    control.sendCommand("{\"command\":\"" + command + "\"}");
+                } catch (IllegalStateException e) {
+                    Log.d(TAG, "No workout to move along");
+                } catch (IllegalArgumentException e) {
+                    Log.e(TAG, "Cannot move along the workout:", e);
+                } catch (IOException e) {
+                    Log.e(TAG, "Cannot move along the workout:", e);
+                }
+            }
+        });
+    }
+
     //// UNTESTED UNTESTED UNTESTED
     @Override
     public void onBackPressed() {
@@ -198,6 +233,7 @@ public class MediaViewer extends Activity {
             getActionBar().hide();
         }
         mPlayerSurfaceView = findViewById(R.id.surfaceViewPlayer);
+        mPictureImageView = (ImageView) findViewById(R.id.imageViewPicture);
         mFakeBackground = findViewById(R.id.fake_background);
         mMediaInfoLayout = (RelativeLayout)findViewById(R.id.media_info_layout);
         //mMediaInfoPersistentLayout = (RelativeLayout)findViewById(R.id.media_info_persistent_layout);
@@ -250,8 +286,13 @@ public class MediaViewer extends Activity {
      */
     @Override
     protected void onDestroy() {
+        if (mViewControl != null) {
+            mViewControl.setViewerAlive(false);
+        }
         unbindService(mConnection);
         mViewControl = null;
+        // A move already running finishes against the service, which outlives the viewer.
+        mPlaylistExecutor.shutdown();
         super.onDestroy();
     }
 
@@ -264,7 +305,7 @@ public class MediaViewer extends Activity {
         mActive = false;
         resetMarkers();
         clearMediaInformationAndHide();
-        //pictureViewVisibility(false);
+        pictureViewVisibility(false);
         if (mImageReceiver != null) {
             unregisterReceiver(mImageReceiver);
         }
@@ -275,6 +316,7 @@ public class MediaViewer extends Activity {
 
                     mViewControl.stop();
                 }
+                // The service moves video to its retained surface and reuses this viewer.
                 mViewControl.setSurfaceHolder(null);
                 mViewControl.setBinderStatus(false);
             } catch (IOException e) {
@@ -307,16 +349,10 @@ public class MediaViewer extends Activity {
         mImageReceiver = new BroadcastReceiver() {
             @Override
             public void onReceive(Context context, Intent intent) {
-                resetMarkers();
-                clearMediaInformationAndHide();
-                mPlayerSurfaceView.setVisibility(View.GONE);
-                markPicture = true;
-                //String imageUri = intent.getStringExtra("uri");
-                //mAQuery.id(mPictureImageView).image(imageUri, true, true, 0, AQuery.INVISIBLE);
-                mViewControl.setImageComplete(true);
+                showLoadedImage();
             }
         };
-        IntentFilter intentFilter = new IntentFilter("fling.custom.media.player.loadImage");
+        IntentFilter intentFilter = new IntentFilter(CustomMediaPlayerImplementation.ACTION_LOAD_IMAGE);
         registerReceiver(mImageReceiver, intentFilter);
     }
 
@@ -360,6 +396,7 @@ public class MediaViewer extends Activity {
                         }
                         if (mPlayerSurfaceView != null && mPlayerSurfaceView instanceof SurfaceView) {
                             preparationVisibility(false);
+                            pictureViewVisibility(false);
                             surfaceViewVisibility(true);
                             if (!markFreshInfo) {
                                 String media_title = getString(R.string.empty);
@@ -385,32 +422,28 @@ public class MediaViewer extends Activity {
                                 boolean startTimerCast = false;
                                 boolean firstExercise = true;
 
-                                try {
-                                    // current lift, with media
-                                    MediaPlayerInfo info = mViewControl.getMediaInfo();
-                                    JSONTokener js = new JSONTokener(info.getMetadata());
-                                    JSONObject jsonObject = (JSONObject) js.nextValue();
-                                    media_title = jsonObject.getString("title");
-                                    description = jsonObject.optString("description");
-                                    rest_interval = Integer.parseInt(jsonObject.optString("restPeriodAfter"));
-                                    reps = Integer.parseInt(jsonObject.optString("reps"));
-                                    weight = Integer.parseInt(jsonObject.optString("weight"));
-                                    media_type = jsonObject.optString("type").split("/")[0];
+                                // current lift, with media; parsed by the service when the source was set
+                                WorkoutMetadata metadata = mViewControl.getWorkoutMetadata();
+                                if (metadata != null) {
+                                    Workout.Lift lift = metadata.mCurrent;
+                                    media_title = lift.mTitle;
+                                    description = lift.mDescription;
+                                    rest_interval = lift.mRestSeconds;
+                                    reps = lift.mReps;
+                                    weight = lift.mWeight;
+                                    media_type = lift.mType.split("/")[0];
                                     // next lift, for display
-                                    jsonObject = (JSONObject) js.nextValue();
-                                    next_lift_title = jsonObject.getString("title");
-                                    next_lift_description = jsonObject.optString("description");
-                                    next_lift_reps = Integer.parseInt(jsonObject.optString("reps"));
-                                    next_lift_weight = Integer.parseInt(jsonObject.optString("weight"));
-                                    // we conditionally set a timer to run, so find out if we're setting a timer to run..
-                                    //startTimerCast = (boolean) js.nextValue();
-                                    startTimerCast = ((JSONObject) js.nextValue()).optBoolean("startTimerCast");
-                                    //firstExercise = (boolean) js.nextValue();
-                                    firstExercise = ((JSONObject) js.nextValue()).optBoolean("firstExercise");
-
+                                    if (metadata.mNext != null) {
+                                        next_lift_title = metadata.mNext.mTitle;
+                                        next_lift_description = metadata.mNext.mDescription;
+                                        next_lift_reps = metadata.mNext.mReps;
+                                        next_lift_weight = metadata.mNext.mWeight;
+                                    }
+                                    // we conditionally set a timer to run
+                                    startTimerCast = metadata.mStartTimer;
+                                    firstExercise = metadata.mFirstExercise;
 
                                     // assistance lifts...for now
-
                                     //assistance_reps_pull = Integer.parseInt(jsonObject.optString("assistancePullReps"));
                                     //assistance_reps_push = Integer.parseInt(jsonObject.optString("assistancePushReps"));
                                     //assistance_reps_core = Integer.parseInt(jsonObject.optString("assistanceCoreReps"));
@@ -420,10 +453,6 @@ public class MediaViewer extends Activity {
                                     //assistance_lifts_core = jsonObject.optString("assistanceCore").replaceAll("[^a-zA-Z ,]","");
                                     //List<String> list = Arrays.asList(jsonObject.optString("assistancePull"));
                                     //String joined = String.join(", ", list)
-                                } catch (IOException e) {
-                                    Log.e(TAG, "IOException", e);
-                                } catch (JSONException e) {
-                                    Log.e(TAG, "JSONException", e);
                                 }
                                 mMediaTitle.setText(media_title);
                                 if(weight == 0)
@@ -544,6 +573,35 @@ public class MediaViewer extends Activity {
         mPlayerSurfaceView.setVisibility(visible? View.VISIBLE : View.GONE);
     }
 
+    private void pictureViewVisibility(boolean visible) {
+        mPictureImageView.setVisibility(visible? View.VISIBLE : View.GONE);
+        if (!visible) {
+            mPictureImageView.setImageBitmap(null);
+        }
+    }
+
+    /*
+     * Show the picture the service loaded, if one is waiting, and tell the service once it
+     * is up.
+     */
+    private void showLoadedImage() {
+        if (mViewControl == null) {
+            return;
+        }
+        Bitmap bitmap = mViewControl.takeLoadedImage();
+        if (bitmap == null) {
+            return;
+        }
+        resetMarkers();
+        clearMediaInformationAndHide();
+        surfaceViewVisibility(false);
+        preparationVisibility(false);
+        markPicture = true;
+        mPictureImageView.setImageBitmap(bitmap);
+        pictureViewVisibility(true);
+        mViewControl.setImageComplete(true);
+    }
+
     private void preparationVisibility(boolean visible) {
         mFakeBackground.setVisibility(visible? View.VISIBLE : View.GONE);
         mProgressBar.setVisibility(visible? View.VISIBLE : View.GONE);
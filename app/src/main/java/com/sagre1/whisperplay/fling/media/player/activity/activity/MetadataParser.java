@@ -0,0 +1,321 @@
+package com.sagre1.whisperplay.fling.media.player.activity.activity;
+
+import android.util.JsonReader;
+import android.util.JsonToken;
+
+import org.json.JSONException;
+
+import java.io.IOException;
+import java.io.StringReader;
+
+/**
+ * Streaming parser for the metadata of setMediaSource.
+ *
+ * The metadata is a run of top-level JSON values: the current lift, the next lift, then
+ * {"startTimerCast": bool} and {"firstExercise": bool}. Only the first is required. Each
+ * is cut out at its closing brace and read with its own strict {@link JsonReader}, straight
+ * into the fields of a {@link WorkoutMetadata}, without building JSON objects. Strict
+ * readers reject what a lenient one lets through: unquoted names and values, single
+ * quotes, comments and separators between the values. Unknown keys are skipped; a value
+ * of the wrong type, a lift without a title or broken JSON is rejected with the value,
+ * key and position.
+ *
+ * Each parser counts what it parsed, and how long that took.
+ */
+class MetadataParser {
+
+    private static final String[] VALUE_NAMES = {"current lift", "next lift", "timer flag", "first exercise flag"};
+
+    private long mParsed = 0L;
+    private long mFailed = 0L;
+    private long mBytes = 0L;
+    private long mNanos = 0L;
+    private long mMaxNanos = 0L;
+
+    /**
+     * Parse a metadata string.
+     *
+     * @throws JSONException
+     *             describing the first problem, with its position
+     */
+    public WorkoutMetadata parse(String json) throws JSONException {
+        if (json == null) {
+            throw new JSONException("No metadata");
+        }
+        long start = System.nanoTime();
+        boolean ok = false;
+        try {
+            Workout.Lift current = null;
+            Workout.Lift next = null;
+            boolean startTimer = false;
+            boolean firstExercise = true;
+            int at = skipSpace(json, 0);
+            for (int value = 0; value < VALUE_NAMES.length && (value == 0 || at < json.length()); value++) {
+                int end = valueEnd(json, at, value);
+                JsonReader reader = new JsonReader(new StringReader(json.substring(at, end)));
+                try {
+                    switch (value) {
+                        case 0:
+                            current = readLift(reader, value);
+                            break;
+                        case 1:
+                            next = readLift(reader, value);
+                            break;
+                        case 2:
+                            startTimer = readFlag(reader, value, "startTimerCast");
+                            break;
+                        default:
+                            firstExercise = readFlag(reader, value, "firstExercise");
+                            break;
+                    }
+                    if (reader.peek() != JsonToken.END_DOCUMENT) {
+                        throw error(reader, value, null, "unexpected data after the value");
+                    }
+                } finally {
+                    MediaCache.closeQuietly(reader);
+                }
+                at = skipSpace(json, end);
+            }
+            if (at < json.length()) {
+                throw new JSONException("Bad metadata, value " + (VALUE_NAMES.length + 1)
+                        + ": unexpected extra value at offset " + at);
+            }
+            ok = true;
+            return new WorkoutMetadata(current, next, startTimer, firstExercise);
+        } catch (IOException e) {
+            // MalformedJsonException and EOFException, which carry the line and column.
+            throw new JSONException("Malformed metadata: " + e.getMessage());
+        } catch (IllegalStateException e) {
+            throw new JSONException("Malformed metadata: " + e.getMessage());
+        } finally {
+            long nanos = System.nanoTime() - start;
+            synchronized (this) {
+                if (ok) {
+                    mParsed++;
+                } else {
+                    mFailed++;
+                }
+                mBytes += utf8Length(json);
+                mNanos += nanos;
+                mMaxNanos = Math.max(mMaxNanos, nanos);
+            }
+        }
+    }
+
+    public synchronized long getParsedCount() {
+        return mParsed;
+    }
+
+    public synchronized long getFailedCount() {
+        return mFailed;
+    }
+
+    /**
+     * Returns the metadata bytes (UTF-8) seen, parsed or not.
+     */
+    public synchronized long getBytes() {
+        return mBytes;
+    }
+
+    /**
+     * Returns the mean parse time in microseconds.
+     */
+    public synchronized long getMeanMicros() {
+        long count = mParsed + mFailed;
+        return count > 0L ? mNanos / count / 1000L : 0L;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "MetadataParser[parsed=" + mParsed + " failed=" + mFailed + " bytes=" + mBytes
+                + " meanUs=" + getMeanMicros() + " maxUs=" + mMaxNanos / 1000L + "]";
+    }
+
+    private Workout.Lift readLift(JsonReader reader, int value) throws IOException, JSONException {
+        expectObject(reader, value);
+        String title = null;
+        String description = "";
+        String type = "";
+        String url = "";
+        int reps = 0;
+        int weight = 0;
+        int rest = 0;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (name.equals("title")) {
+                title = readString(reader, value, name, null);
+            } else if (name.equals("description")) {
+                description = readString(reader, value, name, "");
+            } else if (name.equals("type")) {
+                type = readString(reader, value, name, "");
+            } else if (name.equals("url")) {
+                url = readString(reader, value, name, "");
+            } else if (name.equals("reps")) {
+                reps = readInt(reader, value, name);
+            } else if (name.equals("weight")) {
+                weight = readInt(reader, value, name);
+            } else if (name.equals("restPeriodAfter")) {
+                rest = readInt(reader, value, name);
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        if (title == null) {
+            throw error(reader, value, "title", "missing");
+        }
+        return new Workout.Lift(title, description, type, url, 1, reps, weight, rest);
+    }
+
+    private boolean readFlag(JsonReader reader, int value, String key) throws IOException, JSONException {
+        expectObject(reader, value);
+        boolean flag = false;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (!name.equals(key)) {
+                reader.skipValue();
+                continue;
+            }
+            JsonToken token = reader.peek();
+            if (token == JsonToken.BOOLEAN) {
+                flag = reader.nextBoolean();
+            } else if (token == JsonToken.STRING) {
+                // org.json accepted "true" and "false".
+                String s = reader.nextString();
+                if (!s.equalsIgnoreCase("true") && !s.equalsIgnoreCase("false")) {
+                    throw error(reader, value, name, "expected a boolean, was \"" + s + "\"");
+                }
+                flag = Boolean.parseBoolean(s);
+            } else if (token == JsonToken.NULL) {
+                reader.nextNull();
+            } else {
+                throw error(reader, value, name, "expected a boolean, was " + token);
+            }
+        }
+        reader.endObject();
+        return flag;
+    }
+
+    private void expectObject(JsonReader reader, int value) throws IOException, JSONException {
+        JsonToken token = reader.peek();
+        if (token != JsonToken.BEGIN_OBJECT) {
+            throw error(reader, value, null, "expected an object, was " + token);
+        }
+    }
+
+    private String readString(JsonReader reader, int value, String name, String fallback)
+            throws IOException, JSONException {
+        JsonToken token = reader.peek();
+        if (token == JsonToken.STRING || token == JsonToken.NUMBER) {
+            return reader.nextString();
+        }
+        if (token == JsonToken.NULL) {
+            reader.nextNull();
+            return fallback;
+        }
+        throw error(reader, value, name, "expected a string, was " + token);
+    }
+
+    /*
+     * Numbers, and numbers sent as strings as the phone does; "" reads as 0.
+     */
+    private int readInt(JsonReader reader, int value, String name) throws IOException, JSONException {
+        JsonToken token = reader.peek();
+        if (token == JsonToken.NULL) {
+            reader.nextNull();
+            return 0;
+        }
+        if (token != JsonToken.NUMBER && token != JsonToken.STRING) {
+            throw error(reader, value, name, "expected a number, was " + token);
+        }
+        String s = reader.nextString().trim();
+        if (s.length() == 0) {
+            return 0;
+        }
+        try {
+            return Integer.parseInt(s);
+        } catch (NumberFormatException e) {
+            try {
+                return (int) Double.parseDouble(s);
+            } catch (NumberFormatException e2) {
+                throw error(reader, value, name, "expected a number, was \"" + s + "\"");
+            }
+        }
+    }
+
+    /*
+     * End (exclusive) of the object starting at start: its closing brace, found outside
+     * strings. Only JSON whitespace may come between values.
+     */
+    private static int valueEnd(String json, int start, int value) throws JSONException {
+        String what = "Bad metadata, value " + (value + 1) + " (" + VALUE_NAMES[value] + ")";
+        if (start >= json.length()) {
+            throw new JSONException(what + ": missing");
+        }
+        if (json.charAt(start) != '{') {
+            throw new JSONException(what + ": expected an object at offset " + start + ", was '"
+                    + json.charAt(start) + "'");
+        }
+        int depth = 0;
+        boolean inString = false;
+        for (int i = start; i < json.length(); i++) {
+            char c = json.charAt(i);
+            if (inString) {
+                if (c == '\\') {
+                    i++;
+                } else if (c == '"') {
+                    inString = false;
+                }
+            } else if (c == '"') {
+                inString = true;
+            } else if (c == '{' || c == '[') {
+                depth++;
+            } else if ((c == '}' || c == ']') && --depth == 0) {
+                return i + 1;
+            }
+        }
+        throw new JSONException(what + ": unterminated, starting at offset " + start);
+    }
+
+    private static int skipSpace(String json, int at) {
+        while (at < json.length()) {
+            char c = json.charAt(at);
+            if (c != ' ' && c != '\t' && c != '\n' && c != '\r') {
+                break;
+            }
+            at++;
+        }
+        return at;
+    }
+
+    private static JSONException error(JsonReader reader, int value, String name, String problem) {
+        StringBuilder sb = new StringBuilder("Bad metadata");
+        if (value >= 0) {
+            sb.append(", value ").append(value + 1).append(" (").append(VALUE_NAMES[value]).append(')');
+        }
+        if (name != null) {
+            sb.append(", \"").append(name).append('"');
+        }
+        return new JSONException(sb.append(": ").append(problem).append(", ").append(reader).toString());
+    }
+
+    private static int utf8Length(String s) {
+        int length = 0;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                length++;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c)) {
+                length += 4;
+                i++;
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+}
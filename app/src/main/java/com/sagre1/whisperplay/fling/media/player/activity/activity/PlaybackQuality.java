@@ -0,0 +1,336 @@
+package com.sagre1.whisperplay.fling.media.player.activity.activity;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * How playback went, per media load and per workout session.
+ *
+ * Counts stalls (buffering while playing) with their total and longest duration, the
+ * rebuffer ratio, lagging video tracks and player errors. Events only bump counters; the
+ * time spent playing and stalled is taken from the clock when it changes. A session is a
+ * workout from loadWorkout to clearWorkout, or the flings between them.
+ *
+ * Every finished load and session is appended to a file as one JSON line. The file is
+ * rolled over to a single ".1" file when it grows past {@link #MAX_FILE_SIZE}.
+ */
+class PlaybackQuality {
+    private static final String TAG = "PlaybackQuality";
+
+    /** Error codes kept per load and session; later ones are only counted. */
+    public static final int MAX_ERROR_CODES = 4;
+    public static final long MAX_FILE_SIZE = 256L * 1024L;
+
+    /**
+     * Counters of one load or session.
+     */
+    static final class Counters {
+        int mStalls = 0;
+        long mStallMs = 0L;
+        long mMaxStallMs = 0L;
+        long mPlayMs = 0L;
+        int mLagging = 0;
+        int mErrors = 0;
+        // what, extra pairs of the first errors.
+        final int[] mErrorCodes = new int[2 * MAX_ERROR_CODES];
+
+        void reset() {
+            mStalls = 0;
+            mStallMs = 0L;
+            mMaxStallMs = 0L;
+            mPlayMs = 0L;
+            mLagging = 0;
+            mErrors = 0;
+        }
+
+        void addError(int what, int extra) {
+            if (mErrors < MAX_ERROR_CODES) {
+                mErrorCodes[2 * mErrors] = what;
+                mErrorCodes[2 * mErrors + 1] = extra;
+            }
+            mErrors++;
+        }
+
+        void addStall(long ms) {
+            mStalls++;
+            mStallMs += ms;
+            mMaxStallMs = Math.max(mMaxStallMs, ms);
+        }
+
+        /*
+         * Add another's counts, as a load ends in its session.
+         */
+        void add(Counters other) {
+            mStalls += other.mStalls;
+            mStallMs += other.mStallMs;
+            mMaxStallMs = Math.max(mMaxStallMs, other.mMaxStallMs);
+            mPlayMs += other.mPlayMs;
+            mLagging += other.mLagging;
+            for (int i = 0; i < Math.min(other.mErrors, MAX_ERROR_CODES); i++) {
+                addError(other.mErrorCodes[2 * i], other.mErrorCodes[2 * i + 1]);
+            }
+            // Errors past the kept codes are counted, not kept.
+            mErrors += Math.max(0, other.mErrors - MAX_ERROR_CODES);
+        }
+
+        /**
+         * Returns the share of watching time spent stalled, 0 to 1.
+         */
+        double getRebufferRatio() {
+            long total = mPlayMs + mStallMs;
+            return total > 0L ? (double) mStallMs / total : 0.0;
+        }
+
+        JSONObject toJson() throws JSONException {
+            JSONObject json = new JSONObject();
+            json.put("stalls", mStalls);
+            json.put("stallMs", mStallMs);
+            json.put("maxStallMs", mMaxStallMs);
+            json.put("playMs", mPlayMs);
+            json.put("rebufferRatio", getRebufferRatio());
+            json.put("lagging", mLagging);
+            json.put("errors", mErrors);
+            JSONArray codes = new JSONArray();
+            for (int i = 0; i < Math.min(mErrors, MAX_ERROR_CODES); i++) {
+                codes.put(mErrorCodes[2 * i] + "/" + mErrorCodes[2 * i + 1]);
+            }
+            json.put("errorCodes", codes);
+            return json;
+        }
+    }
+
+    private final File mFile;
+    private final ExecutorService mWriter;
+    private final Counters mLoad = new Counters();
+    private final Counters mSession = new Counters();
+    // Scratch for queries, so the live counters are not folded early.
+    private final Counters mQuery = new Counters();
+    private String mLoadUrl = null;
+    private long mLoadStart = 0L;
+    private long mSessionStart = 0L;
+    private int mSessionLoads = 0;
+    private long mPlayingSince = 0L;
+    private long mStallSince = 0L;
+
+    /**
+     * Constructor.
+     *
+     * @param file
+     *            Where finished loads and sessions are appended
+     */
+    public PlaybackQuality(File file) {
+        mFile = file;
+        mWriter = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "PlaybackQuality");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        mSessionStart = SystemClock.elapsedRealtime();
+    }
+
+    /**
+     * Start a new session, ending the one before.
+     */
+    public synchronized void beginSession() {
+        endSession();
+        mSessionStart = SystemClock.elapsedRealtime();
+    }
+
+    /**
+     * End the session and write it out, if anything was loaded in it.
+     */
+    public synchronized void endSession() {
+        endLoad();
+        if (mSessionLoads > 0) {
+            try {
+                JSONObject json = mSession.toJson();
+                json.put("type", "session");
+                json.put("loads", mSessionLoads);
+                json.put("durationMs", SystemClock.elapsedRealtime() - mSessionStart);
+                write(json);
+            } catch (JSONException e) {
+                Log.e(TAG, "Cannot write session", e);
+            }
+        }
+        mSession.reset();
+        mSessionLoads = 0;
+    }
+
+    /**
+     * A new media load, ending the one before.
+     */
+    public synchronized void beginLoad(String url) {
+        endLoad();
+        mLoadUrl = url;
+        mLoadStart = SystemClock.elapsedRealtime();
+        mSessionLoads++;
+    }
+
+    /**
+     * The player started or stopped playing.
+     */
+    public synchronized void onPlaying(boolean playing) {
+        if (mLoadUrl == null || playing == (mPlayingSince != 0L)) {
+            return;
+        }
+        long now = SystemClock.elapsedRealtime();
+        if (playing) {
+            mPlayingSince = now;
+        } else {
+            foldPlaying(mLoad, now);
+            mPlayingSince = 0L;
+            // A stall ends with the playback it interrupted.
+            onStallEnd();
+        }
+    }
+
+    /**
+     * Buffering started. Only counted as a stall while playing.
+     */
+    public synchronized void onStallStart() {
+        if (mPlayingSince == 0L || mStallSince != 0L) {
+            return;
+        }
+        long now = SystemClock.elapsedRealtime();
+        foldPlaying(mLoad, now);
+        mPlayingSince = now;
+        mStallSince = now;
+    }
+
+    public synchronized void onStallEnd() {
+        if (mStallSince == 0L) {
+            return;
+        }
+        long now = SystemClock.elapsedRealtime();
+        mLoad.addStall(now - mStallSince);
+        mStallSince = 0L;
+        if (mPlayingSince != 0L) {
+            mPlayingSince = now;
+        }
+    }
+
+    public synchronized void onLagging() {
+        mLoad.mLagging++;
+    }
+
+    public synchronized void onError(int what, int extra) {
+        mLoad.addError(what, extra);
+    }
+
+    /**
+     * Returns the counters of the current load and session, up to now.
+     */
+    public synchronized JSONObject toJson() throws JSONException {
+        long now = SystemClock.elapsedRealtime();
+        mQuery.reset();
+        mQuery.add(mLoad);
+        foldPlaying(mQuery, now);
+        if (mStallSince != 0L) {
+            mQuery.addStall(now - mStallSince);
+        }
+        JSONObject load = mQuery.toJson();
+        load.put("url", mLoadUrl);
+        mQuery.add(mSession);
+        JSONObject session = mQuery.toJson();
+        session.put("loads", mSessionLoads);
+        session.put("durationMs", now - mSessionStart);
+        JSONObject json = new JSONObject();
+        json.put("load", load);
+        json.put("session", session);
+        return json;
+    }
+
+    /**
+     * Write out the session and stop the writer.
+     */
+    public synchronized void shutdown() {
+        endSession();
+        mWriter.shutdown();
+    }
+
+    /*
+     * Add the playing time so far to the counters, stalls excluded.
+     */
+    private void foldPlaying(Counters counters, long now) {
+        if (mPlayingSince != 0L && mStallSince == 0L) {
+            counters.mPlayMs += now - mPlayingSince;
+        }
+    }
+
+    private void endLoad() {
+        if (mLoadUrl == null) {
+            return;
+        }
+        long now = SystemClock.elapsedRealtime();
+        foldPlaying(mLoad, now);
+        mPlayingSince = 0L;
+        if (mStallSince != 0L) {
+            mLoad.addStall(now - mStallSince);
+            mStallSince = 0L;
+        }
+        try {
+            JSONObject json = mLoad.toJson();
+            json.put("type", "load");
+            json.put("url", mLoadUrl);
+            json.put("durationMs", now - mLoadStart);
+            write(json);
+        } catch (JSONException e) {
+            Log.e(TAG, "Cannot write load", e);
+        }
+        mSession.add(mLoad);
+        mLoad.reset();
+        mLoadUrl = null;
+    }
+
+    /*
+     * Append a line on the writer thread, with the wall clock time.
+     */
+    private void write(JSONObject json) throws JSONException {
+        json.put("time", System.currentTimeMillis());
+        final String line = json.toString() + "\n";
+        Log.i(TAG, line.trim());
+        if (mWriter.isShutdown()) {
+            return;
+        }
+        mWriter.execute(new Runnable() {
+            @Override
+            public void run() {
+                append(line);
+            }
+        });
+    }
+
+    private void append(String line) {
+        if (mFile.length() > MAX_FILE_SIZE) {
+            File old = new File(mFile.getPath() + ".1");
+            old.delete();
+            if (!mFile.renameTo(old)) {
+                Log.w(TAG, "Cannot roll " + mFile);
+            }
+        }
+        OutputStream out = null;
+        try {
+            out = new FileOutputStream(mFile, true);
+            out.write(line.getBytes("UTF-8"));
+        } catch (IOException e) {
+            Log.w(TAG, "Cannot write " + mFile, e);
+        } finally {
+            MediaCache.closeQuietly(out);
+        }
+    }
+}
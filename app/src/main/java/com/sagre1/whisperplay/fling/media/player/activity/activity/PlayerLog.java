@@ -0,0 +1,263 @@
+package com.sagre1.whisperplay.fling.media.player.activity.activity;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.sagre1.whisperplay.fling.media.player.BuildConfig;
+
+/**
+ * Logging for the player's hot paths.
+ *
+ * Messages are templates with {} for each argument, and are only formatted when their level
+ * is logged, so a call costs nothing but the call when it is not. Debug calls return at once
+ * in release builds, where {@link #DEBUG} is a constant false; an argument that is costly to
+ * compute should still be guarded with it.
+ *
+ * Every call that gets past that check is also kept, unformatted, in a ring of the last
+ * {@link #RING_SIZE} events, which {@link #dump} writes out when something went wrong.
+ * Arguments are kept by reference, so pass values that do not change afterwards.
+ */
+final class PlayerLog {
+    private static final String TAG = "PlayerLog";
+
+    /** False in release builds. */
+    public static final boolean DEBUG = BuildConfig.DEBUG;
+    public static final int RING_SIZE = 128;
+
+    // Lowest level written to logcat.
+    private static volatile int sLevel = DEBUG ? Log.DEBUG : Log.INFO;
+
+    // The ring, guarded by its own lock.
+    private static final Object sRingLock = new Object();
+    private static final long[] sTimes = new long[RING_SIZE];
+    private static final int[] sLevels = new int[RING_SIZE];
+    private static final String[] sTags = new String[RING_SIZE];
+    private static final String[] sMessages = new String[RING_SIZE];
+    private static final Object[] sFirst = new Object[RING_SIZE];
+    private static final Object[] sSecond = new Object[RING_SIZE];
+    private static final Object[] sThird = new Object[RING_SIZE];
+    private static final int[] sArgs = new int[RING_SIZE];
+    private static int sNext = 0;
+    private static long sCount = 0L;
+
+    private PlayerLog() {
+    }
+
+    /**
+     * Set the lowest level written to logcat, one of the {@link Log} levels. Debug stays off
+     * in release builds.
+     */
+    public static void setLevel(int level) {
+        sLevel = level;
+    }
+
+    public static boolean isLoggable(int level) {
+        return level >= sLevel && (DEBUG || level > Log.DEBUG);
+    }
+
+    public static void d(String tag, String msg) {
+        if (DEBUG) {
+            log(Log.DEBUG, tag, msg, null, null, null, 0);
+        }
+    }
+
+    public static void d(String tag, String msg, Object a) {
+        if (DEBUG) {
+            log(Log.DEBUG, tag, msg, a, null, null, 1);
+        }
+    }
+
+    public static void d(String tag, String msg, Object a, Object b) {
+        if (DEBUG) {
+            log(Log.DEBUG, tag, msg, a, b, null, 2);
+        }
+    }
+
+    public static void d(String tag, String msg, Object a, Object b, Object c) {
+        if (DEBUG) {
+            log(Log.DEBUG, tag, msg, a, b, c, 3);
+        }
+    }
+
+    /**
+     * Debug with a number, boxed only when debugging.
+     */
+    public static void d(String tag, String msg, long a) {
+        if (DEBUG) {
+            log(Log.DEBUG, tag, msg, a, null, null, 1);
+        }
+    }
+
+    public static void d(String tag, String msg, long a, long b) {
+        if (DEBUG) {
+            log(Log.DEBUG, tag, msg, a, b, null, 2);
+        }
+    }
+
+    public static void i(String tag, String msg) {
+        log(Log.INFO, tag, msg, null, null, null, 0);
+    }
+
+    public static void i(String tag, String msg, Object a) {
+        log(Log.INFO, tag, msg, a, null, null, 1);
+    }
+
+    public static void i(String tag, String msg, Object a, Object b) {
+        log(Log.INFO, tag, msg, a, b, null, 2);
+    }
+
+    public static void i(String tag, String msg, Object a, Object b, Object c) {
+        log(Log.INFO, tag, msg, a, b, c, 3);
+    }
+
+    public static void w(String tag, String msg) {
+        log(Log.WARN, tag, msg, null, null, null, 0);
+    }
+
+    public static void w(String tag, String msg, Object a) {
+        log(Log.WARN, tag, msg, a, null, null, 1);
+    }
+
+    public static void w(String tag, String msg, Object a, Object b) {
+        log(Log.WARN, tag, msg, a, b, null, 2);
+    }
+
+    public static void w(String tag, String msg, Object a, Object b, Object c) {
+        log(Log.WARN, tag, msg, a, b, c, 3);
+    }
+
+    /**
+     * Log a warning with its exception. The stack trace goes to logcat only.
+     */
+    public static void w(String tag, String msg, Throwable t) {
+        record(Log.WARN, tag, msg, t, null, null, 1);
+        if (isLoggable(Log.WARN)) {
+            Log.w(tag, msg, t);
+        }
+    }
+
+    /**
+     * Log a warning with an argument and its exception.
+     */
+    public static void w(String tag, String msg, Object a, Throwable t) {
+        record(Log.WARN, tag, msg, a, t, null, 2);
+        if (isLoggable(Log.WARN)) {
+            Log.w(tag, format(new StringBuilder(msg.length() + 32), msg, a, null, null, 1).toString(), t);
+        }
+    }
+
+    public static void e(String tag, String msg) {
+        log(Log.ERROR, tag, msg, null, null, null, 0);
+    }
+
+    public static void e(String tag, String msg, Object a) {
+        log(Log.ERROR, tag, msg, a, null, null, 1);
+    }
+
+    public static void e(String tag, String msg, Object a, Object b) {
+        log(Log.ERROR, tag, msg, a, b, null, 2);
+    }
+
+    public static void e(String tag, String msg, Object a, Object b, Object c) {
+        log(Log.ERROR, tag, msg, a, b, c, 3);
+    }
+
+    /**
+     * Log an error with its exception. The stack trace goes to logcat only.
+     */
+    public static void e(String tag, String msg, Throwable t) {
+        // Shown after the message in a dump.
+        record(Log.ERROR, tag, msg, t, null, null, 1);
+        if (isLoggable(Log.ERROR)) {
+            Log.e(tag, msg, t);
+        }
+    }
+
+    /**
+     * Write the ring to logcat, oldest first, whatever the level.
+     *
+     * @param reason
+     *            What went wrong
+     */
+    public static void dump(String reason) {
+        StringBuilder text = new StringBuilder(RING_SIZE * 64);
+        long now = SystemClock.elapsedRealtime();
+        synchronized (sRingLock) {
+            int size = (int) Math.min(sCount, RING_SIZE);
+            text.append("Last ").append(size).append(" of ").append(sCount).append(" events before ")
+                    .append(reason);
+            for (int n = 0; n < size; n++) {
+                int i = (sNext - size + n + RING_SIZE) % RING_SIZE;
+                text.append('\n').append(sTimes[i] - now).append("ms ").append(levelName(sLevels[i]))
+                        .append('/').append(sTags[i]).append(": ");
+                format(text, sMessages[i], sFirst[i], sSecond[i], sThird[i], sArgs[i]);
+            }
+        }
+        // Logcat truncates long entries, so one line each.
+        for (String line : text.toString().split("\n")) {
+            Log.w(TAG, line);
+        }
+    }
+
+    private static void log(int level, String tag, String msg, Object a, Object b, Object c, int args) {
+        record(level, tag, msg, a, b, c, args);
+        if (level < sLevel) {
+            return;
+        }
+        String text = args == 0 ? msg : format(new StringBuilder(msg.length() + 32), msg, a, b, c, args)
+                .toString();
+        Log.println(level, tag, text);
+    }
+
+    private static void record(int level, String tag, String msg, Object a, Object b, Object c,
+                               int args) {
+        synchronized (sRingLock) {
+            int i = sNext;
+            sTimes[i] = SystemClock.elapsedRealtime();
+            sLevels[i] = level;
+            sTags[i] = tag;
+            sMessages[i] = msg;
+            sFirst[i] = a;
+            sSecond[i] = b;
+            sThird[i] = c;
+            sArgs[i] = args;
+            sNext = (i + 1) % RING_SIZE;
+            sCount++;
+        }
+    }
+
+    /*
+     * Put the arguments in place of the {}s. Arguments without a {} are appended.
+     */
+    private static StringBuilder format(StringBuilder out, String msg, Object a, Object b, Object c,
+                                        int args) {
+        int from = 0;
+        for (int n = 0; n < args; n++) {
+            Object arg = n == 0 ? a : (n == 1 ? b : c);
+            int at = msg.indexOf("{}", from);
+            if (at < 0) {
+                out.append(msg, from, msg.length()).append(' ').append(arg);
+                from = msg.length();
+            } else {
+                out.append(msg, from, at).append(arg);
+                from = at + 2;
+            }
+        }
+        return out.append(msg, from, msg.length());
+    }
+
+    private static char levelName(int level) {
+        switch (level) {
+            case Log.DEBUG:
+                return 'D';
+            case Log.INFO:
+                return 'I';
+            case Log.WARN:
+                return 'W';
+            case Log.ERROR:
+                return 'E';
+            default:
+                return 'V';
+        }
+    }
+}
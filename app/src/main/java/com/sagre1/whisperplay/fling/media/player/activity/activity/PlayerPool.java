@@ -0,0 +1,176 @@
+package com.sagre1.whisperplay.fling.media.player.activity.activity;
+
+import android.media.MediaPlayer;
+import android.util.Log;
+
+import java.util.ArrayDeque;
+
+/**
+ * MediaPlayers built ahead of the first fling and reused across flings.
+ *
+ * The service warms the pool when it is created, so the native player construction is paid
+ * before anyone is waiting. Players handed back are reset, not released, and kept up to
+ * the pool size. Each player taken from the pool is counted as a hit and credited with the
+ * mean construction time measured while warming; the first one is logged, as that is the
+ * load a user notices.
+ */
+class PlayerPool {
+    private static final String TAG = "PlayerPool";
+
+    /**
+     * Enough for the active player and the standby one.
+     */
+    public static final int DEFAULT_SIZE = 2;
+
+    private final ArrayDeque<MediaPlayer> mIdle = new ArrayDeque<MediaPlayer>();
+    private int mSize;
+    private long mBuilt = 0L;
+    private long mBuildNanos = 0L;
+    private long mHits = 0L;
+    private long mMisses = 0L;
+    private boolean mFirstObtain = true;
+    private boolean mReleased = false;
+
+    /**
+     * Constructor. Does not build anything, see {@link #warm}.
+     *
+     * @param size
+     *            Idle players to keep
+     */
+    public PlayerPool(int size) {
+        setSize(size);
+    }
+
+    /**
+     * Set how many idle players are kept. Extra idle players are released; call
+     * {@link #warm} to build up to a larger size.
+     */
+    public synchronized void setSize(int size) {
+        if (size < 0) {
+            throw new IllegalArgumentException("Negative pool size");
+        }
+        mSize = size;
+        while (mIdle.size() > mSize) {
+            mIdle.removeLast().release();
+        }
+    }
+
+    public synchronized int getSize() {
+        return mSize;
+    }
+
+    /**
+     * Build players until the pool is full. Players deliver their events to the looper of
+     * the thread that builds them, or the main looper, so call this from the main thread.
+     */
+    public synchronized void warm() {
+        if (mReleased) {
+            throw new IllegalStateException("Pool released");
+        }
+        long start = System.nanoTime();
+        int built = 0;
+        while (mIdle.size() < mSize) {
+            mIdle.addLast(build());
+            built++;
+        }
+        Log.i(TAG, "Warmed " + built + " players in " + (System.nanoTime() - start) / 1000000L + "ms");
+    }
+
+    /**
+     * Returns an idle player, or a new one if the pool is empty. The caller configures it.
+     */
+    public synchronized MediaPlayer obtain() {
+        long start = System.nanoTime();
+        MediaPlayer player = mIdle.pollFirst();
+        boolean warm = player != null;
+        if (warm) {
+            mHits++;
+        } else {
+            mMisses++;
+            player = build();
+        }
+        if (mFirstObtain) {
+            mFirstObtain = false;
+            Log.i(TAG, "First player " + (warm ? "from pool" : "built") + " in "
+                    + (System.nanoTime() - start) / 1000000L + "ms, saved ~"
+                    + (warm ? getMeanBuildMs() : 0L) + "ms");
+        }
+        return player;
+    }
+
+    /**
+     * Take a player back. It is reset and kept if there is room, released otherwise.
+     */
+    public synchronized void recycle(MediaPlayer player) {
+        if (player == null) {
+            return;
+        }
+        if (mReleased || mIdle.size() >= mSize) {
+            player.release();
+            return;
+        }
+        try {
+            player.reset();
+        } catch (Exception e) {
+            Log.w(TAG, "Cannot reset player, releasing it", e);
+            player.release();
+            return;
+        }
+        // Don't keep the last owner reachable from an idle player.
+        player.setOnPreparedListener(null);
+        player.setOnErrorListener(null);
+        player.setOnInfoListener(null);
+        player.setOnCompletionListener(null);
+        player.setOnSeekCompleteListener(null);
+        player.setSurface(null);
+        mIdle.addLast(player);
+    }
+
+    /**
+     * Release every idle player. Players handed back afterwards are released too.
+     */
+    public synchronized void release() {
+        mReleased = true;
+        while (!mIdle.isEmpty()) {
+            mIdle.removeFirst().release();
+        }
+        Log.i(TAG, "Released. " + this);
+    }
+
+    /**
+     * Returns the mean time taken to construct a player, or 0 before any was built.
+     */
+    public synchronized long getMeanBuildMs() {
+        return mBuilt > 0L ? mBuildNanos / mBuilt / 1000000L : 0L;
+    }
+
+    /**
+     * Returns the construction time avoided by handing out pooled players.
+     */
+    public synchronized long getTimeSavedMs() {
+        return mHits * getMeanBuildMs();
+    }
+
+    public synchronized long getHitCount() {
+        return mHits;
+    }
+
+    public synchronized long getMissCount() {
+        return mMisses;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "PlayerPool[size=" + mSize + " idle=" + mIdle.size() + " hits=" + mHits
+                + " misses=" + mMisses + " meanBuildMs=" + getMeanBuildMs()
+                + " savedMs=" + getTimeSavedMs() + "]";
+    }
+
+    private MediaPlayer build() {
+        long start = System.nanoTime();
+        MediaPlayer player = new MediaPlayer();
+        mBuildNanos += System.nanoTime() - start;
+        mBuilt++;
+        return player;
+    }
+}
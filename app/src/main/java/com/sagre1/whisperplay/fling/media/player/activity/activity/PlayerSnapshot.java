@@ -0,0 +1,81 @@
+package com.sagre1.whisperplay.fling.media.player.activity.activity;
+
+import android.os.SystemClock;
+
+import com.amazon.whisperplay.fling.media.service.MediaPlayerInfo;
+import com.amazon.whisperplay.fling.media.service.MediaPlayerStatus;
+import com.amazon.whisperplay.fling.media.service.MediaPlayerStatus.MediaCondition;
+import com.amazon.whisperplay.fling.media.service.MediaPlayerStatus.MediaState;
+
+/**
+ * Immutable view of the player, published by the player after every change so readers
+ * never take its lock.
+ *
+ * The position is the {@link PositionClock} reading when the snapshot was made; while the
+ * clock runs, {@link #getPosition()} moves it on by the time elapsed since.
+ */
+final class PlayerSnapshot {
+
+    static final PlayerSnapshot EMPTY = new PlayerSnapshot(MediaState.NoSource, MediaCondition.Good,
+            false, false, false, false, 0.0, 0L, 0L, 0L, null, null);
+
+    final MediaState mState;
+    final MediaCondition mCondition;
+    /** A player and queue exist. */
+    final boolean mHasSource;
+    final boolean mImage;
+    /** The position moves on in real time. */
+    final boolean mRunning;
+    final boolean mMute;
+    final double mVolume;
+    final long mPosition;
+    final long mDuration;
+    /** elapsedRealtime the position is for. */
+    final long mSampledAt;
+    final MediaPlayerInfo mMediaInfo;
+    final WorkoutMetadata mMetadata;
+
+    PlayerSnapshot(MediaState state, MediaCondition condition, boolean hasSource, boolean image,
+                   boolean running, boolean mute, double volume, long position, long duration,
+                   long sampledAt, MediaPlayerInfo mediaInfo, WorkoutMetadata metadata) {
+        mState = state;
+        mCondition = condition;
+        mHasSource = hasSource;
+        mImage = image;
+        mRunning = running;
+        mMute = mute;
+        mVolume = volume;
+        mPosition = position;
+        mDuration = duration;
+        mSampledAt = sampledAt;
+        mMediaInfo = mediaInfo;
+        mMetadata = metadata;
+    }
+
+    /**
+     * Returns the position now, in ms.
+     */
+    long getPosition() {
+        if (!mRunning) {
+            return mPosition;
+        }
+        long position = mPosition + SystemClock.elapsedRealtime() - mSampledAt;
+        return mDuration > 0L ? Math.min(position, mDuration) : position;
+    }
+
+    /**
+     * Returns a new status for the Fling service, which keeps the object.
+     */
+    MediaPlayerStatus toStatus() {
+        MediaPlayerStatus status = new MediaPlayerStatus(mState, mCondition);
+        status.setMute(mMute);
+        status.setVolume(mVolume);
+        return status;
+    }
+
+    @Override
+    public String toString() {
+        return "PlayerSnapshot[" + mState + "/" + mCondition + " pos=" + mPosition + "/" + mDuration
+                + (mImage ? " image" : "") + "]";
+    }
+}
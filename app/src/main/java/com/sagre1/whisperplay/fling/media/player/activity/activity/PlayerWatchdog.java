@@ -0,0 +1,187 @@
+package com.sagre1.whisperplay.fling.media.player.activity.activity;
+
+import android.os.Handler;
+import android.os.SystemClock;
+
+/**
+ * Deadlines for the MediaPlayer operations that finish with a callback, prepare and seek.
+ * If the callback does not come in time the listener is told on the handler's thread.
+ *
+ * Firings are kept, with how long the operation had been running, in a small ring so the
+ * deadlines can be tuned. The longest operation that did complete in time is kept as well.
+ */
+class PlayerWatchdog {
+
+    public static final long DEFAULT_PREPARE_DEADLINE = 20000L;
+    public static final long DEFAULT_SEEK_DEADLINE = 10000L;
+
+    private static final int HISTORY_SIZE = 16;
+
+    public enum Kind {
+        Prepare, Seek
+    }
+
+    /**
+     * Told when an armed operation ran past its deadline.
+     */
+    public interface Listener {
+        /**
+         * @param kind
+         *            Operation that stalled
+         * @param elapsedMs
+         *            Time since it was armed
+         */
+        void onWatchdogFired(Kind kind, long elapsedMs);
+    }
+
+    private final Handler mHandler;
+    private final Listener mListener;
+    private final Kind[] mKinds = Kind.values();
+    private final long[] mDeadline = new long[mKinds.length];
+    private final long[] mArmedAt = new long[mKinds.length];
+    private final long[] mFiredCount = new long[mKinds.length];
+    private final long[] mLongestCompleted = new long[mKinds.length];
+    private final Runnable[] mTimeouts = new Runnable[mKinds.length];
+
+    // Recent firings, oldest overwritten first.
+    private final Kind[] mHistoryKind = new Kind[HISTORY_SIZE];
+    private final long[] mHistoryLatency = new long[HISTORY_SIZE];
+    private int mHistoryCount = 0;
+
+    /**
+     * Constructor.
+     *
+     * @param handler
+     *            Handler the deadlines run on; arm and disarm from its thread
+     * @param listener
+     *            Told about stalled operations
+     */
+    public PlayerWatchdog(Handler handler, Listener listener) {
+        mHandler = handler;
+        mListener = listener;
+        mDeadline[Kind.Prepare.ordinal()] = DEFAULT_PREPARE_DEADLINE;
+        mDeadline[Kind.Seek.ordinal()] = DEFAULT_SEEK_DEADLINE;
+        for (final Kind kind : mKinds) {
+            mTimeouts[kind.ordinal()] = new Runnable() {
+                @Override
+                public void run() {
+                    fire(kind);
+                }
+            };
+        }
+    }
+
+    /**
+     * Set how long an operation may run. Applies from the next arm.
+     *
+     * @param kind
+     *            Operation
+     * @param deadlineMs
+     *            Deadline in milliseconds, 0 disables the watchdog
+     */
+    public synchronized void setDeadline(Kind kind, long deadlineMs) {
+        if (deadlineMs < 0L) {
+            throw new IllegalArgumentException("Negative deadline");
+        }
+        mDeadline[kind.ordinal()] = deadlineMs;
+    }
+
+    public synchronized long getDeadline(Kind kind) {
+        return mDeadline[kind.ordinal()];
+    }
+
+    /**
+     * Start timing an operation, replacing any earlier one of the same kind.
+     */
+    public void arm(Kind kind) {
+        int i = kind.ordinal();
+        mHandler.removeCallbacks(mTimeouts[i]);
+        mArmedAt[i] = SystemClock.elapsedRealtime();
+        long deadline = getDeadline(kind);
+        if (deadline > 0L) {
+            mHandler.postDelayed(mTimeouts[i], deadline);
+        }
+    }
+
+    /**
+     * The operation finished in time.
+     *
+     * @return time it took, or -1 if it was not armed
+     */
+    public long disarm(Kind kind) {
+        int i = kind.ordinal();
+        if (mArmedAt[i] == 0L) {
+            return -1L;
+        }
+        mHandler.removeCallbacks(mTimeouts[i]);
+        long elapsed = SystemClock.elapsedRealtime() - mArmedAt[i];
+        mArmedAt[i] = 0L;
+        synchronized (this) {
+            if (elapsed > mLongestCompleted[i]) {
+                mLongestCompleted[i] = elapsed;
+            }
+        }
+        return elapsed;
+    }
+
+    /**
+     * Stop timing everything, without recording.
+     */
+    public void cancel() {
+        for (Kind kind : mKinds) {
+            mHandler.removeCallbacks(mTimeouts[kind.ordinal()]);
+            mArmedAt[kind.ordinal()] = 0L;
+        }
+    }
+
+    private void fire(Kind kind) {
+        int i = kind.ordinal();
+        if (mArmedAt[i] == 0L) {
+            return;
+        }
+        long elapsed = SystemClock.elapsedRealtime() - mArmedAt[i];
+        mArmedAt[i] = 0L;
+        synchronized (this) {
+            mFiredCount[i]++;
+            int slot = mHistoryCount % HISTORY_SIZE;
+            mHistoryKind[slot] = kind;
+            mHistoryLatency[slot] = elapsed;
+            mHistoryCount++;
+        }
+        mListener.onWatchdogFired(kind, elapsed);
+    }
+
+    public synchronized long getFiredCount(Kind kind) {
+        return mFiredCount[kind.ordinal()];
+    }
+
+    /**
+     * Returns the longest operation of that kind that completed before its deadline.
+     */
+    public synchronized long getLongestCompleted(Kind kind) {
+        return mLongestCompleted[kind.ordinal()];
+    }
+
+    /**
+     * Describe deadlines, counters and the recent firings, newest first.
+     */
+    @Override
+    public synchronized String toString() {
+        StringBuilder sb = new StringBuilder("PlayerWatchdog[");
+        for (Kind kind : mKinds) {
+            int i = kind.ordinal();
+            sb.append(kind.name())
+                    .append(" deadline=").append(mDeadline[i])
+                    .append(" fired=").append(mFiredCount[i])
+                    .append(" longestOk=").append(mLongestCompleted[i])
+                    .append("; ");
+        }
+        sb.append("recent=");
+        int n = Math.min(mHistoryCount, HISTORY_SIZE);
+        for (int k = 1; k <= n; k++) {
+            int slot = (mHistoryCount - k) % HISTORY_SIZE;
+            sb.append(mHistoryKind[slot].name()).append('@').append(mHistoryLatency[slot]).append("ms ");
+        }
+        return sb.append(']').toString();
+    }
+}
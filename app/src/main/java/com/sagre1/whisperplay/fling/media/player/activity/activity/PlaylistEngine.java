@@ -0,0 +1,308 @@
+package com.sagre1.whisperplay.fling.media.player.activity.activity;
+
+import android.util.Log;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Plays an uploaded {@link Workout} one set at a time, without the phone in the loop.
+ *
+ * Each step is one set of one lift. Moving to a step loads its media through
+ * setMediaSource with the same metadata the phone would have sent: the current lift, the
+ * next one (whose url the standby player preloads), then the timer and first exercise
+ * flags. After every move a background scheduler downloads the media of the next few
+ * steps into the cache, one at a time, dropping the plan if the cursor moves again.
+ *
+ * The engine's lock guards the cursor only. setMediaSource may sniff the media over the
+ * network, so it runs after the lock is released, with moves kept in order by a lock of
+ * their own; call the moves off the main thread.
+ */
+class PlaylistEngine {
+    private static final String TAG = "PlaylistEngine";
+
+    public static final int DEFAULT_PREFETCH_AHEAD = 2;
+
+    private final CustomMediaPlayerImplementation mPlayer;
+    private final ExecutorService mPrefetcher;
+    // Bumped by every move; a prefetch plan made for an older value stops.
+    private final AtomicInteger mGeneration = new AtomicInteger();
+    // Held by a move while it loads its step, so loads reach the player in order.
+    private final Object mMoveLock = new Object();
+
+    private Workout mWorkout;
+    private int mLift = 0;
+    private int mSet = 0;
+    private int mPrefetchAhead = DEFAULT_PREFETCH_AHEAD;
+    private volatile int mAdvances = 0;
+    private volatile int mPrefetched = 0;
+
+    /**
+     * Constructor.
+     *
+     * @param player
+     *            Player the steps are loaded into
+     */
+    public PlaylistEngine(CustomMediaPlayerImplementation player) {
+        mPlayer = player;
+        mPrefetcher = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "PlaylistPrefetch");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+
+    /**
+     * Replace the playlist and load its first step.
+     *
+     * @param workout
+     *            Workout to play
+     * @param prefetchAhead
+     *            Steps after the current one to download ahead, 0 disables
+     * @param autoPlay
+     *            Start playing the first step once loaded
+     */
+    public void load(Workout workout, int prefetchAhead, boolean autoPlay) throws IOException {
+        if (prefetchAhead < 0) {
+            throw new IllegalArgumentException("Negative prefetch distance");
+        }
+        synchronized (mMoveLock) {
+            Step step;
+            synchronized (this) {
+                mWorkout = workout;
+                mPrefetchAhead = prefetchAhead;
+                mLift = 0;
+                mSet = 0;
+                Log.i(TAG, "Loaded workout of " + workout.getLiftCount() + " lifts");
+                step = current(autoPlay);
+            }
+            show(step);
+        }
+    }
+
+    /**
+     * Move to the next set, or the first set of the next lift.
+     *
+     * @return false if the workout is already on its last step
+     */
+    public boolean next() throws IOException {
+        synchronized (mMoveLock) {
+            Step step;
+            synchronized (this) {
+                requireWorkout();
+                if (mSet + 1 < mWorkout.getLift(mLift).mSets) {
+                    mSet++;
+                } else if (mLift + 1 < mWorkout.getLiftCount()) {
+                    mLift++;
+                    mSet = 0;
+                } else {
+                    return false;
+                }
+                mAdvances++;
+                step = current(true);
+            }
+            show(step);
+            return true;
+        }
+    }
+
+    /**
+     * Move back one set.
+     *
+     * @return false if the workout is on its first step
+     */
+    public boolean previous() throws IOException {
+        synchronized (mMoveLock) {
+            Step step;
+            synchronized (this) {
+                requireWorkout();
+                if (mSet > 0) {
+                    mSet--;
+                } else if (mLift > 0) {
+                    mLift--;
+                    mSet = mWorkout.getLift(mLift).mSets - 1;
+                } else {
+                    return false;
+                }
+                mAdvances++;
+                step = current(true);
+            }
+            show(step);
+            return true;
+        }
+    }
+
+    /**
+     * Jump to the first set of a lift.
+     */
+    public void goTo(int lift) throws IOException {
+        synchronized (mMoveLock) {
+            Step step;
+            synchronized (this) {
+                requireWorkout();
+                if (lift < 0 || lift >= mWorkout.getLiftCount()) {
+                    throw new IllegalArgumentException("No lift " + lift);
+                }
+                mLift = lift;
+                mSet = 0;
+                mAdvances++;
+                step = current(true);
+            }
+            show(step);
+        }
+    }
+
+    /**
+     * Forget the playlist. What is playing carries on.
+     */
+    public synchronized void clear() {
+        mWorkout = null;
+        mGeneration.incrementAndGet();
+    }
+
+    /**
+     * Stop prefetching for good.
+     */
+    public void shutdown() {
+        mGeneration.incrementAndGet();
+        mPrefetcher.shutdownNow();
+        Log.i(TAG, "Shut down. " + this);
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "PlaylistEngine[lift=" + mLift + " set=" + mSet
+                + " lifts=" + (mWorkout != null ? mWorkout.getLiftCount() : 0)
+                + " advances=" + mAdvances + " prefetched=" + mPrefetched + "]";
+    }
+
+    private void requireWorkout() {
+        if (mWorkout == null) {
+            throw new IllegalStateException("No workout loaded");
+        }
+    }
+
+    /*
+     * The metadata and prefetch plan of the current step. Called with the lock held; the
+     * step is loaded by show once it is released.
+     */
+    private Step current(boolean autoPlay) {
+        Workout.Lift lift = mWorkout.getLift(mLift);
+        boolean first = mLift == 0 && mSet == 0;
+        int[] next = step(mLift, mSet, 1);
+        StringBuilder metadata = new StringBuilder();
+        try {
+            metadata.append(lift.toMetadata());
+            if (next != null) {
+                metadata.append(mWorkout.getLift(next[0]).toMetadata());
+            } else {
+                // The viewer always reads a next lift.
+                metadata.append(new JSONObject().put("title", "").put("reps", 0).put("weight", 0));
+            }
+            metadata.append(new JSONObject().put("startTimerCast", !first));
+            metadata.append(new JSONObject().put("firstExercise", first));
+        } catch (JSONException e) {
+            throw new IllegalStateException(e);
+        }
+        Log.d(TAG, "Step lift=" + mLift + " set=" + mSet + " " + lift.mTitle);
+        // A new plan; the one for the step before stops.
+        int generation = mGeneration.incrementAndGet();
+        return new Step(lift.mUrl, metadata.toString(), autoPlay, generation, prefetchPlan());
+    }
+
+    /*
+     * Load a step, then prefetch after it unless the playlist moved or was cleared meanwhile.
+     */
+    private void show(Step step) throws IOException {
+        mPlayer.setMediaSource(step.mUrl, step.mMetadata, step.mAutoPlay, false);
+        schedulePrefetch(step.mGeneration, step.mPrefetch);
+    }
+
+    /*
+     * Returns {lift, set} count steps after the given one, or null past the end.
+     */
+    private int[] step(int lift, int set, int count) {
+        for (int i = 0; i < count; i++) {
+            if (set + 1 < mWorkout.getLift(lift).mSets) {
+                set++;
+            } else if (lift + 1 < mWorkout.getLiftCount()) {
+                lift++;
+                set = 0;
+            } else {
+                return null;
+            }
+        }
+        return new int[] {lift, set};
+    }
+
+    /*
+     * Media of the next few steps, other than the current step's.
+     */
+    private Set<String> prefetchPlan() {
+        Set<String> urls = new LinkedHashSet<String>();
+        String current = mWorkout.getLift(mLift).mUrl;
+        for (int i = 1; i <= mPrefetchAhead; i++) {
+            int[] ahead = step(mLift, mSet, i);
+            if (ahead == null) {
+                break;
+            }
+            String url = mWorkout.getLift(ahead[0]).mUrl;
+            if (!url.equals(current)) {
+                urls.add(url);
+            }
+        }
+        return urls;
+    }
+
+    private void schedulePrefetch(final int generation, final Set<String> urls) {
+        if (urls.isEmpty() || mGeneration.get() != generation) {
+            return;
+        }
+        mPrefetcher.execute(new Runnable() {
+            @Override
+            public void run() {
+                for (String url : urls) {
+                    if (mGeneration.get() != generation) {
+                        return;
+                    }
+                    try {
+                        mPlayer.prefetch(url);
+                        mPrefetched++;
+                    } catch (IOException e) {
+                        Log.w(TAG, "Cannot prefetch " + url, e);
+                    }
+                }
+            }
+        });
+    }
+
+    /*
+     * A step to load, made under the lock.
+     */
+    private static final class Step {
+        final String mUrl;
+        final String mMetadata;
+        final boolean mAutoPlay;
+        final int mGeneration;
+        final Set<String> mPrefetch;
+
+        Step(String url, String metadata, boolean autoPlay, int generation, Set<String> prefetch) {
+            mUrl = url;
+            mMetadata = metadata;
+            mAutoPlay = autoPlay;
+            mGeneration = generation;
+            mPrefetch = prefetch;
+        }
+    }
+}
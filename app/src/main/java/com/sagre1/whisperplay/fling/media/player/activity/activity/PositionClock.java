@@ -0,0 +1,110 @@
+package com.sagre1.whisperplay.fling.media.player.activity.activity;
+
+import com.amazon.whisperplay.fling.media.service.MediaPlayerStatus.MediaCondition;
+import com.amazon.whisperplay.fling.media.service.MediaPlayerStatus.MediaState;
+
+/**
+ * Playback position kept from occasional MediaPlayer readings.
+ *
+ * Each reading anchors the clock at a position and an elapsedRealtime, from which the
+ * position moves on in real time while playing and not buffering. A new reading is needed
+ * when the state or condition changes, after a seek, and every {@link #RESYNC_INTERVAL}.
+ * Readings taken while the anchor still held are compared with the interpolated position,
+ * and that drift is recorded.
+ */
+class PositionClock {
+
+    /** Longest time between readings, in ms. */
+    public static final long RESYNC_INTERVAL = 5000L;
+
+    private boolean mValid = false;
+    private MediaState mState = null;
+    private MediaCondition mCondition = null;
+    private boolean mRunning = false;
+    private long mPosition = 0L;
+    private long mDuration = 0L;
+    private long mSyncedAt = 0L;
+
+    private long mReadings = 0L;
+    private long mDriftSamples = 0L;
+    private long mDriftTotal = 0L;
+    private long mDriftMax = 0L;
+    private long mDriftLast = 0L;
+
+    /**
+     * Returns true if the clock needs a reading for this state and condition.
+     */
+    public synchronized boolean needsSync(MediaState state, MediaCondition condition, long now) {
+        return !mValid || state != mState || condition != mCondition
+                || now - mSyncedAt >= RESYNC_INTERVAL;
+    }
+
+    /**
+     * Anchor on a reading of the player.
+     *
+     * @param running
+     *            The position moves on from here in real time
+     */
+    public synchronized void sync(long position, long duration, MediaState state,
+                                  MediaCondition condition, boolean running, long now) {
+        if (mValid && state == mState && condition == mCondition) {
+            long drift = position - positionAt(now);
+            mDriftSamples++;
+            mDriftTotal += Math.abs(drift);
+            mDriftMax = Math.max(mDriftMax, Math.abs(drift));
+            mDriftLast = drift;
+        }
+        mReadings++;
+        mValid = true;
+        mState = state;
+        mCondition = condition;
+        mRunning = running;
+        mPosition = position;
+        mDuration = duration;
+        mSyncedAt = now;
+    }
+
+    /**
+     * Forget the anchor, after a seek or a new source.
+     */
+    public synchronized void invalidate() {
+        mValid = false;
+    }
+
+    public synchronized long getPosition(long now) {
+        return positionAt(now);
+    }
+
+    public synchronized long getDuration() {
+        return mDuration;
+    }
+
+    public synchronized boolean isRunning() {
+        return mValid && mRunning;
+    }
+
+    /**
+     * Returns the mean absolute drift of the interpolated position, in ms.
+     */
+    public synchronized long getMeanDrift() {
+        return mDriftSamples > 0L ? mDriftTotal / mDriftSamples : 0L;
+    }
+
+    public synchronized long getMaxDrift() {
+        return mDriftMax;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "PositionClock[readings=" + mReadings + " drift(mean=" + getMeanDrift()
+                + " max=" + mDriftMax + " last=" + mDriftLast + " n=" + mDriftSamples + ")]";
+    }
+
+    private long positionAt(long now) {
+        if (!mRunning) {
+            return mPosition;
+        }
+        long position = mPosition + now - mSyncedAt;
+        return mDuration > 0L ? Math.min(position, mDuration) : position;
+    }
+}
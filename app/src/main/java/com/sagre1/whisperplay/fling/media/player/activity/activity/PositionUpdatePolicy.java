@@ -0,0 +1,98 @@
+package com.sagre1.whisperplay.fling.media.player.activity.activity;
+
+import android.os.SystemClock;
+
+import com.amazon.whisperplay.fling.media.service.MediaPlayerStatus.MediaCondition;
+import com.amazon.whisperplay.fling.media.service.MediaPlayerStatus.MediaState;
+
+/**
+ * Decides which periodic position updates are worth sending.
+ *
+ * Status changes always go out. In adaptive mode a periodic update while playing is only
+ * sent when the {@link PositionClock} position has drifted from what a listener extrapolates
+ * from the last one it got, or nothing has been sent for {@link #MAX_SILENCE}. Updates also
+ * come less often while the viewer is not on screen; none are sent while paused.
+ */
+class PositionUpdatePolicy {
+
+    /** Drift from the extrapolated position that is sent, in ms. */
+    public static final long DRIFT_TOLERANCE = 500L;
+    /** Longest time without any update while playing, in ms. */
+    public static final long MAX_SILENCE = 30000L;
+    /** Interval multiplier while the viewer is hidden. */
+    public static final int HIDDEN_BACKOFF = 4;
+    // Rough size of one status as the Fling service sends it.
+    private static final int STATUS_BYTES_ESTIMATE = 96;
+
+    private boolean mAdaptive = true;
+    private MediaState mSentState = null;
+    private MediaCondition mSentCondition = null;
+    private long mSentPosition = 0L;
+    private long mSentAt = 0L;
+    private long mSent = 0L;
+    private long mSkipped = 0L;
+    private long mBytesSaved = 0L;
+
+    /**
+     * Switch between adaptive updates and an update every interval.
+     */
+    public synchronized void setAdaptive(boolean adaptive) {
+        mAdaptive = adaptive;
+    }
+
+    public synchronized boolean isAdaptive() {
+        return mAdaptive;
+    }
+
+    /**
+     * Note a status sent to the listeners.
+     */
+    public synchronized void onSent(PlayerSnapshot snapshot, long position, int listeners) {
+        mSentState = snapshot.mState;
+        mSentCondition = snapshot.mCondition;
+        mSentPosition = position;
+        mSentAt = SystemClock.elapsedRealtime();
+        mSent += listeners;
+    }
+
+    /**
+     * Returns whether a periodic update should be sent, counting it as saved if not.
+     *
+     * @param snapshot
+     *            Freshly sampled state
+     * @param listeners
+     *            Listeners it would go to
+     */
+    public synchronized boolean shouldSend(PlayerSnapshot snapshot, int listeners) {
+        if (!mAdaptive || snapshot.mState != MediaState.Playing
+                || snapshot.mState != mSentState || snapshot.mCondition != mSentCondition) {
+            return true;
+        }
+        long elapsed = snapshot.mSampledAt - mSentAt;
+        if (elapsed >= MAX_SILENCE
+                || Math.abs(snapshot.mPosition - (mSentPosition + elapsed)) > DRIFT_TOLERANCE) {
+            return true;
+        }
+        mSkipped += listeners;
+        mBytesSaved += (long) listeners * STATUS_BYTES_ESTIMATE;
+        return false;
+    }
+
+    /**
+     * Returns the delay before the next periodic update.
+     *
+     * @param interval
+     *            Interval set by the client
+     * @param viewerHidden
+     *            Nothing of the media is on screen
+     */
+    public synchronized long nextInterval(long interval, boolean viewerHidden) {
+        return mAdaptive && viewerHidden ? interval * HIDDEN_BACKOFF : interval;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "PositionUpdatePolicy[" + (mAdaptive ? "adaptive" : "periodic") + " sent=" + mSent
+                + " saved=" + mSkipped + " bytesSaved=" + mBytesSaved + "]";
+    }
+}
@@ -0,0 +1,215 @@
+package com.sagre1.whisperplay.fling.media.player.activity.activity;
+
+import android.util.Log;
+
+import com.amazon.whisperplay.fling.media.service.CustomMediaPlayer.StatusListener;
+import com.amazon.whisperplay.fling.media.service.MediaPlayerStatus;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Delivers status changes to the registered listeners off the caller's thread.
+ *
+ * Each listener has its own bounded queue, drained in order by at most one pool thread at
+ * a time, so a slow or dead remote listener only delays itself. An event with the same
+ * state and condition as the one still waiting at the tail of a queue replaces it, since
+ * only its position is newer; when a queue is full the oldest event is dropped.
+ */
+class StatusDispatcher {
+    private static final String TAG = "StatusDispatcher";
+
+    public static final int DEFAULT_QUEUE_SIZE = 8;
+
+    /**
+     * A status, copied when it was sent.
+     */
+    static final class Event {
+        final MediaPlayerStatus mStatus;
+        final long mPosition;
+
+        Event(MediaPlayerStatus status, long position) {
+            mStatus = status;
+            mPosition = position;
+        }
+
+        boolean supersedes(Event older) {
+            return mStatus.getState() == older.mStatus.getState()
+                    && mStatus.getCondition() == older.mStatus.getCondition()
+                    && mStatus.isMute() == older.mStatus.isMute()
+                    && mStatus.getVolume() == older.mStatus.getVolume();
+        }
+    }
+
+    private final CopyOnWriteArrayList<Sink> mSinks = new CopyOnWriteArrayList<Sink>();
+    private final ExecutorService mExecutor;
+    private final int mQueueSize;
+    private final AtomicInteger mDispatched = new AtomicInteger();
+    private final AtomicInteger mDelivered = new AtomicInteger();
+    private final AtomicInteger mMerged = new AtomicInteger();
+    private final AtomicInteger mDropped = new AtomicInteger();
+    private final AtomicInteger mFailed = new AtomicInteger();
+
+    public StatusDispatcher() {
+        this(DEFAULT_QUEUE_SIZE);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param queueSize
+     *            Events held per listener
+     */
+    public StatusDispatcher(int queueSize) {
+        if (queueSize < 1) {
+            throw new IllegalArgumentException("Bad queue size " + queueSize);
+        }
+        mQueueSize = queueSize;
+        // Threads are only made for listeners with work; idle ones go after a minute.
+        mExecutor = Executors.newCachedThreadPool(new ThreadFactory() {
+            private final AtomicInteger mCount = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "StatusDispatch-" + mCount.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+
+    public void addListener(StatusListener listener) {
+        if (listener == null) {
+            throw new IllegalArgumentException("No listener");
+        }
+        if (find(listener) == null) {
+            mSinks.add(new Sink(listener));
+        }
+    }
+
+    public void removeListener(StatusListener listener) {
+        Sink sink = find(listener);
+        if (sink != null) {
+            mSinks.remove(sink);
+            sink.clear();
+        }
+    }
+
+    public boolean hasListeners() {
+        return !mSinks.isEmpty();
+    }
+
+    public int getListenerCount() {
+        return mSinks.size();
+    }
+
+    /**
+     * Queue a status for every listener. Never blocks on them.
+     */
+    public void dispatch(MediaPlayerStatus status, long position) {
+        if (mSinks.isEmpty()) {
+            return;
+        }
+        Event event = new Event(status, position);
+        mDispatched.incrementAndGet();
+        for (Sink sink : mSinks) {
+            sink.offer(event);
+        }
+    }
+
+    /**
+     * Drop the listeners and what they have not been sent.
+     */
+    public void shutdown() {
+        for (Sink sink : mSinks) {
+            sink.clear();
+        }
+        mSinks.clear();
+        mExecutor.shutdownNow();
+        Log.i(TAG, "Shut down. " + this);
+    }
+
+    @Override
+    public String toString() {
+        return "StatusDispatcher[listeners=" + mSinks.size() + " dispatched=" + mDispatched
+                + " delivered=" + mDelivered + " merged=" + mMerged + " dropped=" + mDropped
+                + " failed=" + mFailed + "]";
+    }
+
+    private Sink find(StatusListener listener) {
+        for (Sink sink : mSinks) {
+            if (sink.mListener == listener) {
+                return sink;
+            }
+        }
+        return null;
+    }
+
+    /*
+     * One listener, its queue, and whether a drain is scheduled.
+     */
+    private final class Sink implements Runnable {
+        private final StatusListener mListener;
+        private final ArrayDeque<Event> mQueue = new ArrayDeque<Event>();
+        private boolean mScheduled = false;
+
+        Sink(StatusListener listener) {
+            mListener = listener;
+        }
+
+        void offer(Event event) {
+            synchronized (this) {
+                Event tail = mQueue.peekLast();
+                if (tail != null && event.supersedes(tail)) {
+                    mQueue.pollLast();
+                    mMerged.incrementAndGet();
+                } else if (mQueue.size() >= mQueueSize) {
+                    mQueue.pollFirst();
+                    mDropped.incrementAndGet();
+                }
+                mQueue.addLast(event);
+                if (mScheduled) {
+                    return;
+                }
+                mScheduled = true;
+            }
+            try {
+                mExecutor.execute(this);
+            } catch (RejectedExecutionException e) {
+                // Shut down.
+                clear();
+            }
+        }
+
+        synchronized void clear() {
+            mQueue.clear();
+            mScheduled = false;
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                Event event;
+                synchronized (this) {
+                    event = mQueue.pollFirst();
+                    if (event == null) {
+                        mScheduled = false;
+                        return;
+                    }
+                }
+                try {
+                    mListener.onStatusChange(event.mStatus, event.mPosition);
+                    mDelivered.incrementAndGet();
+                } catch (Exception e) {
+                    mFailed.incrementAndGet();
+                    Log.w(TAG, "Exception in status change event", e);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,267 @@
+package com.sagre1.whisperplay.fling.media.player.activity.activity;
+
+import android.content.Context;
+import android.content.Intent;
+import android.graphics.ImageFormat;
+import android.media.Image;
+import android.media.ImageReader;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.SystemClock;
+import android.util.Log;
+import android.view.Surface;
+import android.view.SurfaceHolder;
+
+/**
+ * Decides which surface the active player renders to, and when the viewer has to be launched.
+ *
+ * While the {@link MediaViewer} surface is valid, video goes there. When the viewer pauses
+ * or its surface is destroyed, video moves to a retained off-screen sink that drops frames,
+ * so the player keeps a surface and a load can prepare before the viewer is back. The
+ * viewer is launched only when none exists and no launch is pending; later lifts reuse the
+ * surface that is there.
+ */
+class ViewerSurfaceManager {
+    private static final String TAG = "ViewerSurfaceManager";
+
+    // A launch that hasn't bound back by then is taken to have failed.
+    private static final long LAUNCH_TIMEOUT = 10000L;
+    // The decoder sets its own buffer size; this only sizes the sink until then.
+    private static final int SINK_WIDTH = 320;
+    private static final int SINK_HEIGHT = 180;
+    private static final int SINK_IMAGES = 2;
+
+    public enum ViewerState {
+        Detached, Launching, Paused, Attached
+    }
+
+    /**
+     * Told, outside the manager's lock, when the player should render somewhere else.
+     */
+    public interface Listener {
+        /**
+         * @param surface
+         *            Surface to render to, or null if there is none
+         */
+        void onSurfaceChanged(Surface surface);
+    }
+
+    private final Context mContext;
+    private final Listener mListener;
+    private SurfaceHolder mHolder;
+    // Set from surfaceDestroyed on; the surface still reads as valid while it runs.
+    private boolean mHolderDestroyed = false;
+    private boolean mViewerAlive = false;
+    private long mLaunchedAt = 0L;
+    private Surface mCurrent;
+
+    private HandlerThread mSinkThread;
+    private ImageReader mSink;
+    private Surface mSinkSurface;
+
+    private long mLaunches = 0L;
+    private long mLaunchesAvoided = 0L;
+    private long mSwitches = 0L;
+
+    private final SurfaceHolder.Callback mCallback = new SurfaceHolder.Callback() {
+        @Override
+        public void surfaceCreated(SurfaceHolder holder) {
+            synchronized (ViewerSurfaceManager.this) {
+                mHolderDestroyed = false;
+            }
+            retarget();
+        }
+
+        @Override
+        public void surfaceChanged(SurfaceHolder holder, int format, int width, int height) {
+        }
+
+        @Override
+        public void surfaceDestroyed(SurfaceHolder holder) {
+            // The player must be off this surface before we return.
+            synchronized (ViewerSurfaceManager.this) {
+                mHolderDestroyed = true;
+            }
+            retarget();
+        }
+    };
+
+    /**
+     * Constructor.
+     *
+     * @param ctx
+     *            Context to launch the viewer from
+     * @param listener
+     *            Applies surface changes to the active player
+     */
+    public ViewerSurfaceManager(Context ctx, Listener listener) {
+        mContext = ctx;
+        mListener = listener;
+    }
+
+    /**
+     * The viewer's surface holder, or null when the viewer pauses.
+     */
+    public void setSurfaceHolder(SurfaceHolder holder) {
+        synchronized (this) {
+            if (holder == mHolder) {
+                return;
+            }
+            if (mHolder != null) {
+                mHolder.removeCallback(mCallback);
+            }
+            mHolder = holder;
+            mHolderDestroyed = false;
+            if (mHolder != null) {
+                mHolder.addCallback(mCallback);
+            }
+        }
+        retarget();
+    }
+
+    /**
+     * The viewer bound to the service, or is being destroyed.
+     */
+    public void setViewerAlive(boolean alive) {
+        synchronized (this) {
+            mViewerAlive = alive;
+            mLaunchedAt = 0L;
+            if (!alive && mHolder != null) {
+                mHolder.removeCallback(mCallback);
+                mHolder = null;
+            }
+        }
+        retarget();
+    }
+
+    /**
+     * Returns the surface the active player should render to, or null.
+     */
+    public synchronized Surface getSurface() {
+        if (mCurrent == null) {
+            mCurrent = target();
+        }
+        return mCurrent;
+    }
+
+    public synchronized ViewerState getState() {
+        if (!mViewerAlive) {
+            return isLaunchPending() ? ViewerState.Launching : ViewerState.Detached;
+        }
+        return hasViewerSurface() ? ViewerState.Attached : ViewerState.Paused;
+    }
+
+    /**
+     * Make sure there is a viewer for foreground media, launching it only if there is none
+     * and no launch is pending.
+     *
+     * @param serviceClassName
+     *            Service the viewer binds back to
+     * @return true if the viewer was launched
+     */
+    public boolean requestViewer(String serviceClassName) {
+        synchronized (this) {
+            if (mViewerAlive || isLaunchPending()) {
+                if (!hasViewerSurface()) {
+                    mLaunchesAvoided++;
+                }
+                return false;
+            }
+            mLaunchedAt = SystemClock.elapsedRealtime();
+            mLaunches++;
+        }
+        Intent intent = new Intent(mContext, MediaViewer.class);
+        intent.setFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
+        intent.putExtra("actualServiceClassname", serviceClassName);
+        mContext.startActivity(intent);
+        return true;
+    }
+
+    /**
+     * Drop the viewer surface and the sink.
+     */
+    public synchronized void release() {
+        if (mHolder != null) {
+            mHolder.removeCallback(mCallback);
+            mHolder = null;
+        }
+        mCurrent = null;
+        if (mSink != null) {
+            mSink.close();
+            mSink = null;
+            mSinkSurface = null;
+        }
+        if (mSinkThread != null) {
+            mSinkThread.quitSafely();
+            mSinkThread = null;
+        }
+        Log.i(TAG, "Released. " + this);
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "ViewerSurfaceManager[state=" + getState() + " launches=" + mLaunches
+                + " launchesAvoided=" + mLaunchesAvoided + " switches=" + mSwitches + "]";
+    }
+
+    /*
+     * Work out where video should go and tell the listener if that changed.
+     */
+    private void retarget() {
+        Surface target;
+        synchronized (this) {
+            target = target();
+            if (target == mCurrent) {
+                return;
+            }
+            mCurrent = target;
+            mSwitches++;
+        }
+        Log.d(TAG, "Rendering to " + (target == mSinkSurface ? "retained sink" : "viewer"));
+        mListener.onSurfaceChanged(target);
+    }
+
+    private Surface target() {
+        return hasViewerSurface() ? mHolder.getSurface() : sink();
+    }
+
+    private boolean hasViewerSurface() {
+        return mHolder != null && !mHolderDestroyed && mHolder.getSurface() != null
+                && mHolder.getSurface().isValid();
+    }
+
+    private boolean isLaunchPending() {
+        return mLaunchedAt != 0L && SystemClock.elapsedRealtime() - mLaunchedAt < LAUNCH_TIMEOUT;
+    }
+
+    /*
+     * Off-screen surface that drops every frame as it arrives.
+     */
+    private Surface sink() {
+        if (mSinkSurface == null) {
+            try {
+                mSinkThread = new HandlerThread("RetainedSurface");
+                mSinkThread.start();
+                mSink = ImageReader.newInstance(SINK_WIDTH, SINK_HEIGHT, ImageFormat.YUV_420_888, SINK_IMAGES);
+                mSink.setOnImageAvailableListener(new ImageReader.OnImageAvailableListener() {
+                    @Override
+                    public void onImageAvailable(ImageReader reader) {
+                        Image image = reader.acquireLatestImage();
+                        if (image != null) {
+                            image.close();
+                        }
+                    }
+                }, new Handler(mSinkThread.getLooper()));
+                mSinkSurface = mSink.getSurface();
+            } catch (RuntimeException e) {
+                Log.e(TAG, "Cannot create retained surface", e);
+                if (mSinkThread != null) {
+                    mSinkThread.quitSafely();
+                    mSinkThread = null;
+                }
+                mSink = null;
+            }
+        }
+        return mSinkSurface;
+    }
+}
@@ -0,0 +1,153 @@
+package com.sagre1.whisperplay.fling.media.player.activity.activity;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.media.AudioManager;
+import android.util.Log;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Volume and mute of the music stream, kept in memory.
+ *
+ * The AudioManager is asked once for the maximum and the current volume. After that the
+ * volume follows the system's volume change broadcasts and our own changes, so building a
+ * status costs no call into the audio service. Mute has no public broadcast, and only this
+ * player changes it.
+ */
+class VolumeCache {
+    private static final String TAG = "VolumeCache";
+
+    // Hidden in the SDK, but sent by every release.
+    private static final String VOLUME_CHANGED_ACTION = "android.media.VOLUME_CHANGED_ACTION";
+    private static final String EXTRA_VOLUME_STREAM_TYPE = "android.media.EXTRA_VOLUME_STREAM_TYPE";
+    private static final String EXTRA_VOLUME_STREAM_VALUE = "android.media.EXTRA_VOLUME_STREAM_VALUE";
+
+    /**
+     * Told when the volume changed outside this player.
+     */
+    public interface Listener {
+        void onVolumeChanged();
+    }
+
+    private final Context mContext;
+    private final AudioManager mAudio;
+    private final Listener mListener;
+    private final AtomicLong mAvoided = new AtomicLong();
+    private final AtomicLong mQueries = new AtomicLong();
+    private final AtomicLong mEvents = new AtomicLong();
+    private volatile int mMax = 0;
+    // -1 until first read, and again if a broadcast came without a value.
+    private volatile int mIndex = -1;
+    private volatile boolean mMute = false;
+    private boolean mRegistered = false;
+
+    private final BroadcastReceiver mReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            if (intent.getIntExtra(EXTRA_VOLUME_STREAM_TYPE, -1) != AudioManager.STREAM_MUSIC) {
+                return;
+            }
+            mEvents.incrementAndGet();
+            int index = intent.getIntExtra(EXTRA_VOLUME_STREAM_VALUE, -1);
+            if (index == mIndex) {
+                return;
+            }
+            mIndex = index;
+            if (mListener != null) {
+                mListener.onVolumeChanged();
+            }
+        }
+    };
+
+    /**
+     * Constructor.
+     *
+     * @param listener
+     *            Told of outside changes, or null
+     */
+    public VolumeCache(Context ctx, AudioManager audio, Listener listener) {
+        mContext = ctx;
+        mAudio = audio;
+        mListener = listener;
+    }
+
+    /**
+     * Start following the system volume.
+     */
+    public synchronized void start() {
+        if (!mRegistered) {
+            mContext.registerReceiver(mReceiver, new IntentFilter(VOLUME_CHANGED_ACTION));
+            mRegistered = true;
+        }
+    }
+
+    public synchronized void stop() {
+        if (mRegistered) {
+            mContext.unregisterReceiver(mReceiver);
+            mRegistered = false;
+        }
+        Log.i(TAG, "Stopped. " + this);
+    }
+
+    /**
+     * Returns the volume, 0 to 1.
+     */
+    public double getVolume() {
+        int max = mMax;
+        if (max == 0) {
+            max = mAudio.getStreamMaxVolume(AudioManager.STREAM_MUSIC);
+            mQueries.incrementAndGet();
+            mMax = max;
+            Log.d(TAG, "Max Volume set to:" + max);
+        }
+        int index = mIndex;
+        if (index < 0) {
+            index = mAudio.getStreamVolume(AudioManager.STREAM_MUSIC);
+            mQueries.incrementAndGet();
+            mIndex = index;
+        } else {
+            mAvoided.incrementAndGet();
+        }
+        return max > 0 ? (double) index / max : 0.0;
+    }
+
+    /**
+     * Set the volume, 0 to 1.
+     *
+     * @return the stream index set
+     */
+    public int setVolume(double volume) {
+        if (mMax == 0) {
+            getVolume();
+        }
+        int index = (int) (volume * mMax);
+        mAudio.setStreamVolume(AudioManager.STREAM_MUSIC, index, AudioManager.FLAG_SHOW_UI);
+        mIndex = index;
+        return index;
+    }
+
+    public boolean isMute() {
+        return mMute;
+    }
+
+    public void setMute(boolean mute) {
+        mAudio.setStreamMute(AudioManager.STREAM_MUSIC, mute);
+        mMute = mute;
+    }
+
+    /**
+     * Returns the audio service calls saved by reading the cache.
+     */
+    public long getAvoidedCount() {
+        return mAvoided.get();
+    }
+
+    @Override
+    public String toString() {
+        return "VolumeCache[index=" + mIndex + "/" + mMax + " mute=" + mMute + " avoided=" + mAvoided
+                + " queries=" + mQueries + " events=" + mEvents + "]";
+    }
+}
@@ -0,0 +1,111 @@
+package com.sagre1.whisperplay.fling.media.player.activity.activity;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A whole workout, as uploaded by the phone in one message: the lifts in order, each with
+ * its sets, reps, weight, rest period and media.
+ *
+ * Lifts use the keys of the per-lift metadata sent with setMediaSource, plus "url" and
+ * "sets":
+ * <pre>
+ * {"lifts": [{"title": "Squat", "description": "...", "type": "video/mp4",
+ *             "url": "http://...", "sets": 3, "reps": 5, "weight": 225,
+ *             "restPeriodAfter": 180}, ...]}
+ * </pre>
+ */
+public final class Workout {
+
+    /**
+     * One lift, done for a number of sets.
+     */
+    public static final class Lift {
+        public final String mTitle;
+        public final String mDescription;
+        public final String mType;
+        public final String mUrl;
+        public final int mSets;
+        public final int mReps;
+        public final int mWeight;
+        public final int mRestSeconds;
+
+        Lift(String title, String description, String type, String url, int sets, int reps,
+             int weight, int restSeconds) {
+            mTitle = title;
+            mDescription = description;
+            mType = type;
+            mUrl = url;
+            mSets = sets;
+            mReps = reps;
+            mWeight = weight;
+            mRestSeconds = restSeconds;
+        }
+
+        /**
+         * Returns the lift as the per-lift metadata the viewer reads.
+         */
+        public JSONObject toMetadata() throws JSONException {
+            JSONObject json = new JSONObject();
+            json.put("title", mTitle);
+            json.put("description", mDescription);
+            json.put("type", mType);
+            json.put("url", mUrl);
+            json.put("reps", mReps);
+            json.put("weight", mWeight);
+            json.put("restPeriodAfter", mRestSeconds);
+            return json;
+        }
+
+        static Lift fromJson(JSONObject json) throws JSONException {
+            String url = json.getString("url");
+            if (url.length() == 0) {
+                throw new JSONException("Lift without media url");
+            }
+            int sets = json.optInt("sets", 1);
+            if (sets < 1) {
+                throw new JSONException("Lift needs at least one set");
+            }
+            return new Lift(json.getString("title"), json.optString("description"),
+                    json.optString("type"), url, sets, json.optInt("reps"), json.optInt("weight"),
+                    json.optInt("restPeriodAfter"));
+        }
+    }
+
+    private final List<Lift> mLifts;
+
+    private Workout(List<Lift> lifts) {
+        mLifts = Collections.unmodifiableList(lifts);
+    }
+
+    /**
+     * Parse an uploaded workout.
+     *
+     * @throws JSONException
+     *             if it has no lifts, or a lift lacks a title or media
+     */
+    static Workout fromJson(JSONObject json) throws JSONException {
+        JSONArray array = json.getJSONArray("lifts");
+        if (array.length() == 0) {
+            throw new JSONException("Workout without lifts");
+        }
+        List<Lift> lifts = new ArrayList<Lift>(array.length());
+        for (int i = 0; i < array.length(); i++) {
+            lifts.add(Lift.fromJson(array.getJSONObject(i)));
+        }
+        return new Workout(lifts);
+    }
+
+    public int getLiftCount() {
+        return mLifts.size();
+    }
+
+    public Lift getLift(int index) {
+        return mLifts.get(index);
+    }
+}
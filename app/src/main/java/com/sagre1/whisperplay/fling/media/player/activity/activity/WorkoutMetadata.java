@@ -0,0 +1,22 @@
+package com.sagre1.whisperplay.fling.media.player.activity.activity;
+
+/**
+ * The metadata sent with a lift, parsed once by {@link MetadataParser} when the media source
+ * is set and shared with the viewer as is.
+ */
+public final class WorkoutMetadata {
+
+    public final Workout.Lift mCurrent;
+    /** Lift after this one, or null. */
+    public final Workout.Lift mNext;
+    public final boolean mStartTimer;
+    public final boolean mFirstExercise;
+
+    WorkoutMetadata(Workout.Lift current, Workout.Lift next, boolean startTimer,
+                    boolean firstExercise) {
+        mCurrent = current;
+        mNext = next;
+        mStartTimer = startTimer;
+        mFirstExercise = firstExercise;
+    }
+}
@@ -0,0 +1,84 @@
+package android.content;
+
+import android.content.res.Resources;
+import android.media.AudioManager;
+import android.os.Looper;
+
+import java.io.File;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Fake of the framework's Context, with its files under one directory. Broadcasts are
+ * delivered at once to the receivers registered for their action; activities are not
+ * started.
+ */
+public class Context {
+    public static final String AUDIO_SERVICE = "audio";
+
+    private final File mDir;
+    private final Resources mResources = new Resources();
+    private final AudioManager mAudio = new AudioManager();
+    private final CopyOnWriteArrayList<Object[]> mReceivers = new CopyOnWriteArrayList<Object[]>();
+
+    /**
+     * @param dir
+     *            Where the files and cache directories are made
+     */
+    public Context(File dir) {
+        mDir = dir;
+    }
+
+    public Context getApplicationContext() {
+        return this;
+    }
+
+    public Looper getMainLooper() {
+        return Looper.getMainLooper();
+    }
+
+    public File getFilesDir() {
+        return dir("files");
+    }
+
+    public File getCacheDir() {
+        return dir("cache");
+    }
+
+    public Resources getResources() {
+        return mResources;
+    }
+
+    public Object getSystemService(String name) {
+        return AUDIO_SERVICE.equals(name) ? mAudio : null;
+    }
+
+    public Intent registerReceiver(BroadcastReceiver receiver, IntentFilter filter) {
+        mReceivers.add(new Object[] {receiver, filter});
+        return null;
+    }
+
+    public void unregisterReceiver(BroadcastReceiver receiver) {
+        for (Object[] registration : mReceivers) {
+            if (registration[0] == receiver) {
+                mReceivers.remove(registration);
+            }
+        }
+    }
+
+    public void sendBroadcast(Intent intent) {
+        for (Object[] registration : mReceivers) {
+            if (((IntentFilter) registration[1]).hasAction(intent.getAction())) {
+                ((BroadcastReceiver) registration[0]).onReceive(this, intent);
+            }
+        }
+    }
+
+    public void startActivity(Intent intent) {
+    }
+
+    private File dir(String name) {
+        File dir = new File(mDir, name);
+        dir.mkdirs();
+        return dir;
+    }
+}
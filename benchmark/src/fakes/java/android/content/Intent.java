@@ -0,0 +1,80 @@
+package android.content;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Fake of the framework's Intent, holding an action and extras.
+ */
+public class Intent {
+    public static final int FLAG_ACTIVITY_NEW_TASK = 0x10000000;
+    public static final int FLAG_ACTIVITY_SINGLE_TOP = 0x20000000;
+    public static final int FLAG_ACTIVITY_REORDER_TO_FRONT = 0x00020000;
+
+    private final Map<String, Object> mExtras = new HashMap<String, Object>();
+    private String mAction;
+    private int mFlags = 0;
+
+    public Intent() {
+    }
+
+    public Intent(String action) {
+        mAction = action;
+    }
+
+    public Intent(Context packageContext, Class<?> cls) {
+    }
+
+    public String getAction() {
+        return mAction;
+    }
+
+    public Intent setAction(String action) {
+        mAction = action;
+        return this;
+    }
+
+    public int getFlags() {
+        return mFlags;
+    }
+
+    public Intent setFlags(int flags) {
+        mFlags = flags;
+        return this;
+    }
+
+    public Intent addFlags(int flags) {
+        mFlags |= flags;
+        return this;
+    }
+
+    public Intent putExtra(String name, String value) {
+        mExtras.put(name, value);
+        return this;
+    }
+
+    public Intent putExtra(String name, int value) {
+        mExtras.put(name, value);
+        return this;
+    }
+
+    public Intent putExtra(String name, boolean value) {
+        mExtras.put(name, value);
+        return this;
+    }
+
+    public String getStringExtra(String name) {
+        Object value = mExtras.get(name);
+        return value instanceof String ? (String) value : null;
+    }
+
+    public int getIntExtra(String name, int defaultValue) {
+        Object value = mExtras.get(name);
+        return value instanceof Integer ? (Integer) value : defaultValue;
+    }
+
+    public boolean getBooleanExtra(String name, boolean defaultValue) {
+        Object value = mExtras.get(name);
+        return value instanceof Boolean ? (Boolean) value : defaultValue;
+    }
+}
@@ -0,0 +1,26 @@
+package android.content;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Fake of the framework's IntentFilter, matching on action only.
+ */
+public class IntentFilter {
+    private final List<String> mActions = new ArrayList<String>();
+
+    public IntentFilter() {
+    }
+
+    public IntentFilter(String action) {
+        mActions.add(action);
+    }
+
+    public final void addAction(String action) {
+        mActions.add(action);
+    }
+
+    public final boolean hasAction(String action) {
+        return action != null && mActions.contains(action);
+    }
+}
@@ -0,0 +1,19 @@
+package android.content.res;
+
+import android.util.DisplayMetrics;
+
+/**
+ * Fake of the framework's Resources, for a 1080p screen.
+ */
+public class Resources {
+    private final DisplayMetrics mMetrics = new DisplayMetrics();
+
+    public Resources() {
+        mMetrics.widthPixels = 1920;
+        mMetrics.heightPixels = 1080;
+    }
+
+    public DisplayMetrics getDisplayMetrics() {
+        return mMetrics;
+    }
+}
@@ -0,0 +1,67 @@
+package android.graphics;
+
+/**
+ * Fake of the framework's Bitmap: a size and a config, no pixels.
+ */
+public final class Bitmap {
+
+    public enum Config {
+        RGB_565(2),
+        ARGB_8888(4);
+
+        final int mBytes;
+
+        Config(int bytes) {
+            mBytes = bytes;
+        }
+    }
+
+    private final int mWidth;
+    private final int mHeight;
+    private final Config mConfig;
+    private final boolean mMutable;
+    private boolean mRecycled = false;
+
+    Bitmap(int width, int height, Config config, boolean mutable) {
+        mWidth = width;
+        mHeight = height;
+        mConfig = config;
+        mMutable = mutable;
+    }
+
+    public static Bitmap createBitmap(int width, int height, Config config) {
+        return new Bitmap(width, height, config, true);
+    }
+
+    public int getWidth() {
+        return mWidth;
+    }
+
+    public int getHeight() {
+        return mHeight;
+    }
+
+    public Config getConfig() {
+        return mConfig;
+    }
+
+    public int getByteCount() {
+        return mWidth * mHeight * mConfig.mBytes;
+    }
+
+    public int getAllocationByteCount() {
+        return getByteCount();
+    }
+
+    public boolean isMutable() {
+        return mMutable;
+    }
+
+    public boolean isRecycled() {
+        return mRecycled;
+    }
+
+    public void recycle() {
+        mRecycled = true;
+    }
+}
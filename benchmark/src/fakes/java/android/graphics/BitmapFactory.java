@@ -0,0 +1,27 @@
+package android.graphics;
+
+/**
+ * Fake of the framework's BitmapFactory. Decodes nothing; pictures are not benchmarked.
+ */
+public class BitmapFactory {
+
+    public static class Options {
+        public boolean inJustDecodeBounds;
+        public int inSampleSize;
+        public boolean inMutable;
+        public Bitmap inBitmap;
+        public Bitmap.Config inPreferredConfig;
+        public int outWidth;
+        public int outHeight;
+        public String outMimeType;
+    }
+
+    public static Bitmap decodeFile(String pathName, Options opts) {
+        if (opts != null) {
+            opts.outWidth = -1;
+            opts.outHeight = -1;
+            opts.outMimeType = null;
+        }
+        return null;
+    }
+}
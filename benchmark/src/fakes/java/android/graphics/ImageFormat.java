@@ -0,0 +1,8 @@
+package android.graphics;
+
+/**
+ * Fake of the framework's ImageFormat.
+ */
+public class ImageFormat {
+    public static final int YUV_420_888 = 0x23;
+}
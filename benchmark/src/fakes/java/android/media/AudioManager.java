@@ -0,0 +1,34 @@
+package android.media;
+
+/**
+ * Fake of the framework's AudioManager, with the music stream's volume in memory.
+ */
+public class AudioManager {
+    public static final int STREAM_MUSIC = 3;
+    public static final int FLAG_SHOW_UI = 1;
+
+    private static final int MAX_VOLUME = 15;
+
+    private volatile int mVolume = MAX_VOLUME / 2;
+    private volatile boolean mMute = false;
+
+    public int getStreamMaxVolume(int streamType) {
+        return MAX_VOLUME;
+    }
+
+    public int getStreamVolume(int streamType) {
+        return mVolume;
+    }
+
+    public void setStreamVolume(int streamType, int index, int flags) {
+        mVolume = Math.max(0, Math.min(MAX_VOLUME, index));
+    }
+
+    public void setStreamMute(int streamType, boolean state) {
+        mMute = state;
+    }
+
+    public boolean isStreamMute(int streamType) {
+        return mMute;
+    }
+}
@@ -0,0 +1,10 @@
+package android.media;
+
+/**
+ * Fake of the framework's Image.
+ */
+public abstract class Image implements AutoCloseable {
+
+    @Override
+    public abstract void close();
+}
@@ -0,0 +1,39 @@
+package android.media;
+
+import android.os.Handler;
+import android.view.Surface;
+
+/**
+ * Fake of the framework's ImageReader. Nothing renders, so no image ever arrives.
+ */
+public class ImageReader implements AutoCloseable {
+
+    public interface OnImageAvailableListener {
+        void onImageAvailable(ImageReader reader);
+    }
+
+    private final Surface mSurface = new Surface();
+
+    private ImageReader() {
+    }
+
+    public static ImageReader newInstance(int width, int height, int format, int maxImages) {
+        return new ImageReader();
+    }
+
+    public Surface getSurface() {
+        return mSurface;
+    }
+
+    public Image acquireLatestImage() {
+        return null;
+    }
+
+    public void setOnImageAvailableListener(OnImageAvailableListener listener, Handler handler) {
+    }
+
+    @Override
+    public void close() {
+        mSurface.release();
+    }
+}
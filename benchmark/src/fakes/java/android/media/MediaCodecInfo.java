@@ -0,0 +1,73 @@
+package android.media;
+
+import android.util.Range;
+
+/**
+ * Fake of the framework's MediaCodecInfo: one type, up to 1080p.
+ */
+public final class MediaCodecInfo {
+    private final String mName;
+    private final String mType;
+    private final boolean mEncoder;
+
+    MediaCodecInfo(String name, String type, boolean encoder) {
+        mName = name;
+        mType = type;
+        mEncoder = encoder;
+    }
+
+    public String getName() {
+        return mName;
+    }
+
+    public boolean isEncoder() {
+        return mEncoder;
+    }
+
+    public String[] getSupportedTypes() {
+        return new String[] {mType};
+    }
+
+    public CodecCapabilities getCapabilitiesForType(String type) {
+        if (!mType.equalsIgnoreCase(type)) {
+            throw new IllegalArgumentException("Unsupported type " + type);
+        }
+        return new CodecCapabilities();
+    }
+
+    public static final class CodecCapabilities {
+        public CodecProfileLevel[] profileLevels = {new CodecProfileLevel(CodecProfileLevel.AVCProfileHigh,
+                CodecProfileLevel.AVCLevel41)};
+
+        public VideoCapabilities getVideoCapabilities() {
+            return new VideoCapabilities();
+        }
+    }
+
+    public static final class CodecProfileLevel {
+        public static final int AVCProfileHigh = 0x08;
+        public static final int AVCLevel41 = 0x1000;
+
+        public int profile;
+        public int level;
+
+        public CodecProfileLevel() {
+        }
+
+        CodecProfileLevel(int profile, int level) {
+            this.profile = profile;
+            this.level = level;
+        }
+    }
+
+    public static final class VideoCapabilities {
+
+        public Range<Integer> getSupportedWidths() {
+            return new Range<Integer>(2, 1920);
+        }
+
+        public Range<Integer> getSupportedHeights() {
+            return new Range<Integer>(2, 1080);
+        }
+    }
+}
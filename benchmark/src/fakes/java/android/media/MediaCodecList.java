@@ -0,0 +1,21 @@
+package android.media;
+
+/**
+ * Fake of the framework's MediaCodecList, with one AVC decoder.
+ */
+public final class MediaCodecList {
+    private static final MediaCodecInfo[] CODECS = {
+        new MediaCodecInfo("OMX.fake.avc.decoder", "video/avc", false),
+    };
+
+    private MediaCodecList() {
+    }
+
+    public static int getCodecCount() {
+        return CODECS.length;
+    }
+
+    public static MediaCodecInfo getCodecInfoAt(int index) {
+        return CODECS[index];
+    }
+}
@@ -0,0 +1,191 @@
+package android.media;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.view.Surface;
+
+import java.io.IOException;
+
+/**
+ * Fake of the framework's MediaPlayer. Plays a silent minute of nothing: preparing and
+ * seeking finish at once, and their callbacks are posted to the looper of the thread that
+ * made the player, or else to the main looper, as the real one does. Holding that looper
+ * holds the callbacks, which is how a slow prepare is played out.
+ */
+public class MediaPlayer {
+    public static final int MEDIA_ERROR_UNKNOWN = 1;
+    public static final int MEDIA_ERROR_SERVER_DIED = 100;
+    public static final int MEDIA_ERROR_NOT_VALID_FOR_PROGRESSIVE_PLAYBACK = 200;
+    public static final int MEDIA_ERROR_IO = -1004;
+    public static final int MEDIA_ERROR_MALFORMED = -1007;
+    public static final int MEDIA_ERROR_UNSUPPORTED = -1010;
+    public static final int MEDIA_ERROR_TIMED_OUT = -110;
+
+    public static final int MEDIA_INFO_UNKNOWN = 1;
+    public static final int MEDIA_INFO_VIDEO_RENDERING_START = 3;
+    public static final int MEDIA_INFO_VIDEO_TRACK_LAGGING = 700;
+    public static final int MEDIA_INFO_BUFFERING_START = 701;
+    public static final int MEDIA_INFO_BUFFERING_END = 702;
+    public static final int MEDIA_INFO_BAD_INTERLEAVING = 800;
+    public static final int MEDIA_INFO_NOT_SEEKABLE = 801;
+    public static final int MEDIA_INFO_METADATA_UPDATE = 802;
+
+    private static final int DURATION_MS = 60000;
+
+    public interface OnPreparedListener {
+        void onPrepared(MediaPlayer mp);
+    }
+
+    public interface OnErrorListener {
+        boolean onError(MediaPlayer mp, int what, int extra);
+    }
+
+    public interface OnInfoListener {
+        boolean onInfo(MediaPlayer mp, int what, int extra);
+    }
+
+    public interface OnCompletionListener {
+        void onCompletion(MediaPlayer mp);
+    }
+
+    public interface OnSeekCompleteListener {
+        void onSeekComplete(MediaPlayer mp);
+    }
+
+    private final Handler mHandler;
+    private volatile OnPreparedListener mOnPrepared;
+    private volatile OnErrorListener mOnError;
+    private volatile OnInfoListener mOnInfo;
+    private volatile OnCompletionListener mOnCompletion;
+    private volatile OnSeekCompleteListener mOnSeekComplete;
+
+    private String mSource;
+    private boolean mPlaying = false;
+    private long mStartedAt = 0L;
+    private int mPositionMs = 0;
+
+    public MediaPlayer() {
+        Looper looper = Looper.myLooper();
+        mHandler = new Handler(looper != null ? looper : Looper.getMainLooper());
+    }
+
+    public synchronized void setDataSource(String path) throws IOException {
+        if (mSource != null) {
+            throw new IllegalStateException("Data source already set");
+        }
+        mSource = path;
+    }
+
+    public void prepareAsync() {
+        synchronized (this) {
+            if (mSource == null) {
+                throw new IllegalStateException("No data source");
+            }
+        }
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                OnPreparedListener listener = mOnPrepared;
+                if (listener != null) {
+                    listener.onPrepared(MediaPlayer.this);
+                }
+                OnInfoListener info = mOnInfo;
+                if (info != null) {
+                    info.onInfo(MediaPlayer.this, MEDIA_INFO_VIDEO_RENDERING_START, 0);
+                }
+            }
+        });
+    }
+
+    public synchronized void start() {
+        if (!mPlaying) {
+            mPlaying = true;
+            mStartedAt = SystemClock.uptimeMillis();
+        }
+    }
+
+    public synchronized void pause() {
+        mPositionMs = getCurrentPosition();
+        mPlaying = false;
+    }
+
+    public synchronized void stop() {
+        pause();
+    }
+
+    public void reset() {
+        synchronized (this) {
+            mSource = null;
+            mPlaying = false;
+            mPositionMs = 0;
+        }
+        // Callbacks not yet delivered are dropped, as by the real one.
+        mHandler.removeCallbacksAndMessages(null);
+    }
+
+    public void release() {
+        reset();
+    }
+
+    public void seekTo(int msec) {
+        synchronized (this) {
+            mPositionMs = Math.max(0, Math.min(DURATION_MS, msec));
+            mStartedAt = SystemClock.uptimeMillis();
+        }
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                OnSeekCompleteListener listener = mOnSeekComplete;
+                if (listener != null) {
+                    listener.onSeekComplete(MediaPlayer.this);
+                }
+            }
+        });
+    }
+
+    public synchronized int getCurrentPosition() {
+        if (!mPlaying) {
+            return mPositionMs;
+        }
+        long played = SystemClock.uptimeMillis() - mStartedAt;
+        return (int) ((mPositionMs + played) % DURATION_MS);
+    }
+
+    public int getDuration() {
+        return DURATION_MS;
+    }
+
+    public synchronized boolean isPlaying() {
+        return mPlaying;
+    }
+
+    public void setSurface(Surface surface) {
+    }
+
+    public void setAudioStreamType(int streamtype) {
+    }
+
+    public void setLooping(boolean looping) {
+    }
+
+    public void setOnPreparedListener(OnPreparedListener listener) {
+        mOnPrepared = listener;
+    }
+
+    public void setOnErrorListener(OnErrorListener listener) {
+        mOnError = listener;
+    }
+
+    public void setOnInfoListener(OnInfoListener listener) {
+        mOnInfo = listener;
+    }
+
+    public void setOnCompletionListener(OnCompletionListener listener) {
+        mOnCompletion = listener;
+    }
+
+    public void setOnSeekCompleteListener(OnSeekCompleteListener listener) {
+        mOnSeekComplete = listener;
+    }
+}
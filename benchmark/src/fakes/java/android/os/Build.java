@@ -0,0 +1,21 @@
+package android.os;
+
+/**
+ * Fake of the framework's Build, describing a Lollipop device.
+ */
+public class Build {
+    public static final String FINGERPRINT = "benchmark/jvm";
+
+    public static class VERSION {
+        public static final int SDK_INT = VERSION_CODES.LOLLIPOP;
+    }
+
+    public static class VERSION_CODES {
+        public static final int JELLY_BEAN_MR2 = 18;
+        public static final int KITKAT = 19;
+        public static final int LOLLIPOP = 21;
+        public static final int M = 23;
+        public static final int N = 24;
+        public static final int O = 26;
+    }
+}
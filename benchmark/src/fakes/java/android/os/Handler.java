@@ -0,0 +1,125 @@
+package android.os;
+
+/**
+ * Fake of the framework's Handler, posting to a {@link Looper}'s queue.
+ */
+public class Handler {
+
+    public interface Callback {
+        boolean handleMessage(Message msg);
+    }
+
+    private final Looper mLooper;
+    private final Callback mCallback;
+
+    public Handler() {
+        this(Looper.myLooper(), null);
+    }
+
+    public Handler(Looper looper) {
+        this(looper, null);
+    }
+
+    public Handler(Looper looper, Callback callback) {
+        if (looper == null) {
+            throw new RuntimeException("Can't create handler without a Looper");
+        }
+        mLooper = looper;
+        mCallback = callback;
+    }
+
+    public void handleMessage(Message msg) {
+    }
+
+    public void dispatchMessage(Message msg) {
+        if (msg.callback != null) {
+            msg.callback.run();
+        } else if (mCallback == null || !mCallback.handleMessage(msg)) {
+            handleMessage(msg);
+        }
+    }
+
+    public final Looper getLooper() {
+        return mLooper;
+    }
+
+    public final Message obtainMessage(int what) {
+        return Message.obtain(this, what, 0, 0, null);
+    }
+
+    public final Message obtainMessage(int what, Object obj) {
+        return Message.obtain(this, what, 0, 0, obj);
+    }
+
+    public final Message obtainMessage(int what, int arg1, int arg2) {
+        return Message.obtain(this, what, arg1, arg2, null);
+    }
+
+    public final Message obtainMessage(int what, int arg1, int arg2, Object obj) {
+        return Message.obtain(this, what, arg1, arg2, obj);
+    }
+
+    public final boolean post(Runnable r) {
+        return sendMessageDelayed(callbackMessage(r), 0L);
+    }
+
+    public final boolean postDelayed(Runnable r, long delayMillis) {
+        return sendMessageDelayed(callbackMessage(r), delayMillis);
+    }
+
+    public final boolean postAtFrontOfQueue(Runnable r) {
+        return sendMessageAtFrontOfQueue(callbackMessage(r));
+    }
+
+    public final void removeCallbacks(Runnable r) {
+        mLooper.mQueue.removeCallbacks(this, r);
+    }
+
+    public final void removeCallbacksAndMessages(Object token) {
+        mLooper.mQueue.removeCallbacksAndMessages(this, token);
+    }
+
+    public final boolean sendEmptyMessage(int what) {
+        return sendMessageDelayed(obtainMessage(what), 0L);
+    }
+
+    public final boolean sendEmptyMessageDelayed(int what, long delayMillis) {
+        return sendMessageDelayed(obtainMessage(what), delayMillis);
+    }
+
+    public final boolean sendMessage(Message msg) {
+        return sendMessageDelayed(msg, 0L);
+    }
+
+    public final boolean sendMessageDelayed(Message msg, long delayMillis) {
+        msg.target = this;
+        return mLooper.mQueue.enqueue(msg, SystemClock.uptimeMillis() + Math.max(0L, delayMillis));
+    }
+
+    public final boolean sendMessageAtFrontOfQueue(Message msg) {
+        msg.target = this;
+        return mLooper.mQueue.enqueueAtFront(msg);
+    }
+
+    public final boolean hasMessages(int what) {
+        return mLooper.mQueue.hasMessages(this, what, null);
+    }
+
+    public final boolean hasMessages(int what, Object obj) {
+        return mLooper.mQueue.hasMessages(this, what, obj);
+    }
+
+    public final void removeMessages(int what) {
+        mLooper.mQueue.removeMessages(this, what, null);
+    }
+
+    public final void removeMessages(int what, Object obj) {
+        mLooper.mQueue.removeMessages(this, what, obj);
+    }
+
+    private Message callbackMessage(Runnable r) {
+        Message m = Message.obtain();
+        m.callback = r;
+        return m;
+    }
+}
@@ -0,0 +1,61 @@
+package android.os;
+
+/**
+ * Fake of the framework's Looper. The main looper runs on a daemon thread of its own,
+ * started the first time it is asked for.
+ */
+public final class Looper {
+    private static final ThreadLocal<Looper> sThreadLocal = new ThreadLocal<Looper>();
+    private static Looper sMainLooper;
+
+    final MessageQueue mQueue = new MessageQueue();
+    private final Thread mThread = Thread.currentThread();
+
+    private Looper() {
+    }
+
+    public static void prepare() {
+        if (sThreadLocal.get() != null) {
+            throw new RuntimeException("Only one Looper may be created per thread");
+        }
+        sThreadLocal.set(new Looper());
+    }
+
+    public static Looper myLooper() {
+        return sThreadLocal.get();
+    }
+
+    public static synchronized Looper getMainLooper() {
+        if (sMainLooper == null) {
+            HandlerThread main = new HandlerThread("main");
+            main.setDaemon(true);
+            main.start();
+            sMainLooper = main.getLooper();
+        }
+        return sMainLooper;
+    }
+
+    public static void loop() {
+        Looper me = myLooper();
+        if (me == null) {
+            throw new RuntimeException("No Looper; Looper.prepare() wasn't called on this thread.");
+        }
+        Message msg;
+        while ((msg = me.mQueue.next()) != null) {
+            msg.target.dispatchMessage(msg);
+            msg.recycle();
+        }
+    }
+
+    public Thread getThread() {
+        return mThread;
+    }
+
+    public void quit() {
+        mQueue.quit(false);
+    }
+
+    public void quitSafely() {
+        mQueue.quit(true);
+    }
+}
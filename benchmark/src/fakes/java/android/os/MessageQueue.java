@@ -0,0 +1,123 @@
+package android.os;
+
+/**
+ * Fake of the framework's MessageQueue: messages linked in order of their time, taken by
+ * one looper thread.
+ */
+public final class MessageQueue {
+    private Message mMessages;
+    private boolean mQuitting = false;
+    private boolean mQuitSafely = false;
+
+    synchronized boolean enqueue(Message msg, long when) {
+        if (mQuitting) {
+            msg.recycle();
+            return false;
+        }
+        msg.when = when;
+        if (mMessages == null || when < mMessages.when) {
+            msg.next = mMessages;
+            mMessages = msg;
+        } else {
+            Message prev = mMessages;
+            while (prev.next != null && prev.next.when <= when) {
+                prev = prev.next;
+            }
+            msg.next = prev.next;
+            prev.next = msg;
+        }
+        notifyAll();
+        return true;
+    }
+
+    synchronized boolean enqueueAtFront(Message msg) {
+        if (mQuitting) {
+            msg.recycle();
+            return false;
+        }
+        msg.when = 0L;
+        msg.next = mMessages;
+        mMessages = msg;
+        notifyAll();
+        return true;
+    }
+
+    /*
+     * Returns the next message once it is due, or null when the looper should quit.
+     */
+    synchronized Message next() {
+        while (true) {
+            if (mQuitting && !mQuitSafely) {
+                return null;
+            }
+            long now = SystemClock.uptimeMillis();
+            if (mMessages != null && mMessages.when <= now) {
+                Message msg = mMessages;
+                mMessages = msg.next;
+                msg.next = null;
+                return msg;
+            }
+            if (mQuitting) {
+                // Quitting safely: nothing left that is due.
+                return null;
+            }
+            try {
+                if (mMessages == null) {
+                    wait();
+                } else {
+                    wait(mMessages.when - now);
+                }
+            } catch (InterruptedException e) {
+                return null;
+            }
+        }
+    }
+
+    synchronized void quit(boolean safe) {
+        mQuitting = true;
+        mQuitSafely = safe;
+        notifyAll();
+    }
+
+    synchronized boolean hasMessages(Handler h, int what, Object obj) {
+        for (Message m = mMessages; m != null; m = m.next) {
+            if (m.target == h && m.callback == null && m.what == what && (obj == null || m.obj == obj)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    synchronized void removeMessages(Handler h, int what, Object obj) {
+        remove(h, what, null, obj, false);
+    }
+
+    synchronized void removeCallbacks(Handler h, Runnable r) {
+        remove(h, 0, r, null, false);
+    }
+
+    synchronized void removeCallbacksAndMessages(Handler h, Object obj) {
+        remove(h, 0, null, obj, true);
+    }
+
+    private void remove(Handler h, int what, Runnable r, Object obj, boolean all) {
+        Message prev = null;
+        Message m = mMessages;
+        while (m != null) {
+            Message next = m.next;
+            boolean match = m.target == h && (obj == null || m.obj == obj)
+                    && (all || (r != null ? m.callback == r : (m.callback == null && m.what == what)));
+            if (match) {
+                if (prev == null) {
+                    mMessages = next;
+                } else {
+                    prev.next = next;
+                }
+                m.recycle();
+            } else {
+                prev = m;
+            }
+            m = next;
+        }
+    }
+}
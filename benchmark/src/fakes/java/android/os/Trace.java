@@ -0,0 +1,16 @@
+package android.os;
+
+/**
+ * Fake of the framework's Trace; sections are not recorded.
+ */
+public final class Trace {
+
+    private Trace() {
+    }
+
+    public static void beginSection(String sectionName) {
+    }
+
+    public static void endSection() {
+    }
+}
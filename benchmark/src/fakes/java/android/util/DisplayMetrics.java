@@ -0,0 +1,9 @@
+package android.util;
+
+/**
+ * Fake of the framework's DisplayMetrics.
+ */
+public class DisplayMetrics {
+    public int widthPixels;
+    public int heightPixels;
+}
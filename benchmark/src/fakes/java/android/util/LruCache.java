@@ -0,0 +1,112 @@
+package android.util;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Fake of the framework's LruCache, with the same sizing and eviction callbacks.
+ */
+public class LruCache<K, V> {
+    private final LinkedHashMap<K, V> mMap = new LinkedHashMap<K, V>(0, 0.75f, true);
+    private final int mMaxSize;
+    private int mSize = 0;
+    private int mHitCount = 0;
+    private int mMissCount = 0;
+
+    public LruCache(int maxSize) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("maxSize <= 0");
+        }
+        mMaxSize = maxSize;
+    }
+
+    protected int sizeOf(K key, V value) {
+        return 1;
+    }
+
+    protected void entryRemoved(boolean evicted, K key, V oldValue, V newValue) {
+    }
+
+    public final V get(K key) {
+        V value;
+        synchronized (this) {
+            value = mMap.get(key);
+            if (value != null) {
+                mHitCount++;
+            } else {
+                mMissCount++;
+            }
+        }
+        return value;
+    }
+
+    public final V put(K key, V value) {
+        V previous;
+        synchronized (this) {
+            mSize += sizeOf(key, value);
+            previous = mMap.put(key, value);
+            if (previous != null) {
+                mSize -= sizeOf(key, previous);
+            }
+        }
+        if (previous != null) {
+            entryRemoved(false, key, previous, value);
+        }
+        trimToSize(mMaxSize);
+        return previous;
+    }
+
+    public final V remove(K key) {
+        V previous;
+        synchronized (this) {
+            previous = mMap.remove(key);
+            if (previous != null) {
+                mSize -= sizeOf(key, previous);
+            }
+        }
+        if (previous != null) {
+            entryRemoved(false, key, previous, null);
+        }
+        return previous;
+    }
+
+    public final void evictAll() {
+        trimToSize(-1);
+    }
+
+    public final synchronized int size() {
+        return mSize;
+    }
+
+    public final int maxSize() {
+        return mMaxSize;
+    }
+
+    public final synchronized int hitCount() {
+        return mHitCount;
+    }
+
+    public final synchronized int missCount() {
+        return mMissCount;
+    }
+
+    private void trimToSize(int maxSize) {
+        while (true) {
+            K key;
+            V value;
+            synchronized (this) {
+                if (mSize <= maxSize || mMap.isEmpty()) {
+                    return;
+                }
+                Iterator<Map.Entry<K, V>> it = mMap.entrySet().iterator();
+                Map.Entry<K, V> eldest = it.next();
+                key = eldest.getKey();
+                value = eldest.getValue();
+                it.remove();
+                mSize -= sizeOf(key, value);
+            }
+            entryRemoved(true, key, value, null);
+        }
+    }
+}
@@ -0,0 +1,22 @@
+package android.util;
+
+/**
+ * Fake of the framework's Range.
+ */
+public final class Range<T extends Comparable<? super T>> {
+    private final T mLower;
+    private final T mUpper;
+
+    public Range(T lower, T upper) {
+        mLower = lower;
+        mUpper = upper;
+    }
+
+    public T getLower() {
+        return mLower;
+    }
+
+    public T getUpper() {
+        return mUpper;
+    }
+}
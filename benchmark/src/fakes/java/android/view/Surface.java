@@ -0,0 +1,16 @@
+package android.view;
+
+/**
+ * Fake of the framework's Surface.
+ */
+public class Surface {
+    private volatile boolean mValid = true;
+
+    public boolean isValid() {
+        return mValid;
+    }
+
+    public void release() {
+        mValid = false;
+    }
+}
@@ -0,0 +1,21 @@
+package android.view;
+
+/**
+ * Fake of the framework's SurfaceHolder.
+ */
+public interface SurfaceHolder {
+
+    interface Callback {
+        void surfaceCreated(SurfaceHolder holder);
+
+        void surfaceChanged(SurfaceHolder holder, int format, int width, int height);
+
+        void surfaceDestroyed(SurfaceHolder holder);
+    }
+
+    void addCallback(Callback callback);
+
+    void removeCallback(Callback callback);
+
+    Surface getSurface();
+}
@@ -0,0 +1,10 @@
+package com.sagre1.whisperplay.fling.media.player;
+
+/**
+ * Fake of the generated BuildConfig, as in a release build.
+ */
+public final class BuildConfig {
+    public static final boolean DEBUG = false;
+    public static final String APPLICATION_ID = "com.sagre1.whisperplay.fling.media.player";
+    public static final String BUILD_TYPE = "release";
+}
@@ -0,0 +1,8 @@
+package com.sagre1.whisperplay.fling.media.player.activity.activity;
+
+/**
+ * Stands in for the viewer activity, which needs the framework; the player only names its
+ * class.
+ */
+public class MediaViewer {
+}
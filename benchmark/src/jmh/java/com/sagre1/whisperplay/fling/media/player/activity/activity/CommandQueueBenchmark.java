@@ -0,0 +1,47 @@
+package com.sagre1.whisperplay.fling.media.player.activity.activity;
+
+import android.content.Context;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+
+/**
+ * Commands from a remote through the command queue, each doing real work on a playing
+ * player: a pause and then a play, each enqueued and awaited on the command thread before
+ * the next, so none is coalesced or rejected. An operation is one command, from the call
+ * until the command thread has run it.
+ */
+@State(Scope.Benchmark)
+public class CommandQueueBenchmark {
+
+    private CustomMediaPlayerImplementation mPlayer;
+    private BenchmarkPlayers.Barrier mBarrier;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        Context ctx = BenchmarkPlayers.newContext();
+        mPlayer = BenchmarkPlayers.startPlaying(ctx);
+        mBarrier = new BenchmarkPlayers.Barrier(BenchmarkPlayers.commandHandler(mPlayer));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        mPlayer.tearDown();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(2)
+    public void pausePlay() throws IOException {
+        mPlayer.pause();
+        mBarrier.await();
+        mPlayer.play();
+        mBarrier.await();
+    }
+}
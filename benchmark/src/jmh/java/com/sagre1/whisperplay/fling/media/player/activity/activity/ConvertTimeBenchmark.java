@@ -0,0 +1,36 @@
+package com.sagre1.whisperplay.fling.media.player.activity.activity;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Method;
+
+/**
+ * Formatting a position as hh:mm:ss, as the position logs do.
+ */
+@State(Scope.Benchmark)
+public class ConvertTimeBenchmark {
+
+    /** Under ten minutes, and over ten hours, which take different branches. */
+    @Param({"345000", "40271000"})
+    public long timeMs;
+
+    private MethodHandle mConvertTime;
+
+    @Setup
+    public void setUp() throws ReflectiveOperationException {
+        Method m = CustomMediaPlayerImplementation.class.getDeclaredMethod("convertTime", long.class);
+        m.setAccessible(true);
+        mConvertTime = MethodHandles.lookup().unreflect(m);
+    }
+
+    @Benchmark
+    public String convertTime() throws Throwable {
+        return (String) mConvertTime.invokeExact(timeMs);
+    }
+}
@@ -0,0 +1,56 @@
+package com.sagre1.whisperplay.fling.media.player.activity.activity;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.json.JSONTokener;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Reading the metadata of one fling. {@link #parser} is the receiver as it is: one
+ * {@link MetadataParser} pass in setMediaSource. {@link #tokener} is the baseline it
+ * replaced, kept here: setMediaSource read the current lift with a JSONTokener, then
+ * MediaViewer.setViewForState tokenized the whole string again for the screen.
+ */
+@State(Scope.Benchmark)
+public class MetadataBenchmark {
+    private final MetadataParser mParser = new MetadataParser();
+
+    @Benchmark
+    public WorkoutMetadata parser() throws JSONException {
+        return mParser.parse(BenchmarkPlayers.METADATA);
+    }
+
+    @Benchmark
+    public Workout.Lift tokener() throws JSONException {
+        // setMediaSource
+        JSONObject jobj = (JSONObject) new JSONTokener(BenchmarkPlayers.METADATA).nextValue();
+        String type = jobj.optString("type");
+        String description = jobj.optString("description");
+        int rest = jobj.optInt("restPeriodAfter");
+        int reps = jobj.optInt("reps");
+        int weight = jobj.optInt("weight");
+
+        // MediaViewer.setViewForState
+        JSONTokener js = new JSONTokener(BenchmarkPlayers.METADATA);
+        JSONObject jsonObject = (JSONObject) js.nextValue();
+        String title = jsonObject.getString("title");
+        description = jsonObject.optString("description");
+        rest = Integer.parseInt(jsonObject.optString("restPeriodAfter"));
+        reps = Integer.parseInt(jsonObject.optString("reps"));
+        weight = Integer.parseInt(jsonObject.optString("weight"));
+        type = jsonObject.optString("type").split("/")[0];
+        jsonObject = (JSONObject) js.nextValue();
+        String nextTitle = jsonObject.getString("title");
+        String nextDescription = jsonObject.optString("description");
+        int nextReps = Integer.parseInt(jsonObject.optString("reps"));
+        int nextWeight = Integer.parseInt(jsonObject.optString("weight"));
+        boolean startTimer = ((JSONObject) js.nextValue()).optBoolean("startTimerCast");
+        boolean firstExercise = ((JSONObject) js.nextValue()).optBoolean("firstExercise");
+
+        // Everything read, so none of it is dead code.
+        return new Workout.Lift(startTimer || firstExercise ? nextTitle : title,
+                description + nextDescription, type, "", 1, reps + nextReps, weight + nextWeight, rest);
+    }
+}
@@ -0,0 +1,135 @@
+package com.sagre1.whisperplay.fling.media.player.activity.activity;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * An uncached lift fetched by {@link ChunkedDownloader} against one stream, from a
+ * loopback origin whose connections share one paced link, like a congested network; extra
+ * connections buy no bandwidth, only the order bytes arrive in. "firstBytes" ends when the
+ * leading chunk is on disk, "playable" when the trailing 'moov' is too, which is when a
+ * player can start on media recorded with it last.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1, time = 5)
+@Measurement(iterations = 3, time = 10)
+public class RangeDownloadBenchmark {
+    private static final int MEDIA_LENGTH = 4 * 1024 * 1024;
+    private static final long BYTES_PER_SECOND = 1024L * 1024L;
+    private static final int BUFFER_SIZE = 32 * 1024;
+
+    @Param({"4"})
+    public int connections;
+
+    private OriginServer mOrigin;
+    private ExecutorService mWorkers;
+    private File mDir;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        mOrigin = new OriginServer(MEDIA_LENGTH, BYTES_PER_SECOND);
+        mWorkers = Executors.newCachedThreadPool();
+        mDir = File.createTempFile("downloads", "");
+        if (!mDir.delete() || !mDir.mkdirs()) {
+            throw new IOException("Cannot make " + mDir);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        mWorkers.shutdownNow();
+        mOrigin.stop();
+    }
+
+    @Benchmark
+    public long chunkedFirstBytes() throws IOException {
+        ChunkedDownloader download = startChunked();
+        try {
+            return download.getFirstBytesMs();
+        } finally {
+            abandon(download);
+        }
+    }
+
+    @Benchmark
+    public long chunkedPlayable() throws IOException {
+        ChunkedDownloader download = startChunked();
+        try {
+            return download.waitFor(mOrigin.getMoovOffset());
+        } finally {
+            abandon(download);
+        }
+    }
+
+    @Benchmark
+    public long singleStreamFirstBytes() throws IOException {
+        return fetchSingleStream(ChunkedDownloader.DEFAULT_CHUNK_SIZE);
+    }
+
+    @Benchmark
+    public long singleStreamPlayable() throws IOException {
+        return fetchSingleStream(MEDIA_LENGTH);
+    }
+
+    private ChunkedDownloader startChunked() throws IOException {
+        ChunkedDownloader download = new ChunkedDownloader(mOrigin.url(OriginServer.MEDIA_PATH),
+                File.createTempFile("chunked", ".part", mDir), connections,
+                ChunkedDownloader.DEFAULT_CHUNK_SIZE, mWorkers, null);
+        if (!download.start()) {
+            throw new IllegalStateException("Origin refused ranges");
+        }
+        return download;
+    }
+
+    private void abandon(ChunkedDownloader download) {
+        download.cancel();
+        download.release();
+        download.getTarget().delete();
+    }
+
+    /*
+     * What MediaPlayer does uncached: one GET, written to disk in order.
+     */
+    private long fetchSingleStream(long wanted) throws IOException {
+        File target = File.createTempFile("single", ".part", mDir);
+        HttpURLConnection conn = (HttpURLConnection) new URL(mOrigin.url(OriginServer.MEDIA_PATH)).openConnection();
+        RandomAccessFile file = new RandomAccessFile(target, "rw");
+        try {
+            InputStream in = conn.getInputStream();
+            byte[] buf = new byte[BUFFER_SIZE];
+            long done = 0L;
+            int n;
+            while (done < wanted && (n = in.read(buf)) >= 0) {
+                file.write(buf, 0, n);
+                done += n;
+            }
+            return done;
+        } finally {
+            file.close();
+            conn.disconnect();
+            target.delete();
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package com.sagre1.whisperplay.fling.media.player.activity.activity;
+
+import android.content.Context;
+import android.media.MediaPlayer;
+
+import com.amazon.whisperplay.fling.media.service.MediaPlayerStatus;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+
+/**
+ * getStatus and getPosition from several threads while another keeps publishing, as the
+ * Binder threads read while the command thread changes the player.
+ *
+ * The snapshot group reads the published PlayerSnapshot. The locked group is the design it
+ * replaced: getters synchronized on the player, building the status from its fields and
+ * asking the MediaPlayer for the position. Both groups share the writer, sendStatus, which
+ * takes the player lock to publish. Compare each reader's score across the groups.
+ */
+@State(Scope.Group)
+public class SnapshotContentionBenchmark {
+
+    private CustomMediaPlayerImplementation mPlayer;
+    private MediaPlayer mMediaPlayer;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        Context ctx = BenchmarkPlayers.newContext();
+        mPlayer = BenchmarkPlayers.startPlaying(ctx);
+        Field field = CustomMediaPlayerImplementation.class.getDeclaredField("mPlayer");
+        field.setAccessible(true);
+        mMediaPlayer = (MediaPlayer) field.get(mPlayer);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        mPlayer.tearDown();
+    }
+
+    @Benchmark
+    @Group("snapshot")
+    @GroupThreads(2)
+    public MediaPlayerStatus snapshotStatus() {
+        return mPlayer.getStatus();
+    }
+
+    @Benchmark
+    @Group("snapshot")
+    @GroupThreads(2)
+    public long snapshotPosition() throws IOException {
+        return mPlayer.getPosition();
+    }
+
+    @Benchmark
+    @Group("snapshot")
+    @GroupThreads(1)
+    public void snapshotWriter() {
+        mPlayer.sendStatus();
+    }
+
+    @Benchmark
+    @Group("locked")
+    @GroupThreads(2)
+    public MediaPlayerStatus lockedStatus() {
+        synchronized (mPlayer) {
+            PlayerSnapshot fields = mPlayer.getSnapshot();
+            MediaPlayerStatus status = new MediaPlayerStatus(fields.mState, fields.mCondition);
+            status.setMute(fields.mMute);
+            status.setVolume(fields.mVolume);
+            return status;
+        }
+    }
+
+    @Benchmark
+    @Group("locked")
+    @GroupThreads(2)
+    public long lockedPosition() {
+        synchronized (mPlayer) {
+            return mMediaPlayer.getCurrentPosition();
+        }
+    }
+
+    @Benchmark
+    @Group("locked")
+    @GroupThreads(1)
+    public void lockedWriter() {
+        mPlayer.sendStatus();
+    }
+}
@@ -0,0 +1,55 @@
+package com.sagre1.whisperplay.fling.media.player.activity.activity;
+
+import android.content.Context;
+
+import com.amazon.whisperplay.fling.media.service.CustomMediaPlayer.StatusListener;
+import com.amazon.whisperplay.fling.media.service.MediaPlayerStatus;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * sendStatus on a playing player with a number of listeners. Listeners are called on the
+ * dispatcher's threads, so this is the cost to the caller: the snapshot and handing it to
+ * each listener's queue.
+ */
+@State(Scope.Benchmark)
+public class StatusFanOutBenchmark {
+
+    @Param({"0", "1", "4", "16"})
+    public int listeners;
+
+    private final AtomicLong mDelivered = new AtomicLong();
+    private CustomMediaPlayerImplementation mPlayer;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        Context ctx = BenchmarkPlayers.newContext();
+        mPlayer = BenchmarkPlayers.startPlaying(ctx);
+        for (int i = 0; i < listeners; i++) {
+            mPlayer.addStatusListener(new StatusListener() {
+                @Override
+                public void onStatusChange(MediaPlayerStatus status, long position) {
+                    mDelivered.incrementAndGet();
+                }
+            });
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        mPlayer.tearDown();
+    }
+
+    @Benchmark
+    public void sendStatus() {
+        mPlayer.sendStatus();
+    }
+}
@@ -0,0 +1,103 @@
+package com.sagre1.whisperplay.fling.media.player.activity.activity;
+
+import android.content.Context;
+import android.os.Handler;
+
+import com.amazon.whisperplay.fling.media.service.MediaPlayerStatus.MediaState;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Field;
+
+/**
+ * Players and metadata shared by the benchmarks and the tests.
+ */
+final class BenchmarkPlayers {
+
+    static final String MEDIA_URL = "http://localhost/lift.mp4";
+
+    /** The four values a phone sends with a lift, as setMediaSource gets them. */
+    static final String METADATA = "{\"title\": \"Squat\", \"description\": \"Low bar, belt on the top set\","
+            + " \"type\": \"video/mp4\", \"restPeriodAfter\": \"180\", \"reps\": \"5\", \"weight\": \"225\"}"
+            + "{\"title\": \"Bench Press\", \"description\": \"Pause the first rep\","
+            + " \"reps\": \"5\", \"weight\": \"185\"}"
+            + "{\"startTimerCast\": true}"
+            + "{\"firstExercise\": false}";
+
+    private static final long START_TIMEOUT_MS = 10000L;
+
+    private BenchmarkPlayers() {
+    }
+
+    /**
+     * A context with its files in a new temporary directory.
+     */
+    static Context newContext() throws IOException {
+        File dir = File.createTempFile("receiver", "");
+        if (!dir.delete() || !dir.mkdirs()) {
+            throw new IOException("Cannot make " + dir);
+        }
+        return new Context(dir);
+    }
+
+    /**
+     * Start a player and have it play {@link #MEDIA_URL}.
+     *
+     * @throws IllegalStateException
+     *             if it is not playing within ten seconds
+     */
+    static CustomMediaPlayerImplementation startPlaying(Context ctx) throws IOException, InterruptedException {
+        CustomMediaPlayerImplementation player = new CustomMediaPlayerImplementation(ctx);
+        player.startUp();
+        player.setMediaSource(MEDIA_URL, METADATA, true, true);
+        long deadline = System.currentTimeMillis() + START_TIMEOUT_MS;
+        while (player.getState() != MediaState.Playing) {
+            if (System.currentTimeMillis() > deadline) {
+                throw new IllegalStateException("Not playing, state " + player.getState());
+            }
+            Thread.sleep(5L);
+        }
+        return player;
+    }
+
+    /**
+     * The handler of a player's command thread.
+     */
+    static Handler commandHandler(CustomMediaPlayerImplementation player) throws ReflectiveOperationException {
+        Object queue = field(CustomMediaPlayerImplementation.class, "mQueue").get(player);
+        return (Handler) field(queue.getClass(), "mExecHandler").get(queue);
+    }
+
+    private static Field field(Class<?> cls, String name) throws NoSuchFieldException {
+        Field f = cls.getDeclaredField(name);
+        f.setAccessible(true);
+        return f;
+    }
+
+    /**
+     * Waits for a thread to run everything posted to it so far. Reused, so waiting does not
+     * allocate.
+     */
+    static final class Barrier implements Runnable {
+        private final Handler mHandler;
+        private volatile long mReached = 0L;
+        private long mPosted = 0L;
+
+        Barrier(Handler handler) {
+            mHandler = handler;
+        }
+
+        @Override
+        public void run() {
+            mReached++;
+        }
+
+        void await() {
+            long target = ++mPosted;
+            mHandler.post(this);
+            while (mReached < target) {
+                Thread.yield();
+            }
+        }
+    }
+}
@@ -0,0 +1,187 @@
+package com.sagre1.whisperplay.fling.media.player.activity.activity;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A media origin on loopback, for the downloader and the proxy. It serves one MP4 laid out
+ * with its 'moov' box behind 'mdat', as phones record them, and honours ranges. All
+ * responses share one link paced to a bandwidth, as on a congested network: several
+ * connections split it rather than each getting their own.
+ *
+ * Paths: /lift.mp4 serves ranges, /norange.mp4 sends the whole body for a range as some
+ * origins do, and /missing.mp4 answers 404. Both media carry an ETag, and a matching
+ * If-None-Match is answered 304.
+ */
+final class OriginServer {
+    static final String MEDIA_PATH = "/lift.mp4";
+    static final String NO_RANGE_PATH = "/norange.mp4";
+    static final String MISSING_PATH = "/missing.mp4";
+
+    private static final int MOOV_SIZE = 64 * 1024;
+    private static final int SLICE = 16 * 1024;
+
+    private final byte[] mBody;
+    private final long mBytesPerSecond;
+    private final HttpServer mServer;
+    private final ExecutorService mExecutor = Executors.newCachedThreadPool();
+    // System.nanoTime() the shared link is busy until; guarded by this.
+    private long mLinkFreeAt = 0L;
+    private final AtomicLong mBytesSent = new AtomicLong();
+    private volatile String mETag = "\"lift\"";
+
+    /**
+     * @param length
+     *            Size of the media
+     * @param bytesPerSecond
+     *            Pace of the link all responses share, or 0 for as fast as loopback goes
+     */
+    OriginServer(int length, long bytesPerSecond) throws IOException {
+        mBody = mp4(length);
+        mBytesPerSecond = bytesPerSecond;
+        mServer = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 16);
+        mServer.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                try {
+                    serve(exchange);
+                } finally {
+                    exchange.close();
+                }
+            }
+        });
+        mServer.setExecutor(mExecutor);
+        mServer.start();
+    }
+
+    String url(String path) {
+        return "http://127.0.0.1:" + mServer.getAddress().getPort() + path;
+    }
+
+    int getLength() {
+        return mBody.length;
+    }
+
+    /**
+     * Returns the body bytes sent so far, all responses together.
+     */
+    long getBytesSent() {
+        return mBytesSent.get();
+    }
+
+    /**
+     * Pretend the media was replaced: it gets a new ETag, the body stays.
+     */
+    void setVersion(String version) {
+        mETag = "\"" + version + "\"";
+    }
+
+    /**
+     * Where the 'moov' box starts; a player can begin once everything before the first
+     * chunk and from here on has landed.
+     */
+    int getMoovOffset() {
+        return mBody.length - MOOV_SIZE;
+    }
+
+    void stop() {
+        mServer.stop(0);
+        mExecutor.shutdownNow();
+    }
+
+    private void serve(HttpExchange exchange) throws IOException {
+        String path = exchange.getRequestURI().getPath();
+        if (!path.equals(MEDIA_PATH) && !path.equals(NO_RANGE_PATH)) {
+            exchange.sendResponseHeaders(404, -1L);
+            return;
+        }
+        String etag = mETag;
+        if (etag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+            exchange.getResponseHeaders().set("ETag", etag);
+            exchange.sendResponseHeaders(304, -1L);
+            return;
+        }
+        int first = 0;
+        int last = mBody.length - 1;
+        String range = exchange.getRequestHeaders().getFirst("Range");
+        boolean partial = range != null && range.startsWith("bytes=") && path.equals(MEDIA_PATH);
+        if (partial) {
+            String[] ends = range.substring(6).split("-", 2);
+            first = Integer.parseInt(ends[0].trim());
+            if (ends.length > 1 && ends[1].trim().length() > 0) {
+                last = Math.min(last, Integer.parseInt(ends[1].trim()));
+            }
+            exchange.getResponseHeaders().set("Content-Range",
+                    "bytes " + first + "-" + last + "/" + mBody.length);
+        }
+        exchange.getResponseHeaders().set("Content-Type", "video/mp4");
+        exchange.getResponseHeaders().set("ETag", etag);
+        exchange.sendResponseHeaders(partial ? 206 : 200, last - first + 1);
+        OutputStream out = exchange.getResponseBody();
+        int sent = 0;
+        while (first + sent <= last) {
+            int n = Math.min(SLICE, last + 1 - first - sent);
+            out.write(mBody, first + sent, n);
+            sent += n;
+            mBytesSent.addAndGet(n);
+            pace(n);
+        }
+        out.flush();
+    }
+
+    /*
+     * Book the bytes on the shared link, after whatever other responses booked, and sleep
+     * until they are through.
+     */
+    private void pace(int bytes) throws IOException {
+        if (mBytesPerSecond <= 0L) {
+            return;
+        }
+        long due;
+        synchronized (this) {
+            mLinkFreeAt = Math.max(mLinkFreeAt, System.nanoTime()) + bytes * 1000000000L / mBytesPerSecond;
+            due = mLinkFreeAt;
+        }
+        long aheadMs = (due - System.nanoTime()) / 1000000L;
+        if (aheadMs > 0L) {
+            try {
+                Thread.sleep(aheadMs);
+            } catch (InterruptedException e) {
+                throw new IOException("Interrupted");
+            }
+        }
+    }
+
+    /*
+     * ftyp, then mdat filling all but the tail, then moov.
+     */
+    private static byte[] mp4(int length) {
+        byte[] body = new byte[length];
+        int mdat = length - MOOV_SIZE - 16;
+        box(body, 0, 16, "ftyp");
+        box(body, 16, mdat, "mdat");
+        box(body, 16 + mdat, MOOV_SIZE, "moov");
+        for (int i = 24; i < 16 + mdat; i++) {
+            body[i] = (byte) i;
+        }
+        return body;
+    }
+
+    private static void box(byte[] body, int offset, int size, String type) {
+        body[offset] = (byte) (size >>> 24);
+        body[offset + 1] = (byte) (size >>> 16);
+        body[offset + 2] = (byte) (size >>> 8);
+        body[offset + 3] = (byte) size;
+        for (int i = 0; i < 4; i++) {
+            body[offset + 4 + i] = (byte) type.charAt(i);
+        }
+    }
+}
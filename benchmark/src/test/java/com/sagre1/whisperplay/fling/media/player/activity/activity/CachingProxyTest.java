@@ -0,0 +1,194 @@
+package com.sagre1.whisperplay.fling.media.player.activity.activity;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The proxy in front of a loopback {@link OriginServer}, fetched the way MediaPlayer does.
+ */
+public class CachingProxyTest {
+    private static final int MEDIA_LENGTH = 1024 * 1024;
+    private static final long CACHE_SIZE = 16L * 1024L * 1024L;
+    private static final long TIMEOUT_MS = 5000L;
+
+    private OriginServer mOrigin;
+    private MediaCache mCache;
+    private CachingProxy mProxy;
+
+    @Before
+    public void setUp() throws IOException {
+        mOrigin = new OriginServer(MEDIA_LENGTH, 0L);
+        File dir = File.createTempFile("cache", "");
+        if (!dir.delete() || !dir.mkdirs()) {
+            throw new IOException("Cannot make " + dir);
+        }
+        mCache = new MediaCache(dir, CACHE_SIZE);
+        mProxy = new CachingProxy(mCache);
+        mProxy.start();
+    }
+
+    @After
+    public void tearDown() {
+        mProxy.stop();
+        mOrigin.stop();
+    }
+
+    @Test
+    public void missThenHit() throws Exception {
+        Response miss = get(OriginServer.MEDIA_PATH);
+        assertEquals(200, miss.mCode);
+        assertEquals(mOrigin.getLength(), miss.mBody.length);
+        awaitCached(OriginServer.MEDIA_PATH);
+        long sent = mOrigin.getBytesSent();
+
+        Response hit = get(OriginServer.MEDIA_PATH);
+        assertEquals(200, hit.mCode);
+        assertArrayEquals(miss.mBody, hit.mBody);
+        assertEquals(sent, mOrigin.getBytesSent());
+        assertEquals(1L, mProxy.getMissCount());
+        assertEquals(1L, mProxy.getHitCount());
+        assertEquals(1L, mProxy.toJson().getLong("hits"));
+        assertEquals(mOrigin.getLength(), mProxy.getBytesFromCache());
+    }
+
+    @Test
+    public void rangeOfCachedCopy() throws Exception {
+        byte[] whole = get(OriginServer.MEDIA_PATH).mBody;
+        awaitCached(OriginServer.MEDIA_PATH);
+
+        Response range = get(OriginServer.MEDIA_PATH, "bytes=1000-1999");
+        assertEquals(206, range.mCode);
+        assertEquals("bytes 1000-1999/" + mOrigin.getLength(), range.mContentRange);
+        byte[] expected = new byte[1000];
+        System.arraycopy(whole, 1000, expected, 0, expected.length);
+        assertArrayEquals(expected, range.mBody);
+        assertEquals(1L, mProxy.getHitCount());
+    }
+
+    @Test
+    public void unchangedCopyIsRevalidatedWithoutABody() throws Exception {
+        get(OriginServer.MEDIA_PATH);
+        awaitCached(OriginServer.MEDIA_PATH);
+        long sent = mOrigin.getBytesSent();
+        mProxy.setRevalidateAfter(0L);
+        Thread.sleep(10L);
+
+        assertEquals(200, get(OriginServer.MEDIA_PATH).mCode);
+        assertEquals(1L, mProxy.getRevalidationCount());
+        assertEquals(0L, mProxy.getRevalidationChangedCount());
+        assertEquals(1L, mProxy.getHitCount());
+        assertEquals(sent, mOrigin.getBytesSent());
+    }
+
+    @Test
+    public void changedCopyIsDownloadedOnce() throws Exception {
+        get(OriginServer.MEDIA_PATH);
+        awaitCached(OriginServer.MEDIA_PATH);
+        long sent = mOrigin.getBytesSent();
+        mOrigin.setVersion("v2");
+        mProxy.setRevalidateAfter(0L);
+        Thread.sleep(10L);
+
+        Response changed = get(OriginServer.MEDIA_PATH);
+        assertEquals(200, changed.mCode);
+        assertEquals(mOrigin.getLength(), changed.mBody.length);
+        assertEquals(1L, mProxy.getRevalidationChangedCount());
+        assertEquals(2L, mProxy.getMissCount());
+        // The one byte asked for to revalidate, then the body once.
+        assertEquals(sent + 1L + mOrigin.getLength(), mOrigin.getBytesSent());
+    }
+
+    @Test
+    public void wholeBodyHostIsStreamedFromThenOn() throws Exception {
+        Response first = get(OriginServer.NO_RANGE_PATH);
+        assertEquals(200, first.mCode);
+        assertEquals(mOrigin.getLength(), first.mBody.length);
+
+        // The host is given up on, so media that has ranges is streamed too.
+        Response next = get(OriginServer.MEDIA_PATH);
+        assertEquals(200, next.mCode);
+        assertEquals(mOrigin.getLength(), next.mBody.length);
+        assertEquals(-1L, mProxy.getMeanFirstBytesMs());
+    }
+
+    @Test
+    public void missingMediaIsPassedOnWithoutGivingUpOnTheHost() throws Exception {
+        assertEquals(404, get(OriginServer.MISSING_PATH).mCode);
+
+        Response next = get(OriginServer.MEDIA_PATH);
+        assertEquals(200, next.mCode);
+        assertEquals(mOrigin.getLength(), next.mBody.length);
+        awaitChunkedLoad();
+    }
+
+    private void awaitCached(String path) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+        while (mCache.get(mOrigin.url(path)) == null) {
+            assertTrue("Not cached", System.currentTimeMillis() < deadline);
+            Thread.sleep(5L);
+        }
+    }
+
+    private void awaitChunkedLoad() throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+        while (mProxy.getMeanFirstBytesMs() < 0L) {
+            assertTrue("No chunked load", System.currentTimeMillis() < deadline);
+            Thread.sleep(5L);
+        }
+    }
+
+    private Response get(String path) throws IOException {
+        return get(path, null);
+    }
+
+    private Response get(String path, String range) throws IOException {
+        String url = mProxy.proxyUrl(mOrigin.url(path));
+        HttpURLConnection conn = (HttpURLConnection) new URL(url).openConnection();
+        if (range != null) {
+            conn.setRequestProperty("Range", range);
+        }
+        try {
+            int code = conn.getResponseCode();
+            InputStream in = code >= 400 ? conn.getErrorStream() : conn.getInputStream();
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            if (in != null) {
+                try {
+                    byte[] buf = new byte[8192];
+                    int n;
+                    while ((n = in.read(buf)) >= 0) {
+                        body.write(buf, 0, n);
+                    }
+                } finally {
+                    in.close();
+                }
+            }
+            return new Response(code, conn.getHeaderField("Content-Range"), body.toByteArray());
+        } finally {
+            conn.disconnect();
+        }
+    }
+
+    private static final class Response {
+        final int mCode;
+        final String mContentRange;
+        final byte[] mBody;
+
+        Response(int code, String contentRange, byte[] body) {
+            mCode = code;
+            mContentRange = contentRange;
+            mBody = body;
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package com.sagre1.whisperplay.fling.media.player.activity.activity;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import com.amazon.whisperplay.fling.media.service.CustomMediaPlayer.PlayerSeekMode;
+import com.amazon.whisperplay.fling.media.service.MediaPlayerStatus.MediaState;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The command queue against the fake framework. A slow prepare is played out by holding the
+ * main looper, which delivers the fake player's callbacks.
+ */
+public class CommandQueueTest {
+    private static final String NEXT_URL = "http://localhost/press.mp4";
+    private static final long TIMEOUT_MS = 5000L;
+    private static final int SEEK_MS = 60000;
+    private static final int FLOOD = 100;
+
+    private CustomMediaPlayerImplementation mPlayer;
+    private CountDownLatch mMainHeld;
+
+    @Before
+    public void setUp() throws Exception {
+        mPlayer = new CustomMediaPlayerImplementation(BenchmarkPlayers.newContext());
+        mPlayer.startUp();
+    }
+
+    @After
+    public void tearDown() {
+        releaseMain();
+        mPlayer.tearDown();
+    }
+
+    @Test
+    public void autoPlayOfNextLiftSurvivesReplacedLoad() throws Exception {
+        holdMain();
+        mPlayer.setMediaSource(BenchmarkPlayers.MEDIA_URL, BenchmarkPlayers.METADATA, true, true);
+        awaitState(MediaState.PreparingMedia);
+        // The first lift's Play is still parked on its prepare.
+        mPlayer.setMediaSource(NEXT_URL, BenchmarkPlayers.METADATA, true, true);
+        new BenchmarkPlayers.Barrier(BenchmarkPlayers.commandHandler(mPlayer)).await();
+        releaseMain();
+
+        awaitState(MediaState.Playing);
+        assertEquals(NEXT_URL, mPlayer.getMediaInfo().getSource());
+    }
+
+    @Test
+    public void stopDuringPrepareRestartsOnceReady() throws Exception {
+        holdMain();
+        mPlayer.setMediaSource(BenchmarkPlayers.MEDIA_URL, BenchmarkPlayers.METADATA, false, true);
+        awaitState(MediaState.PreparingMedia);
+        // Parked on the prepare; the Stop after it supersedes the seek.
+        mPlayer.seek(PlayerSeekMode.Absolute, SEEK_MS);
+        mPlayer.stop();
+        new BenchmarkPlayers.Barrier(BenchmarkPlayers.commandHandler(mPlayer)).await();
+        assertEquals(MediaState.PreparingMedia, mPlayer.getState());
+        releaseMain();
+
+        awaitState(MediaState.Playing);
+        assertTrue(mPlayer.getPosition() < SEEK_MS);
+    }
+
+    @Test
+    public void newSourceSurvivesFullRing() throws Exception {
+        mPlayer.setMediaSource(BenchmarkPlayers.MEDIA_URL, BenchmarkPlayers.METADATA, true, true);
+        awaitState(MediaState.Playing);
+        CountDownLatch commandsHeld = hold(BenchmarkPlayers.commandHandler(mPlayer));
+        try {
+            // More transport commands than the ring holds, then a new lift.
+            for (int i = 0; i < FLOOD; i++) {
+                mPlayer.seek(PlayerSeekMode.Absolute, 0L);
+            }
+            mPlayer.setMediaSource(NEXT_URL, BenchmarkPlayers.METADATA, true, true);
+        } finally {
+            commandsHeld.countDown();
+        }
+
+        awaitSource(NEXT_URL);
+        awaitState(MediaState.Playing);
+    }
+
+    private void holdMain() {
+        mMainHeld = hold(new Handler(Looper.getMainLooper()));
+    }
+
+    /*
+     * Keep a handler's thread busy until the returned latch is counted down.
+     */
+    private static CountDownLatch hold(Handler handler) {
+        final CountDownLatch held = new CountDownLatch(1);
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    held.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        return held;
+    }
+
+    private void releaseMain() {
+        if (mMainHeld != null) {
+            mMainHeld.countDown();
+            mMainHeld = null;
+        }
+    }
+
+    private void awaitSource(String url) throws Exception {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+        while (!url.equals(mPlayer.getMediaInfo().getSource())) {
+            if (System.currentTimeMillis() > deadline) {
+                assertEquals(url, mPlayer.getMediaInfo().getSource());
+            }
+            Thread.sleep(5L);
+        }
+    }
+
+    private void awaitState(MediaState state) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+        while (mPlayer.getState() != state) {
+            if (System.currentTimeMillis() > deadline) {
+                assertEquals(state, mPlayer.getState());
+            }
+            Thread.sleep(5L);
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package com.sagre1.whisperplay.fling.media.player.activity.activity;
+
+import org.json.JSONException;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * The metadata of setMediaSource as the phone sends it, and the ways it goes wrong.
+ */
+public class MetadataParserTest {
+    private static final String CURRENT = "{\"title\":\"Squat\",\"reps\":5,\"weight\":225,\"restPeriodAfter\":90}";
+    private static final String NEXT = "{\"title\":\"Bench\",\"reps\":3}";
+    private static final String TIMER = "{\"startTimerCast\":true}";
+    private static final String FIRST = "{\"firstExercise\":false}";
+
+    private final MetadataParser mParser = new MetadataParser();
+
+    @Test
+    public void allFourValues() throws JSONException {
+        WorkoutMetadata metadata = mParser.parse(CURRENT + NEXT + TIMER + FIRST);
+        assertEquals("Squat", metadata.mCurrent.mTitle);
+        assertEquals(225, metadata.mCurrent.mWeight);
+        assertEquals(90, metadata.mCurrent.mRestSeconds);
+        assertEquals("Bench", metadata.mNext.mTitle);
+        assertTrue(metadata.mStartTimer);
+        assertFalse(metadata.mFirstExercise);
+        assertEquals(1L, mParser.getParsedCount());
+    }
+
+    @Test
+    public void missingTitle() {
+        assertRejected("{\"reps\":5}", "value 1 (current lift)", "\"title\"", "missing");
+        assertRejected(CURRENT + "{\"reps\":3}", "value 2 (next lift)", "\"title\"", "missing");
+    }
+
+    @Test
+    public void wrongValueTypes() {
+        assertRejected("{\"title\":\"Squat\",\"reps\":true}", "value 1 (current lift)", "\"reps\"",
+                "expected a number, was BOOLEAN");
+        assertRejected("{\"title\":{\"name\":\"Squat\"}}", "value 1 (current lift)", "\"title\"",
+                "expected a string, was BEGIN_OBJECT");
+        assertRejected(CURRENT + NEXT + "{\"startTimerCast\":1}", "value 3 (timer flag)",
+                "\"startTimerCast\"", "expected a boolean, was NUMBER");
+        assertRejected(CURRENT + NEXT + TIMER + "{\"firstExercise\":\"yes\"}", "value 4 (first exercise flag)",
+                "\"firstExercise\"", "expected a boolean, was \"yes\"");
+    }
+
+    @Test
+    public void numbersSentAsStrings() throws JSONException {
+        WorkoutMetadata metadata = mParser.parse("{\"title\":\"Squat\",\"reps\":\"5\",\"weight\":\"\"}");
+        assertEquals(5, metadata.mCurrent.mReps);
+        assertEquals(0, metadata.mCurrent.mWeight);
+
+        assertRejected("{\"title\":\"Squat\",\"weight\":\"heavy\"}", "value 1 (current lift)", "\"weight\"",
+                "expected a number, was \"heavy\"");
+    }
+
+    @Test
+    public void separatorBetweenValues() {
+        assertRejected(CURRENT + ";" + NEXT, "value 2 (next lift)", "offset " + CURRENT.length(), "was ';'");
+        assertRejected(CURRENT + NEXT + "," + TIMER, "value 3 (timer flag)",
+                "offset " + (CURRENT + NEXT).length(), "was ','");
+    }
+
+    @Test
+    public void extraFifthValue() {
+        String json = CURRENT + NEXT + TIMER + FIRST;
+        assertRejected(json + " {}", "value 5", "offset " + (json.length() + 1), "unexpected extra value");
+        assertEquals(1L, mParser.getFailedCount());
+    }
+
+    private void assertRejected(String json, String... parts) {
+        try {
+            mParser.parse(json);
+            fail("Accepted " + json);
+        } catch (JSONException e) {
+            for (String part : parts) {
+                assertTrue(e.getMessage(), e.getMessage().contains(part));
+            }
+        }
+    }
+}